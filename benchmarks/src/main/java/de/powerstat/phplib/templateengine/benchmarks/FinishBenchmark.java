@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine.benchmarks;
+
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.powerstat.phplib.templateengine.TemplateEngine;
+import de.powerstat.phplib.templateengine.TemplateEngine.HandleUndefined;
+
+
+/**
+ * Benchmark get() (finish) under each handling of undefined variables.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FinishBenchmark
+ {
+  /**
+   * Output variable name.
+   */
+  private static final String OUTPUT = "output"; //$NON-NLS-1$
+
+  /**
+   * Template size in characters.
+   */
+  @Param({"1024", "65536", "1048000"})
+  public int size;
+
+  /**
+   * Handling of undefined variables.
+   */
+  @Param({"REMOVE", "KEEP", "COMMENT"})
+  public HandleUndefined unknowns;
+
+  /**
+   * Template engine with parsed output, where half of the variables are undefined.
+   */
+  private TemplateEngine engine;
+
+
+  /**
+   * Setup template engine.
+   *
+   * @throws IOException IO exception
+   */
+  @Setup
+  public void setup() throws IOException
+   {
+    this.engine = new TemplateEngine(this.unknowns);
+    this.engine.setVar(Templates.TEMPLATE, Templates.generate(this.size, 20));
+    for (int num = 0; num < 20; num += 2)
+     {
+      this.engine.setVar(Templates.varname(num), "value"); //$NON-NLS-1$
+     }
+    this.engine.parse(OUTPUT, Templates.TEMPLATE);
+   }
+
+
+  /**
+   * Benchmark get of the parsed output.
+   *
+   * @return Finished output
+   */
+  @Benchmark
+  public String get()
+   {
+    return this.engine.get(OUTPUT);
+   }
+
+ }
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine.benchmarks;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.powerstat.phplib.templateengine.TemplateCache;
+import de.powerstat.phplib.templateengine.TemplateEngine;
+
+
+/**
+ * Benchmark setFile() and subst() on a fresh template engine, so that every operation has to load the template.
+ *
+ * The TemplateCache is cleared before every operation, otherwise only the first operation would load the template.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoadBenchmark
+ {
+  /**
+   * Template file (read from classpath), template9.tmpl is the 1 MB test fixture.
+   */
+  @Param({"template9.tmpl"})
+  public String file;
+
+
+  /**
+   * Clear the template cache.
+   */
+  @Setup(Level.Invocation)
+  public void clearCache()
+   {
+    TemplateCache.getInstance().clear();
+   }
+
+
+  /**
+   * Benchmark setFile and subst on a new engine.
+   *
+   * @return Substituted template
+   * @throws IOException IO exception
+   */
+  @Benchmark
+  public String setFileSubst() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    engine.setFile(Templates.TEMPLATE, new File(this.file));
+    return engine.subst(Templates.TEMPLATE);
+   }
+
+ }
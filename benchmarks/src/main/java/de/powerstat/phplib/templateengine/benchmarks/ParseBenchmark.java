@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine.benchmarks;
+
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.powerstat.phplib.templateengine.TemplateEngine;
+
+
+/**
+ * Benchmark parse() of a table row block with and without append.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark
+ {
+  /**
+   * Row block variable name.
+   */
+  private static final String ROW = "row"; //$NON-NLS-1$
+
+  /**
+   * Rows target variable name.
+   */
+  private static final String ROWS = "rows"; //$NON-NLS-1$
+
+  /**
+   * Number of rows to parse.
+   */
+  @Param({"10", "1000", "10000"})
+  public int rows;
+
+  /**
+   * Append rows or replace them.
+   */
+  @Param({"false", "true"})
+  public boolean append;
+
+  /**
+   * Prototype engine that will be copied for every operation.
+   */
+  private TemplateEngine prototype;
+
+
+  /**
+   * Setup prototype template engine.
+   */
+  @Setup
+  public void setup()
+   {
+    this.prototype = new TemplateEngine();
+    this.prototype.setVar(ROW, "<tr><td>{var0}</td><td>{var1}</td><td>{var2}</td></tr>\n"); //$NON-NLS-1$
+    Templates.setVariables(this.prototype, 3);
+   }
+
+
+  /**
+   * Benchmark parsing all rows.
+   *
+   * @return Rows target value
+   * @throws IOException IO exception
+   */
+  @Benchmark
+  public String parse() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine(this.prototype);
+    final String var0 = Templates.varname(0);
+    for (int row = 0; row < this.rows; ++row)
+     {
+      engine.setVar(var0, Integer.toString(row));
+      engine.parse(ROWS, ROW, this.append);
+     }
+    return engine.getVar(ROWS);
+   }
+
+ }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine.benchmarks;
+
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.powerstat.phplib.templateengine.TemplateEngine;
+
+
+/**
+ * Benchmark cutting all blocks out of a template with setBlock().
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SetBlockBenchmark
+ {
+  /**
+   * Template size in characters.
+   */
+  @Param({"1024", "65536", "1048000"})
+  public int size;
+
+  /**
+   * Number of blocks within the template.
+   */
+  @Param({"1", "10", "50"})
+  public int blocks;
+
+  /**
+   * Prototype engine that will be copied for every operation.
+   */
+  private TemplateEngine prototype;
+
+
+  /**
+   * Setup prototype template engine.
+   */
+  @Setup
+  public void setup()
+   {
+    this.prototype = TemplateEngine.newInstance(Templates.generateBlocks(this.size, this.blocks));
+   }
+
+
+  /**
+   * Benchmark setBlock for all blocks.
+   *
+   * @return Template engine with all blocks set
+   * @throws IOException IO exception
+   */
+  @Benchmark
+  public TemplateEngine setBlock() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine(this.prototype);
+    for (int block = 0; block < this.blocks; ++block)
+     {
+      engine.setBlock(Templates.TEMPLATE, Templates.blockname(block));
+     }
+    return engine;
+   }
+
+ }
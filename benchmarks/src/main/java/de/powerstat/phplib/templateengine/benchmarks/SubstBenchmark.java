@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine.benchmarks;
+
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.powerstat.phplib.templateengine.TemplateEngine;
+
+
+/**
+ * Benchmark subst() and getUndefined() on generated templates.
+ *
+ * subst() changes one variable before every operation, so that the render memo could not be used,
+ * while substMemo() repeats the same subst to measure a render memo hit.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SubstBenchmark
+ {
+  /**
+   * Number of precomputed values for the changed variable.
+   */
+  private static final int VALUES = 16;
+
+  /**
+   * Template size in characters.
+   */
+  @Param({"1024", "65536", "1048000"})
+  public int size;
+
+  /**
+   * Number of different variables within the template.
+   */
+  @Param({"10", "200"})
+  public int variables;
+
+  /**
+   * Template engine with all variables set.
+   */
+  private TemplateEngine engine;
+
+  /**
+   * Template engine with only every second variable set.
+   */
+  private TemplateEngine partialEngine;
+
+  /**
+   * Precomputed values for the first variable, used round robin.
+   */
+  private String[] values;
+
+  /**
+   * Index of the next value.
+   */
+  private int next;
+
+
+  /**
+   * Setup template engines.
+   */
+  @Setup
+  public void setup()
+   {
+    final String template = Templates.generate(this.size, this.variables);
+    this.engine = TemplateEngine.newInstance(template);
+    Templates.setVariables(this.engine, this.variables);
+    this.partialEngine = TemplateEngine.newInstance(template);
+    for (int num = 0; num < this.variables; num += 2)
+     {
+      this.partialEngine.setVar(Templates.varname(num), "value"); //$NON-NLS-1$
+     }
+    this.values = new String[VALUES];
+    for (int num = 0; num < VALUES; ++num)
+     {
+      this.values[num] = "changed" + num; //$NON-NLS-1$
+     }
+   }
+
+
+  /**
+   * Benchmark subst with all variables defined and one of them changed before.
+   *
+   * @return Substituted template
+   * @throws IOException IO exception
+   */
+  @Benchmark
+  public String subst() throws IOException
+   {
+    this.engine.setVar(Templates.varname(0), this.values[this.next]);
+    this.next = (this.next + 1) % VALUES;
+    return this.engine.subst(Templates.TEMPLATE);
+   }
+
+
+  /**
+   * Benchmark subst with all variables defined and unchanged, so that the rendered output is reused.
+   *
+   * @return Substituted template
+   * @throws IOException IO exception
+   */
+  @Benchmark
+  public String substMemo() throws IOException
+   {
+    return this.engine.subst(Templates.TEMPLATE);
+   }
+
+
+  /**
+   * Benchmark getUndefined with half of the variables undefined.
+   *
+   * @return Undefined variable names
+   * @throws IOException IO exception
+   */
+  @Benchmark
+  public List<String> getUndefined() throws IOException
+   {
+    return this.partialEngine.getUndefined(Templates.TEMPLATE);
+   }
+
+ }
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine.benchmarks;
+
+
+import de.powerstat.phplib.templateengine.TemplateEngine;
+
+
+/**
+ * Benchmark template generator.
+ */
+final class Templates
+ {
+  /**
+   * Template variable name.
+   */
+  static final String TEMPLATE = "template"; //$NON-NLS-1$
+
+  /**
+   * Variable name prefix.
+   */
+  private static final String VAR = "var"; //$NON-NLS-1$
+
+  /**
+   * Block name prefix.
+   */
+  private static final String BLK = "blk"; //$NON-NLS-1$
+
+
+  /**
+   * Private default constructor.
+   */
+  private Templates()
+   {
+    super();
+   }
+
+
+  /**
+   * Get variable name.
+   *
+   * @param num Variable number
+   * @return Variable name
+   */
+  static String varname(final int num)
+   {
+    return VAR + num;
+   }
+
+
+  /**
+   * Get block name.
+   *
+   * @param num Block number
+   * @return Block name
+   */
+  static String blockname(final int num)
+   {
+    return BLK + num;
+   }
+
+
+  /**
+   * Generate a template with about the given size that references the given number of variables round robin.
+   *
+   * @param size Template size in characters
+   * @param variables Number of different variables
+   * @return Template
+   */
+  static String generate(final int size, final int variables)
+   {
+    final StringBuilder template = new StringBuilder(size);
+    int num = 0;
+    while (template.length() < (size - 64))
+     {
+      template.append("<p class=\"row\">Lorem ipsum dolor sit amet {").append(varname(num)).append("}</p>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+      num = (num + 1) % variables;
+     }
+    return template.toString();
+   }
+
+
+  /**
+   * Generate a template with about the given size that contains the given number of blocks.
+   *
+   * @param size Template size in characters
+   * @param blocks Number of blocks
+   * @return Template
+   */
+  static String generateBlocks(final int size, final int blocks)
+   {
+    final int partSize = size / ((2 * blocks) + 1);
+    final StringBuilder template = new StringBuilder(size);
+    template.append(generate(partSize, 10));
+    for (int block = 0; block < blocks; ++block)
+     {
+      template.append("<!-- BEGIN ").append(blockname(block)).append(" -->\n"); //$NON-NLS-1$ //$NON-NLS-2$
+      template.append(generate(partSize, 10));
+      template.append("<!-- END ").append(blockname(block)).append(" -->\n"); //$NON-NLS-1$ //$NON-NLS-2$
+      template.append(generate(partSize, 10));
+     }
+    return template.toString();
+   }
+
+
+  /**
+   * Set the given number of variables.
+   *
+   * @param engine Template engine
+   * @param variables Number of variables
+   */
+  static void setVariables(final TemplateEngine engine, final int variables)
+   {
+    for (int num = 0; num < variables; ++num)
+     {
+      engine.setVar(varname(num), "value" + num); //$NON-NLS-1$
+     }
+   }
+
+ }
@@ -0,0 +1,4 @@
+/**
+ * JMH benchmarks for the PHPLib like template engine.
+ */
+package de.powerstat.phplib.templateengine.benchmarks;
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+/**
+ * Default executor for asynchronous rendering.
+ *
+ * On Java 21 and later a virtual thread per task executor is used, so that blocking template file I/O does not tie up platform threads.
+ * On older Java versions the common fork join pool is used.
+ * The executor is looked up by reflection, so that this library still runs on Java 11.
+ */
+final class AsyncExecutors
+ {
+  /**
+   * Logger.
+   */
+  private static final Logger LOGGER = LogManager.getLogger(AsyncExecutors.class);
+
+  /**
+   * Default executor.
+   */
+  private static final Executor DEFAULT = createDefault();
+
+
+  /**
+   * Private default constructor.
+   */
+  private AsyncExecutors()
+   {
+    super();
+   }
+
+
+  /**
+   * Create default executor.
+   *
+   * @return Virtual thread per task executor if available, otherwise the common fork join pool
+   */
+  private static Executor createDefault()
+   {
+    try
+     {
+      return (Executor)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null); //$NON-NLS-1$
+     }
+    catch (final NoSuchMethodException | IllegalAccessException | InvocationTargetException | UnsupportedOperationException e)
+     {
+      if (LOGGER.isDebugEnabled())
+       {
+        LOGGER.debug("Virtual threads not available, using common fork join pool", e); //$NON-NLS-1$
+       }
+      return ForkJoinPool.commonPool();
+     }
+   }
+
+
+  /**
+   * Get default executor.
+   *
+   * @return Default executor
+   */
+  static Executor getDefault()
+   {
+    return DEFAULT;
+   }
+
+ }
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * Template block cut from its parent template.
+ *
+ * Committed only while a Java Flight Recorder recording with this event enabled is running.
+ */
+@Name("de.powerstat.phplib.templateengine.BlockExtract") //$NON-NLS-1$
+@Label("Block Extract") //$NON-NLS-1$
+@Category({"PHPLib", "TemplateEngine"}) //$NON-NLS-1$ //$NON-NLS-2$
+@Description("Template block cut from its parent template.") //$NON-NLS-1$
+final class BlockExtractEvent extends Event
+ {
+  /**
+   * Parent template variable name.
+   */
+  @Label("Parent") //$NON-NLS-1$
+  String parent;
+
+  /**
+   * Block name.
+   */
+  @Label("Block") //$NON-NLS-1$
+  String block;
+
+  /**
+   * Parent template size in characters.
+   */
+  @Label("Parent Size") //$NON-NLS-1$
+  long parentSize;
+
+  /**
+   * Block size in characters.
+   */
+  @Label("Block Size") //$NON-NLS-1$
+  long blockSize;
+
+
+  /**
+   * Constructor.
+   */
+  BlockExtractEvent()
+   {
+    super();
+   }
+
+ }
@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Index of all blocks within a template.
+ *
+ * All "&lt;!-- BEGIN name --&gt;" and "&lt;!-- END name --&gt;" markers are found within one linear scan.
+ * Like the original regular expression a block reaches from the first BEGIN marker to the last END marker of its name.
+ *
+ * Immutable and therefore thread safe.
+ */
+final class BlockIndex
+ {
+  /**
+   * Marker start.
+   */
+  private static final String MARKER_START = "<!--"; //$NON-NLS-1$
+
+  /**
+   * Marker end.
+   */
+  private static final String MARKER_END = "-->"; //$NON-NLS-1$
+
+  /**
+   * Begin keyword.
+   */
+  private static final String BEGIN = "BEGIN "; //$NON-NLS-1$
+
+  /**
+   * End keyword.
+   */
+  private static final String END = "END "; //$NON-NLS-1$
+
+  /**
+   * Template source this index has been built from.
+   */
+  private final String source;
+
+  /**
+   * Blocks by name.
+   */
+  private final Map<String, Block> blocks;
+
+
+  /**
+   * Block position within a template.
+   */
+  static final class Block
+   {
+    /**
+     * Block name.
+     */
+    private final String name;
+
+    /**
+     * Start of BEGIN marker.
+     */
+    private final int start;
+
+    /**
+     * Start of block content (end of BEGIN marker).
+     */
+    private final int contentStart;
+
+    /**
+     * End of block content (start of END marker).
+     */
+    private final int contentEnd;
+
+    /**
+     * End of END marker.
+     */
+    private final int end;
+
+
+    /**
+     * Constructor.
+     *
+     * @param name Block name
+     * @param start Start of BEGIN marker
+     * @param contentStart Start of block content
+     * @param contentEnd End of block content
+     * @param end End of END marker
+     */
+    Block(final String name, final int start, final int contentStart, final int contentEnd, final int end)
+     {
+      this.name = name;
+      this.start = start;
+      this.contentStart = contentStart;
+      this.contentEnd = contentEnd;
+      this.end = end;
+     }
+
+
+    /**
+     * Get block name.
+     *
+     * @return Block name
+     */
+    String getName()
+     {
+      return this.name;
+     }
+
+
+    /**
+     * Get start of BEGIN marker.
+     *
+     * @return Start position
+     */
+    int getStart()
+     {
+      return this.start;
+     }
+
+
+    /**
+     * Get start of block content.
+     *
+     * @return Content start position
+     */
+    int getContentStart()
+     {
+      return this.contentStart;
+     }
+
+
+    /**
+     * Get end of block content.
+     *
+     * @return Content end position
+     */
+    int getContentEnd()
+     {
+      return this.contentEnd;
+     }
+
+
+    /**
+     * Get end of END marker.
+     *
+     * @return End position
+     */
+    int getEnd()
+     {
+      return this.end;
+     }
+
+
+    /**
+     * Is other block within this block.
+     *
+     * @param other Other block
+     * @return true if other block is inside of this blocks content
+     */
+    boolean contains(final Block other)
+     {
+      return (other.start >= this.contentStart) && (other.end <= this.contentEnd);
+     }
+
+
+    /**
+     * Shift block positions.
+     *
+     * @param delta Position delta
+     * @return Shifted block
+     */
+    Block shift(final int delta)
+     {
+      return new Block(this.name, this.start + delta, this.contentStart + delta, this.contentEnd + delta, this.end + delta);
+     }
+
+
+    /**
+     * Shift block end positions, for a change of the blocks content.
+     *
+     * @param delta Position delta
+     * @return Resized block
+     */
+    Block resize(final int delta)
+     {
+      return new Block(this.name, this.start, this.contentStart, this.contentEnd + delta, this.end + delta);
+     }
+
+   }
+
+
+  /**
+   * Constructor.
+   *
+   * @param source Template source
+   * @param blocks Blocks by name
+   */
+  private BlockIndex(final String source, final Map<String, Block> blocks)
+   {
+    this.source = source;
+    this.blocks = blocks;
+   }
+
+
+  /**
+   * Build block index with one scan over the template.
+   *
+   * @param template Template text
+   * @return Block index
+   */
+  static BlockIndex build(final String template)
+   {
+    final Map<String, int[]> begins = new HashMap<>();
+    final Map<String, int[]> ends = new HashMap<>();
+    int pos = template.indexOf(MARKER_START);
+    while (pos >= 0)
+     {
+      int next = pos + MARKER_START.length();
+      final int afterSpace = skipWhitespace(template, next);
+      if (afterSpace > next)
+       {
+        final boolean isBegin = template.startsWith(BEGIN, afterSpace);
+        final boolean isEnd = !isBegin && template.startsWith(END, afterSpace);
+        if (isBegin || isEnd)
+         {
+          final int nameStart = afterSpace + (isBegin ? BEGIN.length() : END.length());
+          int nameEnd = nameStart;
+          while ((nameEnd < template.length()) && CompiledTemplate.isNameChar(template.charAt(nameEnd)))
+           {
+            ++nameEnd;
+           }
+          final int markerEnd = skipWhitespace(template, nameEnd);
+          if ((nameEnd > nameStart) && (markerEnd > nameEnd) && template.startsWith(MARKER_END, markerEnd))
+           {
+            final String name = template.substring(nameStart, nameEnd);
+            next = markerEnd + MARKER_END.length();
+            if (isBegin)
+             {
+              begins.putIfAbsent(name, new int[]{pos, next});
+             }
+            else
+             {
+              ends.put(name, new int[]{pos, next});
+             }
+           }
+         }
+       }
+      pos = template.indexOf(MARKER_START, next);
+     }
+    final Map<String, Block> blocks = new HashMap<>();
+    for (final Map.Entry<String, int[]> begin : begins.entrySet())
+     {
+      final int[] end = ends.get(begin.getKey());
+      if ((end != null) && (end[0] >= begin.getValue()[1]))
+       {
+        blocks.put(begin.getKey(), new Block(begin.getKey(), begin.getValue()[0], begin.getValue()[1], end[0], end[1]));
+       }
+     }
+    return new BlockIndex(template, blocks);
+   }
+
+
+  /**
+   * Skip whitespace like regular expressions \s does.
+   *
+   * @param template Template text
+   * @param start Start position
+   * @return Position of first non whitespace character
+   */
+  private static int skipWhitespace(final String template, final int start)
+   {
+    int pos = start;
+    while (pos < template.length())
+     {
+      final char chr = template.charAt(pos);
+      if ((chr != ' ') && (chr != '\t') && (chr != '\n') && (chr != '\u000B') && (chr != '\f') && (chr != '\r'))
+       {
+        break;
+       }
+      ++pos;
+     }
+    return pos;
+   }
+
+
+  /**
+   * Is this index built from the given source.
+   *
+   * @param template Template source
+   * @return true if built from template, false otherwise
+   */
+  boolean isBuiltFrom(final String template)
+   {
+    return this.source == template; // NOPMD Identity by intention
+   }
+
+
+  /**
+   * Get block by name.
+   *
+   * @param name Block name
+   * @return Block or null if not found
+   */
+  Block get(final String name)
+   {
+    return this.blocks.get(name);
+   }
+
+
+  /**
+   * Get top level blocks, that are not inside of another block, in order of their occurrence.
+   *
+   * @return Top level blocks
+   * @throws IllegalStateException If blocks are overlapping
+   */
+  List<Block> getTopLevelBlocks()
+   {
+    final List<Block> sorted = new ArrayList<>(this.blocks.values());
+    sorted.sort(Comparator.comparingInt(Block::getStart));
+    final List<Block> result = new ArrayList<>();
+    Block last = null;
+    for (final Block block : sorted)
+     {
+      if ((last == null) || (block.start >= last.end))
+       {
+        result.add(block);
+        last = block;
+       }
+      else if (!last.contains(block))
+       {
+        throw new IllegalStateException("Blocks are overlapping: " + last.name + ", " + block.name); //$NON-NLS-1$ //$NON-NLS-2$
+       }
+     }
+    return Collections.unmodifiableList(result);
+   }
+
+
+  /**
+   * Get index for the content of a block.
+   *
+   * @param block Block from this index
+   * @param content Block content
+   * @return Index of the blocks inside of the block
+   */
+  BlockIndex inner(final Block block, final String content)
+   {
+    final Map<String, Block> result = new HashMap<>();
+    for (final Block other : this.blocks.values())
+     {
+      if (block.contains(other))
+       {
+        result.put(other.name, other.shift(-block.contentStart));
+       }
+     }
+    return new BlockIndex(content, result);
+   }
+
+
+  /**
+   * Get index after a block has been replaced.
+   *
+   * @param block Block from this index
+   * @param replaced Template with block replaced
+   * @param replacementLength Length of the replacement
+   * @return Index of the remaining blocks, blocks around the replaced block are resized
+   */
+  BlockIndex replace(final Block block, final String replaced, final int replacementLength)
+   {
+    final int delta = replacementLength - (block.end - block.start);
+    final Map<String, Block> result = new HashMap<>();
+    for (final Block other : this.blocks.values())
+     {
+      if (other.end <= block.start)
+       {
+        result.put(other.name, other);
+       }
+      else if (other.start >= block.end)
+       {
+        result.put(other.name, other.shift(delta));
+       }
+      else if (other.contains(block))
+       {
+        result.put(other.name, other.resize(delta));
+       }
+     }
+    return new BlockIndex(replaced, result);
+   }
+
+ }
@@ -0,0 +1,747 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntFunction;
+
+
+/**
+ * Precompiled template.
+ *
+ * A template is parsed once into a sequence of literal text and variable reference segments,
+ * so that rendering is a single linear walk without any regular expression work.
+ * Variable references are resolved to SymbolTable slots at compile time,
+ * so that variable values could be read by slot without hashing the names during rendering.
+ * Template sources add their names to the SymbolTable, while values only resolve names that are already known
+ * and resolve the others on render, so that the content of values could not grow the SymbolTable.
+ * For byte output the literal segments are UTF-8 encoded once, so that only the variable values have to be encoded per render.
+ *
+ * Effectively immutable and therefore thread safe.
+ */
+final class CompiledTemplate
+ {
+  /**
+   * Maximum varname size.
+   */
+  private static final int MAX_VARNAME_SIZE = 64;
+
+  /**
+   * Maximum template size.
+   */
+  private static final int MAX_TEMPLATE_SIZE = 1048576;
+
+  /**
+   * Maximum number of UTF-8 bytes per character.
+   */
+  private static final int MAX_BYTES_PER_CHAR = 3;
+
+  /**
+   * Literal segments - literals[i] is written before the variable reference refs[i], the last literal is written at the end.
+   */
+  private final String[] literals;
+
+  /**
+   * Variable references in order of their occurrence as index into names and slots.
+   */
+  private final int[] refs;
+
+  /**
+   * Distinct variable names in order of their first occurrence.
+   */
+  private final String[] names;
+
+  /**
+   * SymbolTable slots of the distinct variable names, -1 for names that are not known yet.
+   *
+   * Unknown slots are resolved on render with a racy single-check, every thread finds the same slot.
+   */
+  private final int[] slots;
+
+  /**
+   * Template source this template has been compiled from.
+   */
+  private final String source;
+
+  /**
+   * Summarized length of all literal segments.
+   */
+  private final int literalsLength;
+
+  /**
+   * UTF-8 encoded literal segments, null until the first byte render.
+   *
+   * Racy single-check, every thread computes the same value.
+   */
+  private volatile byte[][] encodedLiterals;
+
+
+  /**
+   * Render target that writes a compiled template to an output.
+   *
+   * @param <E> Exception thrown when writing fails
+   */
+  @FunctionalInterface
+  interface Sink<E extends Exception>
+   {
+    /**
+     * Render template to output.
+     *
+     * @param template Compiled template
+     * @return Number of written characters
+     * @throws E When writing fails
+     */
+    int render(CompiledTemplate template) throws E;
+   }
+
+
+  /**
+   * Rendered output of a template together with the variable values it has been rendered from.
+   *
+   * Values are compared by identity, so an unchanged value stamps its own version without any bookkeeping.
+   *
+   * Immutable and therefore thread safe.
+   */
+  static final class Rendered
+   {
+    /**
+     * Rendered template.
+     */
+    private final CompiledTemplate template;
+
+    /**
+     * Variable values as index by names, null for undefined variables.
+     */
+    private final CharSequence[] values;
+
+    /**
+     * Rendered output.
+     */
+    private final String output;
+
+
+    /**
+     * Constructor.
+     *
+     * @param template Rendered template
+     * @param values Variable values as index by names
+     * @param output Rendered output
+     */
+    private Rendered(final CompiledTemplate template, final CharSequence[] values, final String output)
+     {
+      this.template = template;
+      this.values = values;
+      this.output = output;
+     }
+
+
+    /**
+     * Get rendered output.
+     *
+     * @return Rendered output
+     */
+    String getOutput()
+     {
+      return this.output;
+     }
+
+
+    /**
+     * Has this output been rendered from the given template and values.
+     *
+     * @param other Template
+     * @param others Variable values as index by names
+     * @return true if template and all values are identical, false otherwise
+     */
+    private boolean isRenderedFrom(final CompiledTemplate other, final CharSequence[] others)
+     {
+      if (this.template != other)
+       {
+        return false;
+       }
+      for (int i = 0; i < others.length; ++i)
+       {
+        if (this.values[i] != others[i]) // NOPMD Identity by intention
+         {
+          return false;
+         }
+       }
+      return true;
+     }
+
+   }
+
+
+  /**
+   * Constructor.
+   *
+   * @param source Template source
+   * @param literals Literal segments (one more than refs)
+   * @param refs Variable references as index into names
+   * @param names Distinct variable names
+   * @param intern true to add unknown names to the SymbolTable, false to resolve them on render
+   */
+  private CompiledTemplate(final String source, final String[] literals, final int[] refs, final String[] names, final boolean intern)
+   {
+    assert literals.length == (refs.length + 1);
+    this.source = source;
+    this.literals = literals;
+    this.refs = refs;
+    this.names = names;
+    this.slots = new int[names.length];
+    final SymbolTable symbols = SymbolTable.getInstance();
+    for (int i = 0; i < names.length; ++i)
+     {
+      this.slots[i] = intern ? symbols.slot(names[i]) : symbols.find(names[i]);
+     }
+    int length = 0;
+    for (final String literal : literals)
+     {
+      length += literal.length();
+     }
+    this.literalsLength = length;
+   }
+
+
+  /**
+   * Compile a template source, the names of its variables are added to the SymbolTable.
+   *
+   * @param template Template text
+   * @return Compiled template
+   * @throws NullPointerException If template is null
+   */
+  static CompiledTemplate compile(final String template)
+   {
+    return compile(template, true);
+   }
+
+
+  /**
+   * Compile a variable value, names of its variables that are not known to the SymbolTable are resolved on render.
+   *
+   * @param value Variable value
+   * @return Compiled template
+   * @throws NullPointerException If value is null
+   */
+  static CompiledTemplate compileValue(final String value)
+   {
+    return compile(value, false);
+   }
+
+
+  /**
+   * Compile a template.
+   *
+   * @param template Template text
+   * @param intern true to add unknown names to the SymbolTable, false to resolve them on render
+   * @return Compiled template
+   * @throws NullPointerException If template is null
+   */
+  private static CompiledTemplate compile(final String template, final boolean intern)
+   {
+    Objects.requireNonNull(template, "template"); //$NON-NLS-1$
+    final List<String> literalList = new ArrayList<>();
+    final List<Integer> refList = new ArrayList<>();
+    final Map<String, Integer> nameIndexes = new LinkedHashMap<>();
+    final int length = template.length();
+    int literalStart = 0;
+    int pos = template.indexOf('{');
+    while (pos >= 0)
+     {
+      final int nameEnd = scanName(template, pos + 1, length);
+      if ((nameEnd > (pos + 1)) && (nameEnd < length) && (template.charAt(nameEnd) == '}'))
+       {
+        literalList.add(template.substring(literalStart, pos));
+        final String name = template.substring(pos + 1, nameEnd);
+        Integer index = nameIndexes.get(name);
+        if (index == null)
+         {
+          index = nameIndexes.size();
+          nameIndexes.put(name, index);
+         }
+        refList.add(index);
+        literalStart = nameEnd + 1;
+        pos = template.indexOf('{', literalStart);
+       }
+      else
+       {
+        pos = template.indexOf('{', pos + 1);
+       }
+     }
+    literalList.add(template.substring(literalStart));
+    final int[] refs = new int[refList.size()];
+    for (int i = 0; i < refs.length; ++i)
+     {
+      refs[i] = refList.get(i);
+     }
+    return new CompiledTemplate(template, literalList.toArray(new String[0]), refs, nameIndexes.keySet().toArray(new String[0]), intern);
+   }
+
+
+  /**
+   * Get this template with all names added to the SymbolTable.
+   *
+   * @return This template if all names are known, otherwise a copy with all names added
+   */
+  CompiledTemplate intern()
+   {
+    for (final int slot : this.slots)
+     {
+      if (slot < 0)
+       {
+        return new CompiledTemplate(this.source, this.literals, this.refs, this.names, true);
+       }
+     }
+    return this;
+   }
+
+
+  /**
+   * Write this template in binary form.
+   *
+   * The distinct names, the references and the UTF-8 encoded literal segments are written,
+   * so that reading does not have to scan the template again.
+   *
+   * @param out Output to write to
+   * @throws IOException IO exception
+   */
+  void write(final DataOutput out) throws IOException
+   {
+    out.writeInt(this.names.length);
+    for (final String name : this.names)
+     {
+      out.writeUTF(name);
+     }
+    out.writeInt(this.refs.length);
+    for (final int ref : this.refs)
+     {
+      out.writeInt(ref);
+     }
+    for (final String literal : this.literals)
+     {
+      final byte[] bytes = literal.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+     }
+   }
+
+
+  /**
+   * Read a template written by write().
+   *
+   * @param in Input to read from
+   * @return Compiled template
+   * @throws IOException IO exception or invalid data
+   */
+  static CompiledTemplate read(final DataInput in) throws IOException
+   {
+    final String[] names = new String[checkCount(in.readInt(), MAX_TEMPLATE_SIZE)];
+    for (int i = 0; i < names.length; ++i)
+     {
+      names[i] = in.readUTF();
+      if (!VarName.isValid(names[i]))
+       {
+        throw new IOException("Invalid variable name: " + names[i]); //$NON-NLS-1$
+       }
+     }
+    final int[] refs = new int[checkCount(in.readInt(), MAX_TEMPLATE_SIZE)];
+    for (int i = 0; i < refs.length; ++i)
+     {
+      refs[i] = checkCount(in.readInt(), names.length - 1);
+     }
+    final String[] literals = new String[refs.length + 1];
+    final StringBuilder source = new StringBuilder();
+    for (int i = 0; i < literals.length; ++i)
+     {
+      final byte[] bytes = new byte[checkCount(in.readInt(), MAX_TEMPLATE_SIZE * MAX_BYTES_PER_CHAR)];
+      in.readFully(bytes);
+      literals[i] = new String(bytes, StandardCharsets.UTF_8);
+      source.append(literals[i]);
+      if (i < refs.length)
+       {
+        source.append('{').append(names[refs[i]]).append('}');
+       }
+      if (source.length() > MAX_TEMPLATE_SIZE)
+       {
+        throw new IOException("template to large"); //$NON-NLS-1$
+       }
+     }
+    return new CompiledTemplate(source.toString(), literals, refs, names, true);
+   }
+
+
+  /**
+   * Check a count or index read from binary data.
+   *
+   * @param value Value read
+   * @param max Maximum allowed value
+   * @return value
+   * @throws IOException If value is negative or larger than max
+   */
+  private static int checkCount(final int value, final int max) throws IOException
+   {
+    if ((value < 0) || (value > max))
+     {
+      throw new IOException("Invalid template data: " + value); //$NON-NLS-1$
+     }
+    return value;
+   }
+
+
+  /**
+   * Scan a variable name.
+   *
+   * @param template Template text
+   * @param start Start position of name
+   * @param length Template length
+   * @return Position of first character after the name
+   */
+  private static int scanName(final String template, final int start, final int length)
+   {
+    int pos = start;
+    final int max = Math.min(length, start + MAX_VARNAME_SIZE + 1);
+    while ((pos < max) && isNameChar(template.charAt(pos)))
+     {
+      ++pos;
+     }
+    return ((pos - start) > MAX_VARNAME_SIZE) ? start : pos;
+   }
+
+
+  /**
+   * Is character allowed within a variable name.
+   *
+   * @param chr Character
+   * @return true if allowed, false otherwise
+   */
+  static boolean isNameChar(final char chr)
+   {
+    return ((chr >= 'a') && (chr <= 'z')) || ((chr >= 'A') && (chr <= 'Z')) || ((chr >= '0') && (chr <= '9')) || (chr == '_');
+   }
+
+
+  /**
+   * Is this template compiled from the given source.
+   *
+   * Checks for identity, because the engine stores each template value only once.
+   *
+   * @param template Template source
+   * @return true if compiled from template, false otherwise
+   */
+  boolean isCompiledFrom(final String template)
+   {
+    return this.source == template; // NOPMD Identity by intention
+   }
+
+
+  /**
+   * Get template source.
+   *
+   * @return Template source this template has been compiled from
+   */
+  String getSource()
+   {
+    return this.source;
+   }
+
+
+  /**
+   * Get number of distinct variables.
+   *
+   * @return Number of distinct variables referenced by this template
+   */
+  int getVariableCount()
+   {
+    return this.names.length;
+   }
+
+
+  /**
+   * Does this template reference a variable.
+   *
+   * @param name Variable name
+   * @return true if the variable is referenced, false otherwise
+   */
+  boolean references(final String name)
+   {
+    for (final String reference : this.names)
+     {
+      if (reference.equals(name))
+       {
+        return true;
+       }
+     }
+    return false;
+   }
+
+
+  /**
+   * Get the value of a distinct variable by slot.
+   *
+   * @param values Variable values by slot, returns null for undefined variables
+   * @param index Index into names
+   * @return Variable value or null if undefined
+   */
+  private CharSequence lookup(final IntFunction<? extends CharSequence> values, final int index)
+   {
+    int slot = this.slots[index];
+    if (slot < 0)
+     {
+      slot = SymbolTable.getInstance().find(this.names[index]);
+      if (slot < 0) // Never set, so it could not have a value
+       {
+        return null;
+       }
+      this.slots[index] = slot;
+     }
+    return values.apply(slot);
+   }
+
+
+  /**
+   * Resolve the values of all distinct variables by slot.
+   *
+   * Undefined variables are resolved to their unchanged reference.
+   *
+   * @param values Variable values by slot, returns null for undefined variables
+   * @return Resolved values as index by names
+   */
+  private CharSequence[] resolve(final IntFunction<? extends CharSequence> values)
+   {
+    final CharSequence[] resolved = new CharSequence[this.names.length];
+    for (int i = 0; i < this.names.length; ++i)
+     {
+      final CharSequence value = lookup(values, i);
+      resolved[i] = (value == null) ? ('{' + this.names[i] + '}') : value;
+     }
+    return resolved;
+   }
+
+
+  /**
+   * Replace undefined values by their unchanged reference.
+   *
+   * @param values Variable values as index by names, null for undefined variables
+   * @return Resolved values as index by names
+   */
+  private CharSequence[] resolveUndefined(final CharSequence[] values)
+   {
+    final CharSequence[] resolved = values.clone();
+    for (int i = 0; i < resolved.length; ++i)
+     {
+      if (resolved[i] == null)
+       {
+        resolved[i] = '{' + this.names[i] + '}';
+       }
+     }
+    return resolved;
+   }
+
+
+  /**
+   * Render template by replacing all defined variables with their values.
+   *
+   * Undefined variables will be written unchanged.
+   * Values are copied as they are, so there is no special meaning of '$' or '\' within them.
+   * Each distinct variable is resolved only once and first, so that the output is written into a single buffer of the exact size.
+   *
+   * @param values Variable values by slot, returns null for undefined variables
+   * @return Rendered template
+   */
+  String render(final IntFunction<? extends CharSequence> values)
+   {
+    return concat(resolve(values));
+   }
+
+
+  /**
+   * Render template incrementally.
+   *
+   * When this template and all values of its variables are identical to a previous render, the previous output is reused without rendering.
+   *
+   * @param values Variable values by slot, returns null for undefined variables
+   * @param previous Previous render of the same variable or null
+   * @return previous if still valid, otherwise a new render
+   */
+  Rendered render(final IntFunction<? extends CharSequence> values, final Rendered previous)
+   {
+    final CharSequence[] current = new CharSequence[this.names.length];
+    for (int i = 0; i < this.names.length; ++i)
+     {
+      current[i] = lookup(values, i);
+     }
+    if ((previous != null) && previous.isRenderedFrom(this, current))
+     {
+      return previous;
+     }
+    return new Rendered(this, current, concat(resolveUndefined(current)));
+   }
+
+
+  /**
+   * Concatenate literal segments and resolved values.
+   *
+   * @param resolved Resolved values as index by names
+   * @return Rendered template
+   */
+  private String concat(final CharSequence[] resolved)
+   {
+    int length = this.literalsLength;
+    for (final int ref : this.refs)
+     {
+      length += resolved[ref].length();
+     }
+    final StringBuilder out = new StringBuilder(length);
+    for (int i = 0; i < this.refs.length; ++i)
+     {
+      out.append(this.literals[i]).append(resolved[this.refs[i]]);
+     }
+    out.append(this.literals[this.refs.length]);
+    return out.toString();
+   }
+
+
+  /**
+   * Render template by replacing all defined variables with their values directly into an output.
+   *
+   * Undefined variables will be written unchanged.
+   *
+   * @param values Variable values by slot, returns null for undefined variables
+   * @param out Output to write to
+   * @return Number of written characters
+   * @throws IOException If an I/O error occurs
+   */
+  int render(final IntFunction<? extends CharSequence> values, final Appendable out) throws IOException
+   {
+    final CharSequence[] resolved = resolve(values);
+    int length = this.literalsLength;
+    for (int i = 0; i < this.refs.length; ++i)
+     {
+      out.append(this.literals[i]).append(resolved[this.refs[i]]);
+      length += resolved[this.refs[i]].length();
+     }
+    out.append(this.literals[this.refs.length]);
+    return length;
+   }
+
+
+  /**
+   * Get UTF-8 encoded literal segments.
+   *
+   * @return Encoded literal segments
+   */
+  private byte[][] getEncodedLiterals()
+   {
+    byte[][] result = this.encodedLiterals;
+    if (result == null)
+     {
+      result = new byte[this.literals.length][];
+      for (int i = 0; i < this.literals.length; ++i)
+       {
+        result[i] = this.literals[i].getBytes(StandardCharsets.UTF_8);
+       }
+      this.encodedLiterals = result;
+     }
+    return result;
+   }
+
+
+  /**
+   * UTF-8 encode resolved variable values.
+   *
+   * @param resolved Resolved values
+   * @return Encoded values
+   */
+  private static byte[][] encode(final CharSequence[] resolved)
+   {
+    final byte[][] encoded = new byte[resolved.length][];
+    for (int i = 0; i < resolved.length; ++i)
+     {
+      encoded[i] = resolved[i].toString().getBytes(StandardCharsets.UTF_8);
+     }
+    return encoded;
+   }
+
+
+  /**
+   * Render template by replacing all defined variables with their values UTF-8 encoded directly into a stream.
+   *
+   * Undefined variables will be written unchanged.
+   * Literal segments are written pre-encoded, each distinct variable value is encoded only once.
+   *
+   * @param values Variable values by slot, returns null for undefined variables
+   * @param out Stream to write to
+   * @return Number of written characters
+   * @throws IOException If an I/O error occurs
+   */
+  int render(final IntFunction<? extends CharSequence> values, final OutputStream out) throws IOException
+   {
+    final CharSequence[] resolved = resolve(values);
+    final byte[][] encoded = encode(resolved);
+    final byte[][] encodedLits = getEncodedLiterals();
+    int length = this.literalsLength;
+    for (int i = 0; i < this.refs.length; ++i)
+     {
+      out.write(encodedLits[i]);
+      out.write(encoded[this.refs[i]]);
+      length += resolved[this.refs[i]].length();
+     }
+    out.write(encodedLits[this.refs.length]);
+    return length;
+   }
+
+
+  /**
+   * Render template by replacing all defined variables with their values UTF-8 encoded directly into a buffer.
+   *
+   * Undefined variables will be written unchanged.
+   * Literal segments are written pre-encoded, each distinct variable value is encoded only once.
+   * The buffer will not be changed when the rendered template does not fit into its remaining space.
+   *
+   * @param values Variable values by slot, returns null for undefined variables
+   * @param out Buffer to write to
+   * @return Number of written characters
+   * @throws BufferOverflowException If the remaining buffer space is to small
+   */
+  int render(final IntFunction<? extends CharSequence> values, final ByteBuffer out)
+   {
+    final CharSequence[] resolved = resolve(values);
+    final byte[][] encoded = encode(resolved);
+    final byte[][] encodedLits = getEncodedLiterals();
+    int size = 0;
+    for (final byte[] literal : encodedLits)
+     {
+      size += literal.length;
+     }
+    int length = this.literalsLength;
+    for (final int ref : this.refs)
+     {
+      size += encoded[ref].length;
+      length += resolved[ref].length();
+     }
+    if (out.remaining() < size)
+     {
+      throw new BufferOverflowException();
+     }
+    for (int i = 0; i < this.refs.length; ++i)
+     {
+      out.put(encodedLits[i]).put(encoded[this.refs[i]]);
+     }
+    out.put(encodedLits[this.refs.length]);
+    return length;
+   }
+
+ }
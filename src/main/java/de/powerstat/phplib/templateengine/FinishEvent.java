@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * Undefined template variables handled.
+ *
+ * Committed only while a Java Flight Recorder recording with this event enabled is running.
+ */
+@Name("de.powerstat.phplib.templateengine.Finish") //$NON-NLS-1$
+@Label("Finish") //$NON-NLS-1$
+@Category({"PHPLib", "TemplateEngine"}) //$NON-NLS-1$ //$NON-NLS-2$
+@Description("Undefined template variables handled.") //$NON-NLS-1$
+final class FinishEvent extends Event
+ {
+  /**
+   * Handling of undefined template variables.
+   */
+  @Label("Unknowns") //$NON-NLS-1$
+  String unknowns;
+
+  /**
+   * Template size in characters.
+   */
+  @Label("Input Size") //$NON-NLS-1$
+  long inputSize;
+
+  /**
+   * Finished size in characters.
+   */
+  @Label("Output Size") //$NON-NLS-1$
+  long outputSize;
+
+  /**
+   * Number of undefined variables.
+   */
+  @Label("Undefined Count") //$NON-NLS-1$
+  long undefinedCount;
+
+
+  /**
+   * Constructor.
+   */
+  FinishEvent()
+   {
+    super();
+   }
+
+ }
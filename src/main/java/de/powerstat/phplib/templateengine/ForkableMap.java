@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Copy on write map that could be forked in constant time.
+ *
+ * A forked map shares an immutable base map with its origin and stores only its own changes.
+ * When a map with own changes is forked, its changes are merged into a new shared base once.
+ * Null keys and values are not supported.
+ *
+ * Thread safe, changes are serialized, reads are lock free.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+final class ForkableMap<K, V> extends AbstractMap<K, V>
+ {
+  /**
+   * Shared immutable base map.
+   */
+  private volatile Map<K, V> base;
+
+  /**
+   * Own added or changed entries.
+   */
+  private final Map<K, V> local = new ConcurrentHashMap<>();
+
+  /**
+   * Own removed keys of the base map.
+   */
+  private final Set<K> removed = ConcurrentHashMap.newKeySet();
+
+
+  /**
+   * Constructor.
+   *
+   * @param base Shared immutable base map
+   */
+  private ForkableMap(final Map<K, V> base)
+   {
+    super();
+    this.base = base;
+   }
+
+
+  /**
+   * Default constructor.
+   */
+  ForkableMap()
+   {
+    this(Collections.emptyMap());
+   }
+
+
+  /**
+   * Fork this map.
+   *
+   * @return New map with the same content that is independent of this map
+   */
+  synchronized ForkableMap<K, V> fork()
+   {
+    if (!this.local.isEmpty() || !this.removed.isEmpty())
+     {
+      this.base = Collections.unmodifiableMap(snapshot());
+      this.local.clear(); // After setting base, so that lock free readers always find all entries
+      this.removed.clear();
+     }
+    return new ForkableMap<>(this.base);
+   }
+
+
+  /**
+   * Get a merged copy of the base map and the own changes.
+   *
+   * @return Merged map
+   */
+  private Map<K, V> snapshot()
+   {
+    final Map<K, V> result = new HashMap<>(this.base);
+    result.keySet().removeAll(this.removed);
+    result.putAll(this.local);
+    return result;
+   }
+
+
+  /**
+   * Get value.
+   *
+   * @param key Key
+   * @return Value or null
+   * @see java.util.AbstractMap#get(java.lang.Object)
+   */
+  @Override
+  public V get(final Object key)
+   {
+    final V value = this.local.get(key);
+    if ((value != null) || this.removed.contains(key))
+     {
+      return value;
+     }
+    return this.base.get(key);
+   }
+
+
+  /**
+   * Contains key.
+   *
+   * @param key Key
+   * @return true if key is contained, false otherwise
+   * @see java.util.AbstractMap#containsKey(java.lang.Object)
+   */
+  @Override
+  public boolean containsKey(final Object key)
+   {
+    return get(key) != null;
+   }
+
+
+  /**
+   * Put value.
+   *
+   * @param key Key
+   * @param value Value
+   * @return Previous value or null
+   * @throws NullPointerException If key or value is null
+   * @see java.util.AbstractMap#put(java.lang.Object, java.lang.Object)
+   */
+  @Override
+  public synchronized V put(final K key, final V value)
+   {
+    Objects.requireNonNull(key, "key"); //$NON-NLS-1$
+    Objects.requireNonNull(value, "value"); //$NON-NLS-1$
+    final V old = get(key);
+    this.local.put(key, value);
+    this.removed.remove(key);
+    return old;
+   }
+
+
+  /**
+   * Remove value.
+   *
+   * @param key Key
+   * @return Previous value or null
+   * @see java.util.AbstractMap#remove(java.lang.Object)
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public synchronized V remove(final Object key)
+   {
+    final V old = get(key);
+    this.local.remove(key);
+    if (this.base.containsKey(key))
+     {
+      this.removed.add((K)key);
+     }
+    return old;
+   }
+
+
+  /**
+   * Remove all entries.
+   *
+   * @see java.util.AbstractMap#clear()
+   */
+  @Override
+  public synchronized void clear()
+   {
+    this.base = Collections.emptyMap();
+    this.local.clear();
+    this.removed.clear();
+   }
+
+
+  /**
+   * Is empty.
+   *
+   * @return true if empty, false otherwise
+   * @see java.util.AbstractMap#isEmpty()
+   */
+  @Override
+  public boolean isEmpty()
+   {
+    return this.local.isEmpty() && this.removed.containsAll(this.base.keySet());
+   }
+
+
+  /**
+   * Get a snapshot of all entries.
+   *
+   * @return Unmodifiable entry set
+   * @see java.util.AbstractMap#entrySet()
+   */
+  @Override
+  public synchronized Set<Entry<K, V>> entrySet()
+   {
+    return Collections.unmodifiableMap(snapshot()).entrySet();
+   }
+
+ }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import java.util.function.Supplier;
+
+
+/**
+ * Lazy template variable value.
+ *
+ * The supplier is called at most once, on the first get(), and its result is remembered.
+ * Copies of an engine share their lazy values, so that the supplier is also called at most once for all copies.
+ *
+ * Thread safe.
+ */
+final class LazyValue
+ {
+  /**
+   * Maximum value size.
+   */
+  private static final int MAX_TEMPLATE_SIZE = 1048576;
+
+  /**
+   * Value supplier, null after it has been called.
+   */
+  private Supplier<? extends CharSequence> supplier;
+
+  /**
+   * Remembered value, null until the supplier has been called.
+   */
+  private volatile String value;
+
+
+  /**
+   * Constructor.
+   *
+   * @param supplier Value supplier
+   */
+  LazyValue(final Supplier<? extends CharSequence> supplier)
+   {
+    this.supplier = supplier;
+   }
+
+
+  /**
+   * Get value, call the supplier on first use.
+   *
+   * @return Value, empty string when the supplier returned null
+   * @throws IllegalArgumentException If the supplied value is to large
+   */
+  String get()
+   {
+    String result = this.value;
+    if (result == null)
+     {
+      synchronized (this)
+       {
+        result = this.value;
+        if (result == null)
+         {
+          final CharSequence supplied = this.supplier.get();
+          result = (supplied == null) ? "" : supplied.toString(); //$NON-NLS-1$
+          if (result.length() > MAX_TEMPLATE_SIZE)
+           {
+            throw new IllegalArgumentException("value is to large"); //$NON-NLS-1$
+           }
+          this.supplier = null;
+          this.value = result;
+         }
+       }
+     }
+    return result;
+   }
+
+ }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import java.util.Objects;
+
+
+/**
+ * Parse job for TemplateEngine.parse(List, Executor).
+ *
+ * Describes one TemplateEngine.parse(target, varname, append) call.
+ *
+ * Immutable and therefore thread safe.
+ */
+public final class ParseJob
+ {
+  /**
+   * Target for parsing operation.
+   */
+  private final VarName target;
+
+  /**
+   * Parse the content of this variable.
+   */
+  private final VarName varname;
+
+  /**
+   * Append to target or replace targets content.
+   */
+  private final boolean append;
+
+
+  /**
+   * Constructor.
+   *
+   * @param target Target for parsing operation
+   * @param varname Parse the content of this variable
+   * @param append true for appending to target, otherwise false for replacing targets content
+   */
+  private ParseJob(final VarName target, final VarName varname, final boolean append)
+   {
+    super();
+    this.target = target;
+    this.varname = varname;
+    this.append = append;
+   }
+
+
+  /**
+   * ParseJob factory.
+   *
+   * @param target Target for parsing operation
+   * @param varname Parse the content of this variable
+   * @param append true for appending to target, otherwise false for replacing targets content
+   * @return ParseJob object
+   * @throws NullPointerException If target or varname is null
+   */
+  public static ParseJob of(final VarName target, final VarName varname, final boolean append)
+   {
+    Objects.requireNonNull(target, "target"); //$NON-NLS-1$
+    Objects.requireNonNull(varname, "varname"); //$NON-NLS-1$
+    return new ParseJob(target, varname, append);
+   }
+
+
+  /**
+   * ParseJob factory.
+   *
+   * @param target Target for parsing operation
+   * @param varname Parse the content of this variable
+   * @param append true for appending to target, otherwise false for replacing targets content
+   * @return ParseJob object
+   * @throws NullPointerException If target or varname is null
+   * @throws IllegalArgumentException If target or varname is empty, to long or does not match the name pattern
+   */
+  public static ParseJob of(final String target, final String varname, final boolean append)
+   {
+    return of(VarName.of(target), VarName.of(varname), append);
+   }
+
+
+  /**
+   * ParseJob factory, don't append.
+   *
+   * @param target Target for parsing operation
+   * @param varname Parse the content of this variable
+   * @return ParseJob object
+   * @throws NullPointerException If target or varname is null
+   * @throws IllegalArgumentException If target or varname is empty, to long or does not match the name pattern
+   */
+  public static ParseJob of(final String target, final String varname)
+   {
+    return of(target, varname, false);
+   }
+
+
+  /**
+   * Get target.
+   *
+   * @return Target for parsing operation
+   */
+  public VarName getTarget()
+   {
+    return this.target;
+   }
+
+
+  /**
+   * Get varname.
+   *
+   * @return Variable to parse
+   */
+  public VarName getVarname()
+   {
+    return this.varname;
+   }
+
+
+  /**
+   * Is appending.
+   *
+   * @return true for appending to target, otherwise false
+   */
+  public boolean isAppend()
+   {
+    return this.append;
+   }
+
+
+  /**
+   * Calculate hash code.
+   *
+   * @return Hash
+   * @see java.lang.Object#hashCode()
+   */
+  @Override
+  public int hashCode()
+   {
+    return Objects.hash(this.target, this.varname, this.append);
+   }
+
+
+  /**
+   * Is equal with another object.
+   *
+   * @param obj Object
+   * @return true when equal, false otherwise
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(final Object obj)
+   {
+    if (this == obj)
+     {
+      return true;
+     }
+    if (!(obj instanceof ParseJob))
+     {
+      return false;
+     }
+    final ParseJob other = (ParseJob)obj;
+    return (this.append == other.append) && this.target.equals(other.target) && this.varname.equals(other.varname);
+   }
+
+
+  /**
+   * Returns the string representation of this ParseJob.
+   *
+   * The exact details of this representation are unspecified and subject to change, but the following may be regarded as typical:
+   *
+   * "ParseJob[target=output, varname=file1, append=false]"
+   *
+   * @return String representation of this ParseJob.
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString()
+   {
+    return new StringBuilder().append("ParseJob[target=").append(this.target.getName()).append(", varname=").append(this.varname.getName()).append(", append=").append(this.append).append(']').toString(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+   }
+
+ }
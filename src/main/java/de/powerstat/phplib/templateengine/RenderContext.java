@@ -0,0 +1,589 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import de.powerstat.phplib.templateengine.TemplateEngine.HandleUndefined;
+
+
+/**
+ * Per render variables for a shared TemplateSet.
+ *
+ * Holds only the variable values of one render in a sparse array indexed by SymbolTable slot.
+ * Variables that are not set within the context are taken from the templates of the TemplateSet.
+ * Changes within a context never change the TemplateSet.
+ *
+ * Not thread safe, use one context per render (request).
+ */
+public final class RenderContext
+ {
+  /**
+   * Varname name constant.
+   */
+  private static final String VARNAME = "varname"; //$NON-NLS-1$
+
+  /**
+   * Maximum template size.
+   */
+  private static final int MAX_TEMPLATE_SIZE = 1048576;
+
+  /**
+   * Maximum varname size.
+   */
+  private static final int MAX_VARNAME_SIZE = 64;
+
+  /**
+   * Shared templates.
+   */
+  private final TemplateSet templates;
+
+  /**
+   * Handling of undefined template variables.
+   */
+  private final HandleUndefined unknowns;
+
+  /**
+   * Variable values by SymbolTable slot.
+   */
+  private final SlotArray<CharSequence> values = new SlotArray<>();
+
+  /**
+   * Append buffers owned by this context by SymbolTable slot, a value is an owned buffer if it is the same as its buffer.
+   */
+  private final SlotArray<StringBuilder> buffers = new SlotArray<>();
+
+  /**
+   * Compiled values of this context by SymbolTable slot, removed whenever the slot is written.
+   */
+  private final SlotArray<CompiledTemplate> compiled = new SlotArray<>();
+
+
+  /**
+   * Constructor.
+   *
+   * @param templates Shared templates
+   * @param unknowns Handling of undefined template variables
+   */
+  RenderContext(final TemplateSet templates, final HandleUndefined unknowns)
+   {
+    super();
+    this.templates = templates;
+    this.unknowns = unknowns;
+   }
+
+
+  /**
+   * Check variable name and get its slot.
+   *
+   * @param varname Variable name
+   * @param name Parameter name for exception messages
+   * @return SymbolTable slot
+   * @throws NullPointerException If varname is null
+   * @throws IllegalArgumentException If varname is empty, to long or does not match the name pattern
+   */
+  private static int slot(final String varname, final String name)
+   {
+    Objects.requireNonNull(varname, name);
+    if (varname.isEmpty())
+     {
+      throw new IllegalArgumentException(name + " is empty"); //$NON-NLS-1$
+     }
+    if (varname.length() > MAX_VARNAME_SIZE)
+     {
+      throw new IllegalArgumentException(name + " is to long"); //$NON-NLS-1$
+     }
+    if (!VarName.isValid(varname))
+     {
+      throw new IllegalArgumentException(name + " does not match name pattern"); //$NON-NLS-1$
+     }
+    return SymbolTable.getInstance().slot(varname);
+   }
+
+
+  /**
+   * Lookup variable value by slot, within this context first and then within the template set.
+   *
+   * @param slot Slot
+   * @return Variable value or null if undefined
+   */
+  private CharSequence lookup(final int slot)
+   {
+    final CharSequence value = this.values.get(slot);
+    if (value != null)
+     {
+      return value;
+     }
+    final CompiledTemplate template = this.templates.get(slot);
+    return (template == null) ? null : template.getSource();
+   }
+
+
+  /**
+   * Set variable value.
+   *
+   * @param slot Slot
+   * @param value Variable value, could be null
+   * @throws IllegalArgumentException If value is to large
+   */
+  private void doSetVar(final int slot, final CharSequence value)
+   {
+    if ((value != null) && (value.length() > MAX_TEMPLATE_SIZE))
+     {
+      throw new IllegalArgumentException("value is to large"); //$NON-NLS-1$
+     }
+    this.values.set(slot, (value == null) ? "" : value); //$NON-NLS-1$
+    this.buffers.set(slot, null);
+    this.compiled.set(slot, null);
+   }
+
+
+  /**
+   * Set template variables value.
+   *
+   * The value will not be copied, so a mutable CharSequence should not be changed until rendering has finished.
+   *
+   * @param varname Template variable name
+   * @param value Template variable value, could be null
+   * @throws NullPointerException If varname is null
+   * @throws IllegalArgumentException If varname is empty or value is to large
+   */
+  public void setVar(final String varname, final CharSequence value)
+   {
+    doSetVar(slot(varname, VARNAME), value);
+   }
+
+
+  /**
+   * Set template variables value.
+   *
+   * @param varname Template variable name
+   * @param value Template variable value, could be null
+   * @throws NullPointerException If varname is null
+   * @throws IllegalArgumentException If value is to large
+   * @see #setVar(String, CharSequence)
+   */
+  public void setVar(final VarName varname, final CharSequence value)
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    doSetVar(varname.getSlot(), value);
+   }
+
+
+  /**
+   * Get template variable value.
+   *
+   * @param varname Template variable name
+   * @return Template variables value from this context or the template set
+   * @throws NullPointerException If varname is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public String getVar(final String varname)
+   {
+    final CharSequence value = lookup(slot(varname, VARNAME));
+    return (value == null) ? "" : value.toString(); //$NON-NLS-1$
+   }
+
+
+  /**
+   * Get template variable value.
+   *
+   * @param varname Template variable name
+   * @return Template variables value from this context or the template set
+   * @throws NullPointerException If varname is null
+   */
+  public String getVar(final VarName varname)
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    final CharSequence value = lookup(varname.getSlot());
+    return (value == null) ? "" : value.toString(); //$NON-NLS-1$
+   }
+
+
+  /**
+   * Unset template variable within this context.
+   *
+   * A template of the template set with the same name will be visible again.
+   *
+   * @param varname Template variable name
+   * @throws NullPointerException If varname is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public void unsetVar(final String varname)
+   {
+    final int slot = slot(varname, VARNAME);
+    this.values.set(slot, null);
+    this.buffers.set(slot, null);
+    this.compiled.set(slot, null);
+   }
+
+
+  /**
+   * Get compiled template of a variable by slot, within this context first and then within the template set.
+   *
+   * Values of this context are compiled once and cached until their slot is written again.
+   * Mutable values that are not owned by this context are compiled on every call.
+   *
+   * @param slot Slot
+   * @return Compiled template or null for an unknown variable
+   */
+  private CompiledTemplate getTemplate(final int slot)
+   {
+    final CharSequence value = this.values.get(slot);
+    if (value == null)
+     {
+      return this.templates.get(slot);
+     }
+    CompiledTemplate result = this.compiled.get(slot);
+    if (result == null)
+     {
+      result = CompiledTemplate.compileValue(value.toString());
+      if ((value instanceof String) || (value == this.buffers.get(slot))) // NOPMD Identity by intention - other mutable values could change unnoticed
+       {
+        this.compiled.set(slot, result);
+       }
+     }
+    return result;
+   }
+
+
+  /**
+   * Substitute variable by slot.
+   *
+   * @param slot Slot
+   * @return Replaced variable content or empty string
+   */
+  private String render(final int slot)
+   {
+    final CompiledTemplate template = getTemplate(slot);
+    if (template == null)
+     {
+      return ""; //$NON-NLS-1$
+     }
+    final boolean metrics = TemplateMetrics.enabled();
+    final long start = metrics ? System.nanoTime() : 0L;
+    final SubstEvent event = new SubstEvent();
+    event.begin();
+    final String result = template.render(this::lookup);
+    event.end();
+    if (metrics)
+     {
+      TemplateMetrics.getInstance().substituted(SymbolTable.getInstance().getName(slot), System.nanoTime() - start, result.length());
+     }
+    if (event.shouldCommit())
+     {
+      TemplateEngine.commit(event, SymbolTable.getInstance().getName(slot), template, result.length());
+     }
+    return result;
+   }
+
+
+  /**
+   * Substitute variable with its content.
+   *
+   * @param varname Variable name
+   * @return Replaced variable content or empty string
+   * @throws NullPointerException If varname is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public String subst(final String varname)
+   {
+    return render(slot(varname, VARNAME));
+   }
+
+
+  /**
+   * Substitute variable with its content.
+   *
+   * @param varname Variable name
+   * @return Replaced variable content or empty string
+   * @throws NullPointerException If varname is null
+   */
+  public String subst(final VarName varname)
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    return render(varname.getSlot());
+   }
+
+
+  /**
+   * Substitute variable with its content and write the result directly to an output.
+   *
+   * @param varname Variable name
+   * @param out Output to write the replaced variable content to, nothing will be written for an unknown variable
+   * @throws IOException When writing to out fails
+   * @throws NullPointerException If varname or out is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public void subst(final String varname, final Appendable out) throws IOException
+   {
+    Objects.requireNonNull(out, "out"); //$NON-NLS-1$
+    render(slot(varname, VARNAME), template -> template.render(this::lookup, out));
+   }
+
+
+  /**
+   * Substitute variable with its content and write the result UTF-8 encoded directly to a stream.
+   *
+   * The literal template text is written pre-encoded, so that only the variable values are encoded per call.
+   * The stream will not be flushed.
+   *
+   * @param varname Variable name
+   * @param out Stream to write the replaced variable content to, nothing will be written for an unknown variable
+   * @throws IOException When writing to out fails
+   * @throws NullPointerException If varname or out is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public void substBytes(final String varname, final OutputStream out) throws IOException
+   {
+    Objects.requireNonNull(out, "out"); //$NON-NLS-1$
+    render(slot(varname, VARNAME), template -> template.render(this::lookup, out));
+   }
+
+
+  /**
+   * Substitute variable with its content and write the result UTF-8 encoded directly to a buffer.
+   *
+   * The literal template text is written pre-encoded, so that only the variable values are encoded per call.
+   * The buffer will not be changed when the result does not fit into its remaining space.
+   *
+   * @param varname Variable name
+   * @param out Buffer to write the replaced variable content to, nothing will be written for an unknown variable
+   * @throws NullPointerException If varname or out is null
+   * @throws IllegalArgumentException If varname is empty
+   * @throws java.nio.BufferOverflowException If the remaining buffer space is to small
+   * @throws java.nio.ReadOnlyBufferException If out is read only
+   */
+  public void substBytes(final String varname, final ByteBuffer out)
+   {
+    Objects.requireNonNull(out, "out"); //$NON-NLS-1$
+    render(slot(varname, VARNAME), template -> template.render(this::lookup, out));
+   }
+
+
+  /**
+   * Substitute variable with its content and handle undefined template variables within the same pass.
+   *
+   * Same result as finishing the result of subst(varname) as specified by the "unknowns" setting of this context, but within a single pass.
+   *
+   * @param varname Variable name
+   * @return Replaced and finished variable content or empty string
+   * @throws NullPointerException If varname is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public String substFinish(final String varname)
+   {
+    final StringBuilder result = new StringBuilder();
+    try
+     {
+      substFinish(varname, result);
+     }
+    catch (final IOException e)
+     {
+      throw new AssertionError(e); // StringBuilder does not throw IOExceptions
+     }
+    return result.toString();
+   }
+
+
+  /**
+   * Substitute variable with its content and handle undefined template variables within the same pass directly into an output.
+   *
+   * @param varname Variable name
+   * @param out Output to write the replaced and finished variable content to, nothing will be written for an unknown variable
+   * @throws IOException When writing to out fails
+   * @throws NullPointerException If varname or out is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public void substFinish(final String varname, final Appendable out) throws IOException
+   {
+    Objects.requireNonNull(out, "out"); //$NON-NLS-1$
+    final UndefinedFilter filter = new UndefinedFilter(this.unknowns, out);
+    render(slot(varname, VARNAME), template -> template.render(this::lookup, filter));
+    /* final long length = */ filter.finish();
+   }
+
+
+  /**
+   * Substitute variable by slot and write the result to a sink.
+   *
+   * @param <E> Exception thrown by the sink
+   * @param slot Slot
+   * @param sink Sink to render the compiled template to, not called for an unknown variable
+   * @throws E When writing fails
+   */
+  private <E extends Exception> void render(final int slot, final CompiledTemplate.Sink<E> sink) throws E
+   {
+    final CompiledTemplate template = getTemplate(slot);
+    if (template == null)
+     {
+      return;
+     }
+    final boolean metrics = TemplateMetrics.enabled();
+    final long start = metrics ? System.nanoTime() : 0L;
+    final SubstEvent event = new SubstEvent();
+    event.begin();
+    final int length = sink.render(template);
+    event.end();
+    if (metrics)
+     {
+      TemplateMetrics.getInstance().substituted(SymbolTable.getInstance().getName(slot), System.nanoTime() - start, length);
+     }
+    if (event.shouldCommit())
+     {
+      TemplateEngine.commit(event, SymbolTable.getInstance().getName(slot), template, length);
+     }
+   }
+
+
+  /**
+   * Parse a variable and replace all variables within it by their content.
+   *
+   * @param targetSlot Target slot
+   * @param varnameSlot Variable slot
+   * @param append true for appending blocks to target, otherwise false for replacing targets content
+   * @return Variables content after parsing
+   * @throws IllegalArgumentException If the result is to large
+   */
+  private String doParse(final int targetSlot, final int varnameSlot, final boolean append)
+   {
+    if (TemplateMetrics.enabled())
+     {
+      TemplateMetrics.getInstance().parsed();
+     }
+    final String str = render(varnameSlot);
+    if (!append)
+     {
+      doSetVar(targetSlot, str);
+      return str;
+     }
+    StringBuilder buffer = this.buffers.get(targetSlot);
+    if (buffer == null)
+     {
+      final CharSequence old = lookup(targetSlot);
+      buffer = new StringBuilder((old == null) ? "" : old); //$NON-NLS-1$
+      this.values.set(targetSlot, buffer);
+      this.buffers.set(targetSlot, buffer);
+     }
+    if ((buffer.length() + str.length()) > MAX_TEMPLATE_SIZE)
+     {
+      throw new IllegalArgumentException("value is to large"); //$NON-NLS-1$
+     }
+    buffer.append(str);
+    this.compiled.set(targetSlot, null);
+    return str;
+   }
+
+
+  /**
+   * Parse a variable and replace all variables within it by their content.
+   *
+   * @param target Target for parsing operation
+   * @param varname Parse the content of this variable
+   * @param append true for appending blocks to target, otherwise false for replacing targets content
+   * @return Variables content after parsing
+   * @throws NullPointerException If target or varname is null
+   * @throws IllegalArgumentException If target or varname is empty or the result is to large
+   */
+  public String parse(final String target, final String varname, final boolean append)
+   {
+    return doParse(slot(target, "target"), slot(varname, VARNAME), append); //$NON-NLS-1$
+   }
+
+
+  /**
+   * Parse a variable and replace all variables within it by their content.
+   *
+   * @param target Target for parsing operation
+   * @param varname Parse the content of this variable
+   * @param append true for appending blocks to target, otherwise false for replacing targets content
+   * @return Variables content after parsing
+   * @throws NullPointerException If target or varname is null
+   * @throws IllegalArgumentException If the result is to large
+   */
+  public String parse(final VarName target, final VarName varname, final boolean append)
+   {
+    Objects.requireNonNull(target, "target"); //$NON-NLS-1$
+    Objects.requireNonNull(varname, VARNAME);
+    return doParse(target.getSlot(), varname.getSlot(), append);
+   }
+
+
+  /**
+   * Get variable with undefined template variables handled as specified by the "unknowns" setting of this context.
+   *
+   * @param varname Name of template variable
+   * @return Finished value of template variable, empty string for an empty or unknown variable
+   * @throws NullPointerException If varname is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public String get(final String varname)
+   {
+    final String value = getVar(varname);
+    if (this.unknowns == HandleUndefined.KEEP)
+     {
+      UndefinedFilter.commitKept(value);
+      return value;
+     }
+    final StringBuilder result = new StringBuilder(value.length());
+    try
+     {
+      TemplateEngine.writeFinished(value, this.unknowns, result);
+     }
+    catch (final IOException e)
+     {
+      throw new AssertionError(e); // StringBuilder does not throw IOExceptions
+     }
+    return result.toString();
+   }
+
+
+  /**
+   * Write variable with undefined template variables handled as specified by the "unknowns" setting of this context.
+   *
+   * @param varname Name of template variable
+   * @param out Output to write the finished value of the template variable to
+   * @throws IOException When writing to out fails
+   * @throws NullPointerException If varname or out is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public void get(final String varname, final Appendable out) throws IOException
+   {
+    Objects.requireNonNull(out, "out"); //$NON-NLS-1$
+    TemplateEngine.writeFinished(getVar(varname), this.unknowns, out);
+   }
+
+
+  /**
+   * Get handling of undefined template variables.
+   *
+   * @return Handling of undefined template variables
+   */
+  public HandleUndefined getUnknowns()
+   {
+    return this.unknowns;
+   }
+
+
+  /**
+   * Returns the string representation of this RenderContext.
+   *
+   * The exact details of this representation are unspecified and subject to change, but the following may be regarded as typical:
+   *
+   * "RenderContext[unknowns=REMOVE, templates=TemplateSet[names=[file1]]]"
+   *
+   * @return String representation of this RenderContext.
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString()
+   {
+    return new StringBuilder().append("RenderContext[unknowns=").append(this.unknowns).append(", templates=").append(this.templates).append(']').toString(); //$NON-NLS-1$ //$NON-NLS-2$
+   }
+
+ }
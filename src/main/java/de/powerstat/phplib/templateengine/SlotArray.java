@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import java.util.Arrays;
+
+
+/**
+ * Sparse array indexed by SymbolTable slots.
+ *
+ * Values are stored in chunks that are only allocated when a value is set within them,
+ * so that the size depends on the slots used and not on the size of the SymbolTable.
+ *
+ * Not thread safe.
+ *
+ * @param <E> Element type
+ */
+final class SlotArray<E>
+ {
+  /**
+   * Number of bits of a slot within a chunk.
+   */
+  private static final int CHUNK_BITS = 5;
+
+  /**
+   * Number of slots per chunk.
+   */
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+  /**
+   * Mask for the slot within a chunk.
+   */
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  /**
+   * Chunk directory, null for chunks without values.
+   */
+  private Object[][] chunks = new Object[0][];
+
+
+  /**
+   * Default constructor.
+   */
+  SlotArray()
+   {
+    super();
+   }
+
+
+  /**
+   * Get value by slot.
+   *
+   * @param slot Slot
+   * @return Value or null
+   */
+  @SuppressWarnings("unchecked")
+  E get(final int slot)
+   {
+    final int index = slot >>> CHUNK_BITS;
+    if (index >= this.chunks.length)
+     {
+      return null;
+     }
+    final Object[] chunk = this.chunks[index];
+    return (chunk == null) ? null : (E)chunk[slot & CHUNK_MASK];
+   }
+
+
+  /**
+   * Set value by slot.
+   *
+   * @param slot Slot
+   * @param value Value, null to remove the value
+   */
+  void set(final int slot, final E value)
+   {
+    final int index = slot >>> CHUNK_BITS;
+    if (index >= this.chunks.length)
+     {
+      if (value == null)
+       {
+        return;
+       }
+      this.chunks = Arrays.copyOf(this.chunks, Math.max(index + 1, this.chunks.length * 2));
+     }
+    Object[] chunk = this.chunks[index];
+    if (chunk == null)
+     {
+      if (value == null)
+       {
+        return;
+       }
+      chunk = new Object[CHUNK_SIZE];
+      this.chunks[index] = chunk;
+     }
+    chunk[slot & CHUNK_MASK] = value;
+   }
+
+ }
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * Template variables substituted.
+ *
+ * Committed only while a Java Flight Recorder recording with this event enabled is running.
+ */
+@Name("de.powerstat.phplib.templateengine.Subst") //$NON-NLS-1$
+@Label("Subst") //$NON-NLS-1$
+@Category({"PHPLib", "TemplateEngine"}) //$NON-NLS-1$ //$NON-NLS-2$
+@Description("Template variables substituted.") //$NON-NLS-1$
+final class SubstEvent extends Event
+ {
+  /**
+   * Template variable name.
+   */
+  @Label("Template") //$NON-NLS-1$
+  String template;
+
+  /**
+   * Template size in characters.
+   */
+  @Label("Input Size") //$NON-NLS-1$
+  long inputSize;
+
+  /**
+   * Rendered size in characters.
+   */
+  @Label("Output Size") //$NON-NLS-1$
+  long outputSize;
+
+  /**
+   * Number of distinct variables within the template.
+   */
+  @Label("Variable Count") //$NON-NLS-1$
+  int variableCount;
+
+
+  /**
+   * Constructor.
+   */
+  SubstEvent()
+   {
+    super();
+   }
+
+ }
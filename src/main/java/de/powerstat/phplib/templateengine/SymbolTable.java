@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Process wide symbol table that maps template variable names to dense integer slots.
+ *
+ * Slots are assigned once when a name is seen the first time (while compiling a template source or setting a variable)
+ * and never change, so that compiled templates that are shared between engines could address variable values by slot.
+ * Names are never removed, the table only grows with the number of distinct variable names used.
+ * References within variable values are not added (see CompiledTemplate.compileValue),
+ * so the table is bounded by the names of template sources, blocks and set variables.
+ *
+ * Unconditionally thread safe, lookups are lock free.
+ */
+final class SymbolTable
+ {
+  /**
+   * Shared instance.
+   */
+  private static final SymbolTable INSTANCE = new SymbolTable();
+
+  /**
+   * Slots by name.
+   */
+  private final Map<String, Integer> slots = new ConcurrentHashMap<>();
+
+  /**
+   * Names by slot.
+   */
+  private volatile String[] names = new String[64];
+
+  /**
+   * Number of assigned slots.
+   */
+  private volatile int size;
+
+
+  /**
+   * Constructor.
+   */
+  private SymbolTable()
+   {
+    super();
+   }
+
+
+  /**
+   * Get the shared symbol table.
+   *
+   * @return Shared symbol table instance
+   */
+  static SymbolTable getInstance()
+   {
+    return INSTANCE;
+   }
+
+
+  /**
+   * Get slot of a name, assign a new slot if the name is unknown.
+   *
+   * @param name Variable name
+   * @return Slot
+   */
+  int slot(final String name)
+   {
+    final Integer slot = this.slots.get(name);
+    if (slot != null)
+     {
+      return slot;
+     }
+    synchronized (this)
+     {
+      final Integer existing = this.slots.get(name);
+      if (existing != null)
+       {
+        return existing;
+       }
+      final int newSlot = this.size;
+      if (newSlot == this.names.length)
+       {
+        this.names = Arrays.copyOf(this.names, newSlot * 2);
+       }
+      this.names[newSlot] = name; // Before publishing the slot, so that readers always find the name
+      this.slots.put(name, newSlot);
+      this.size = newSlot + 1;
+      return newSlot;
+     }
+   }
+
+
+  /**
+   * Find slot of a name without assigning a new one.
+   *
+   * @param name Variable name
+   * @return Slot or -1 if the name is unknown
+   */
+  int find(final String name)
+   {
+    final Integer slot = this.slots.get(name);
+    return (slot == null) ? -1 : slot;
+   }
+
+
+  /**
+   * Get name of a slot.
+   *
+   * @param slot Slot
+   * @return Variable name
+   */
+  String getName(final int slot)
+   {
+    return this.names[slot];
+   }
+
+
+  /**
+   * Get number of assigned slots.
+   *
+   * @return Number of slots
+   */
+  int size()
+   {
+    return this.size;
+   }
+
+ }
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+
+/**
+ * Archive of precompiled templates in a compact binary format.
+ *
+ * An archive is created at build time by the TemplateCompiler with all blocks already cut and all variable references already resolved.
+ * At runtime it is read with a single read and without any template scanning.
+ *
+ * Format (big endian): magic "PTPL", version, number of templates, then per template its name and the compiled template.
+ *
+ * Immutable and therefore thread safe.
+ */
+public final class TemplateArchive
+ {
+  /**
+   * Magic number "PTPL".
+   */
+  private static final int MAGIC = 0x5054504C;
+
+  /**
+   * Format version.
+   */
+  private static final int VERSION = 1;
+
+  /**
+   * Compiled templates by variable name.
+   */
+  private final Map<String, CompiledTemplate> templates;
+
+
+  /**
+   * Constructor.
+   *
+   * @param templates Compiled templates by variable name
+   */
+  TemplateArchive(final Map<String, CompiledTemplate> templates)
+   {
+    super();
+    this.templates = Collections.unmodifiableMap(new TreeMap<>(templates));
+   }
+
+
+  /**
+   * Create an archive from all templates and variables of an engine.
+   *
+   * All template files of the engine will be loaded. Later changes of the engine do not change the archive.
+   *
+   * @param engine Configured template engine
+   * @return Template archive
+   * @throws IOException File not found or IO exception
+   * @throws NullPointerException If engine is null
+   */
+  public static TemplateArchive of(final TemplateEngine engine) throws IOException
+   {
+    Objects.requireNonNull(engine, "engine"); //$NON-NLS-1$
+    return new TemplateArchive(engine.compileAll());
+   }
+
+
+  /**
+   * Read an archive written by write().
+   *
+   * The stream is read completely at once and will be closed.
+   *
+   * @param stream Stream to read from
+   * @return Template archive
+   * @throws IOException IO exception or invalid archive
+   * @throws NullPointerException If stream is null
+   */
+  public static TemplateArchive read(final InputStream stream) throws IOException
+   {
+    Objects.requireNonNull(stream, "stream"); //$NON-NLS-1$
+    final byte[] bytes;
+    try (stream)
+     {
+      bytes = stream.readAllBytes();
+     }
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    if (in.readInt() != MAGIC)
+     {
+      throw new IOException("Not a template archive"); //$NON-NLS-1$
+     }
+    final int version = in.readInt();
+    if (version != VERSION)
+     {
+      throw new IOException("Unsupported template archive version: " + version); //$NON-NLS-1$
+     }
+    final int count = in.readInt();
+    if (count < 0)
+     {
+      throw new IOException("Invalid template count: " + count); //$NON-NLS-1$
+     }
+    final Map<String, CompiledTemplate> templates = new TreeMap<>();
+    for (int i = 0; i < count; ++i)
+     {
+      final String name = in.readUTF();
+      if (!VarName.isValid(name))
+       {
+        throw new IOException("Invalid template name: " + name); //$NON-NLS-1$
+       }
+      templates.put(name, CompiledTemplate.read(in));
+     }
+    if (in.available() > 0)
+     {
+      throw new IOException("Trailing data in template archive"); //$NON-NLS-1$
+     }
+    return new TemplateArchive(templates);
+   }
+
+
+  /**
+   * Write this archive in binary form.
+   *
+   * The stream will be flushed, but not closed.
+   *
+   * @param stream Stream to write to
+   * @throws IOException IO exception
+   * @throws NullPointerException If stream is null
+   */
+  public void write(final OutputStream stream) throws IOException
+   {
+    Objects.requireNonNull(stream, "stream"); //$NON-NLS-1$
+    final DataOutputStream out = new DataOutputStream(stream);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(this.templates.size());
+    for (final Map.Entry<String, CompiledTemplate> entry : this.templates.entrySet())
+     {
+      out.writeUTF(entry.getKey());
+      entry.getValue().write(out);
+     }
+    out.flush();
+   }
+
+
+  /**
+   * Get compiled templates.
+   *
+   * @return Unmodifiable map of compiled templates by variable name
+   */
+  Map<String, CompiledTemplate> getTemplates()
+   {
+    return this.templates;
+   }
+
+
+  /**
+   * Get names of all templates.
+   *
+   * @return Sorted list of template names
+   */
+  public List<String> getNames()
+   {
+    return Collections.unmodifiableList(new ArrayList<>(this.templates.keySet()));
+   }
+
+
+  /**
+   * Returns the string representation of this TemplateArchive.
+   *
+   * The exact details of this representation are unspecified and subject to change, but the following may be regarded as typical:
+   *
+   * "TemplateArchive[names=[blk1, file1]]"
+   *
+   * @return String representation of this TemplateArchive.
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString()
+   {
+    return new StringBuilder().append("TemplateArchive[names=").append(this.templates.keySet()).append(']').toString(); //$NON-NLS-1$
+   }
+
+ }
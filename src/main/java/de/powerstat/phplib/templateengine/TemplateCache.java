@@ -0,0 +1,693 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Process wide cache for loaded template files shared by all TemplateEngine instances.
+ *
+ * Templates are cached by their resolved location (classpath resource or file path).
+ * The cache is bounded by the estimated memory size of the cached templates (two bytes per character)
+ * and evicts the least recently used templates first.
+ * Optionally the directories of cached template files are watched, so that changed templates will be reloaded by the engines.
+ * Without watching, a cached template file is validated by its length and modification time when it is requested again.
+ * Classpath lookups of template names are cached, so that repeated setups do not probe the class loader again.
+ * Names not found on the classpath are only remembered up to a limit and forgotten whenever templates are invalidated.
+ *
+ * Unconditionally thread safe.
+ */
+public final class TemplateCache
+ {
+  /**
+   * Default maximum cache size in bytes (64 MB).
+   */
+  public static final long DEFAULT_MAX_SIZE = 64L * 1024L * 1024L;
+
+  /**
+   * Maximum number of remembered template file names that are not found on the classpath.
+   */
+  private static final int MAX_MISSING = 1024;
+
+  /**
+   * Shared instance.
+   */
+  private static final TemplateCache INSTANCE = new TemplateCache(DEFAULT_MAX_SIZE);
+
+  /**
+   * Cached templates in least recently used order.
+   */
+  private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * Cache keys of templates from the filesystem.
+   */
+  private final Map<Path, String> paths = new HashMap<>();
+
+  /**
+   * Resolved classpath resources by template file name, bounded by the resources on the classpath.
+   */
+  private final Map<String, URL> resources = new ConcurrentHashMap<>();
+
+  /**
+   * Template file names not found on the classpath, at most MAX_MISSING.
+   */
+  private final Set<String> missing = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Template file watcher, null when not watching.
+   */
+  private TemplateWatcher watcher;
+
+  /**
+   * Maximum cache size in bytes.
+   */
+  private long maxSize;
+
+  /**
+   * Current cache size in bytes.
+   */
+  private long size;
+
+  /**
+   * Cache hits.
+   */
+  private final LongAdder hits = new LongAdder();
+
+  /**
+   * Cache misses.
+   */
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Class loader lookups.
+   */
+  private final LongAdder lookups = new LongAdder();
+
+  /**
+   * Cache evictions.
+   */
+  private final LongAdder evictions = new LongAdder();
+
+
+  /**
+   * Template loader.
+   */
+  @FunctionalInterface
+  interface Loader
+   {
+    /**
+     * Load template.
+     *
+     * @return Template content
+     * @throws IOException IO exception
+     */
+    String load() throws IOException;
+   }
+
+
+  /**
+   * Cache entry.
+   */
+  static final class Entry
+   {
+    /**
+     * Template content.
+     */
+    private final String content;
+
+    /**
+     * Template file path or null.
+     */
+    private final Path path;
+
+    /**
+     * Template file length in bytes before loading, -1 when unknown.
+     */
+    private final long length;
+
+    /**
+     * Template file modification time before loading or null when unknown.
+     */
+    private final FileTime modified;
+
+    /**
+     * Lazy compiled template content.
+     */
+    private volatile CompiledTemplate compiled;
+
+    /**
+     * Template has been invalidated and should be reloaded.
+     */
+    private volatile boolean invalidated;
+
+
+    /**
+     * Constructor.
+     *
+     * @param content Template content
+     * @param path Template file path or null
+     */
+    Entry(final String content, final Path path)
+     {
+      this(content, path, null);
+     }
+
+
+    /**
+     * Constructor.
+     *
+     * @param content Template content
+     * @param path Template file path or null
+     * @param attributes Template file attributes read before loading or null
+     */
+    private Entry(final String content, final Path path, final BasicFileAttributes attributes)
+     {
+      this.content = content;
+      this.path = path;
+      this.length = (attributes == null) ? -1 : attributes.size();
+      this.modified = (attributes == null) ? null : attributes.lastModifiedTime();
+     }
+
+
+    /**
+     * Is the template file unchanged since loading.
+     *
+     * @return true if length and modification time are unchanged or unknown, false otherwise
+     */
+    private boolean isUnchanged()
+     {
+      if (this.modified == null)
+       {
+        return true;
+       }
+      final BasicFileAttributes attributes = readAttributes(this.path);
+      return (attributes != null) && (attributes.size() == this.length) && attributes.lastModifiedTime().equals(this.modified);
+     }
+
+
+    /**
+     * Get template content.
+     *
+     * @return Template content
+     */
+    String getContent()
+     {
+      return this.content;
+     }
+
+
+    /**
+     * Get compiled template content, compile it on first use.
+     *
+     * @return Compiled template
+     */
+    CompiledTemplate getCompiled()
+     {
+      CompiledTemplate result = this.compiled;
+      if (result == null)
+       {
+        result = CompiledTemplate.compile(this.content);
+        this.compiled = result;
+       }
+      return result;
+     }
+
+
+    /**
+     * Has template been invalidated.
+     *
+     * @return true if the template should be reloaded, false otherwise
+     */
+    boolean isInvalidated()
+     {
+      return this.invalidated;
+     }
+
+
+    /**
+     * Estimated memory size in bytes.
+     *
+     * @return Size in bytes
+     */
+    long getSize()
+     {
+      return 2L * this.content.length();
+     }
+
+   }
+
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize Maximum cache size in bytes
+   */
+  private TemplateCache(final long maxSize)
+   {
+    this.maxSize = maxSize;
+   }
+
+
+  /**
+   * Get the shared template cache.
+   *
+   * @return Shared template cache instance
+   */
+  public static TemplateCache getInstance()
+   {
+    return INSTANCE;
+   }
+
+
+  /**
+   * Get cached template or load it.
+   *
+   * Loading happens outside of the cache lock, so that slow I/O does not block other threads.
+   * When not watching, a cached template file that changed its length or modification time will be reloaded.
+   *
+   * @param key Resolved template location
+   * @param path Template file path that could be watched or null
+   * @param loader Loader to use on cache miss
+   * @return Cache entry
+   * @throws IOException IO exception from loader
+   */
+  Entry get(final String key, final Path path, final Loader loader) throws IOException
+   {
+    final Entry cached;
+    final boolean watching;
+    synchronized (this)
+     {
+      cached = this.entries.get(key);
+      watching = this.watcher != null;
+     }
+    if ((cached != null) && (watching || cached.isUnchanged()))
+     {
+      this.hits.increment();
+      if (TemplateMetrics.enabled())
+       {
+        TemplateMetrics.getInstance().cacheHit();
+       }
+      return cached;
+     }
+    if (cached != null)
+     {
+      synchronized (this)
+       {
+        if (this.entries.get(key) == cached)
+         {
+          invalidate(key);
+         }
+       }
+     }
+    this.misses.increment();
+    final BasicFileAttributes attributes = (path == null) ? null : readAttributes(path);
+    final Entry entry = new Entry(loader.load(), path, attributes);
+    synchronized (this)
+     {
+      final Entry old = this.entries.get(key);
+      if (old != null)
+       {
+        return old;
+       }
+      if (entry.getSize() <= this.maxSize)
+       {
+        this.entries.put(key, entry);
+        this.size += entry.getSize();
+        if (path != null)
+         {
+          this.paths.put(path, key);
+          if (this.watcher != null)
+           {
+            this.watcher.register(path);
+           }
+         }
+        evict();
+       }
+     }
+    return entry;
+   }
+
+
+  /**
+   * Read file attributes.
+   *
+   * @param path File path
+   * @return File attributes or null if the file could not be read
+   */
+  private static BasicFileAttributes readAttributes(final Path path)
+   {
+    try
+     {
+      return Files.readAttributes(path, BasicFileAttributes.class);
+     }
+    catch (final IOException ignored) // Including NoSuchFileException
+     {
+      return null;
+     }
+   }
+
+
+  /**
+   * Get classpath resource of a template file name.
+   *
+   * The class loader is only asked once per name, also when the name could not be found,
+   * unless more than MAX_MISSING names have not been found or templates have been invalidated since then.
+   *
+   * @param name Template file name
+   * @return Classpath resource or null when not found on the classpath
+   */
+  URL getResource(final String name)
+   {
+    URL result = this.resources.get(name);
+    if ((result == null) && !this.missing.contains(name))
+     {
+      this.lookups.increment();
+      result = TemplateCache.class.getResource("/" + name); //$NON-NLS-1$
+      if (result != null)
+       {
+        this.resources.put(name, result);
+       }
+      else
+       {
+        if (this.missing.size() >= MAX_MISSING)
+         {
+          this.missing.clear();
+         }
+        this.missing.add(name);
+       }
+     }
+    return result;
+   }
+
+
+  /**
+   * Evict least recently used entries until the cache fits into its maximum size.
+   */
+  private void evict()
+   {
+    assert Thread.holdsLock(this);
+    final Iterator<Entry> iter = this.entries.values().iterator();
+    while ((this.size > this.maxSize) && iter.hasNext())
+     {
+      final Entry entry = iter.next();
+      iter.remove();
+      removed(entry);
+      this.evictions.increment();
+     }
+   }
+
+
+  /**
+   * Remove a template from the cache.
+   *
+   * Names not found on the classpath are forgotten too, so that they will be looked up again.
+   *
+   * @param key Resolved template location
+   * @return true if the template was cached, false otherwise
+   * @throws NullPointerException If key is null
+   */
+  public synchronized boolean invalidate(final String key)
+   {
+    Objects.requireNonNull(key, "key"); //$NON-NLS-1$
+    this.missing.clear();
+    final Entry entry = this.entries.remove(key);
+    if (entry == null)
+     {
+      return false;
+     }
+    removed(entry);
+    entry.invalidated = true;
+    return true;
+   }
+
+
+  /**
+   * Remove a template file from the cache.
+   *
+   * @param path Template file path
+   * @return true if the template was cached, false otherwise
+   */
+  synchronized boolean invalidate(final Path path)
+   {
+    final String key = this.paths.get(path);
+    return (key != null) && invalidate(key);
+   }
+
+
+  /**
+   * Remove a template file from the cache if its length or modification time differs from the cached entry.
+   *
+   * Used for file change events, because one edit could result in several events,
+   * which should not remove a template that has already been reloaded after the edit.
+   *
+   * @param path Template file path
+   * @return true if the template was cached and has been removed, false otherwise
+   */
+  synchronized boolean invalidateChanged(final Path path)
+   {
+    this.missing.clear(); // The file could be a new one
+    final String key = this.paths.get(path);
+    if (key == null)
+     {
+      return false;
+     }
+    final Entry entry = this.entries.get(key);
+    return (entry != null) && !entry.isUnchanged() && invalidate(key);
+   }
+
+
+  /**
+   * Remove all changed template files within a directory from the cache.
+   *
+   * @param directory Directory path
+   */
+  synchronized void invalidateDirectory(final Path directory)
+   {
+    this.missing.clear();
+    final List<Path> files = new ArrayList<>();
+    for (final Path path : this.paths.keySet())
+     {
+      if (directory.equals(path.getParent()))
+       {
+        files.add(path);
+       }
+     }
+    for (final Path path : files)
+     {
+      /* final boolean removed = */ invalidateChanged(path);
+     }
+   }
+
+
+  /**
+   * Update bookkeeping for a removed entry.
+   *
+   * @param entry Removed entry
+   */
+  private void removed(final Entry entry)
+   {
+    assert Thread.holdsLock(this);
+    this.size -= entry.getSize();
+    if (entry.path != null)
+     {
+      this.paths.remove(entry.path);
+     }
+   }
+
+
+  /**
+   * Remove all templates from the cache.
+   */
+  public synchronized void clear()
+   {
+    for (final Entry entry : this.entries.values())
+     {
+      entry.invalidated = true;
+     }
+    this.entries.clear();
+    this.paths.clear();
+    this.resources.clear();
+    this.missing.clear();
+    this.size = 0;
+   }
+
+
+  /**
+   * Start watching the directories of cached template files.
+   *
+   * Changed, created or deleted template files will be removed from the cache and
+   * engines that use an unmodified loaded template will reload it on next use.
+   * Unchanged templates stay cached.
+   *
+   * @throws IOException If the watch service could not be started
+   */
+  public synchronized void startWatching() throws IOException
+   {
+    if (this.watcher != null)
+     {
+      return;
+     }
+    this.watcher = new TemplateWatcher(this);
+    for (final Path path : this.paths.keySet())
+     {
+      this.watcher.register(path);
+     }
+   }
+
+
+  /**
+   * Stop watching template files.
+   *
+   * @throws IOException IO exception
+   */
+  public synchronized void stopWatching() throws IOException
+   {
+    if (this.watcher != null)
+     {
+      this.watcher.close();
+      this.watcher = null;
+     }
+   }
+
+
+  /**
+   * Are template files watched.
+   *
+   * @return true when watching, false otherwise
+   */
+  public synchronized boolean isWatching()
+   {
+    return this.watcher != null;
+   }
+
+
+  /**
+   * Set maximum cache size.
+   *
+   * @param newMaxSize Maximum cache size in bytes, 0 disables caching
+   * @throws IllegalArgumentException If newMaxSize is negative
+   */
+  public synchronized void setMaxSize(final long newMaxSize)
+   {
+    if (newMaxSize < 0)
+     {
+      throw new IllegalArgumentException("newMaxSize is negative"); //$NON-NLS-1$
+     }
+    this.maxSize = newMaxSize;
+    evict();
+   }
+
+
+  /**
+   * Get maximum cache size.
+   *
+   * @return Maximum cache size in bytes
+   */
+  public synchronized long getMaxSize()
+   {
+    return this.maxSize;
+   }
+
+
+  /**
+   * Get current cache size.
+   *
+   * @return Estimated size of all cached templates in bytes
+   */
+  public synchronized long getSize()
+   {
+    return this.size;
+   }
+
+
+  /**
+   * Get number of cached templates.
+   *
+   * @return Number of cached templates
+   */
+  public synchronized int getCount()
+   {
+    return this.entries.size();
+   }
+
+
+  /**
+   * Get number of cache hits.
+   *
+   * @return Cache hits
+   */
+  public long getHits()
+   {
+    return this.hits.sum();
+   }
+
+
+  /**
+   * Get number of cache misses.
+   *
+   * @return Cache misses
+   */
+  public long getMisses()
+   {
+    return this.misses.sum();
+   }
+
+
+  /**
+   * Get number of class loader lookups.
+   *
+   * @return Class loader lookups
+   */
+  public long getLookups()
+   {
+    return this.lookups.sum();
+   }
+
+
+  /**
+   * Get number of cache evictions.
+   *
+   * @return Cache evictions
+   */
+  public long getEvictions()
+   {
+    return this.evictions.sum();
+   }
+
+
+  /**
+   * Returns the string representation of this TemplateCache.
+   *
+   * The exact details of this representation are unspecified and subject to change, but the following may be regarded as typical:
+   *
+   * "TemplateCache[count=1, size=40, maxSize=67108864, hits=0, misses=1, evictions=0]"
+   *
+   * @return String representation of this TemplateCache.
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString()
+   {
+    return new StringBuilder().append("TemplateCache[count=").append(getCount()).append(", size=").append(getSize()).append(", maxSize=").append(getMaxSize()).append(", hits=").append(getHits()).append(", misses=").append(getMisses()).append(", evictions=").append(getEvictions()).append(']').toString(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+   }
+
+ }
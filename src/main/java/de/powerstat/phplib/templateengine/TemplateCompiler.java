@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+/**
+ * Build time template compiler.
+ *
+ * Reads all template files (*.tmpl) from a directory tree, cuts all their blocks and writes them precompiled into a TemplateArchive.
+ * The variable name of a template is its relative path without extension, where path separators are replaced by '_'.
+ * Each file is compiled on its own, so all template and block names have to be unique within the whole directory tree.
+ *
+ * Could be called from a build, for example via the exec-maven-plugin:
+ *
+ * java de.powerstat.phplib.templateengine.TemplateCompiler src/main/resources target/classes/templates.ptpl
+ */
+public final class TemplateCompiler
+ {
+  /**
+   * Logger.
+   */
+  private static final Logger LOGGER = LogManager.getLogger(TemplateCompiler.class);
+
+
+  /**
+   * Private default constructor.
+   */
+  private TemplateCompiler()
+   {
+    super();
+   }
+
+
+  /**
+   * Find all template files within a directory tree.
+   *
+   * @param directory Directory
+   * @return Sorted list of template files
+   * @throws IOException IO exception
+   */
+  static List<Path> findTemplates(final Path directory) throws IOException
+   {
+    try (Stream<Path> paths = Files.walk(directory))
+     {
+      return paths.filter(path -> Files.isRegularFile(path) && path.getFileName().toString().endsWith(TemplateEngine.TMPL_EXTENSION)).sorted().collect(Collectors.toList());
+     }
+   }
+
+
+  /**
+   * Compile all template files within a directory tree.
+   *
+   * @param directory Directory with template files
+   * @return Template archive with all templates and their blocks
+   * @throws IOException IO exception
+   * @throws NullPointerException If directory is null
+   * @throws IllegalArgumentException If directory is not a directory or a template file name does not match the name pattern
+   * @throws IllegalStateException When blocks are overlapping or a template or block name is used more than once
+   */
+  public static TemplateArchive compile(final Path directory) throws IOException
+   {
+    Objects.requireNonNull(directory, "directory"); //$NON-NLS-1$
+    if (!Files.isDirectory(directory))
+     {
+      throw new IllegalArgumentException("Not a directory: " + directory); //$NON-NLS-1$
+     }
+    final Map<String, CompiledTemplate> templates = new HashMap<>();
+    final Map<String, Path> origins = new HashMap<>();
+    for (final Map.Entry<String, Path> template : TemplateEngine.toVarnames(directory).entrySet())
+     {
+      final String varname = template.getKey();
+      final Path file = template.getValue();
+      final TemplateEngine engine = new TemplateEngine();
+      engine.setDirectoryFile(varname, file);
+      /* final boolean successBlocks = */ engine.setAllBlocks(varname);
+      for (final Map.Entry<String, CompiledTemplate> entry : engine.compileAll().entrySet())
+       {
+        final Path origin = origins.putIfAbsent(entry.getKey(), file);
+        if (origin != null)
+         {
+          throw new IllegalStateException("Duplicate template or block name " + entry.getKey() + " in " + origin + " and " + file); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+         }
+        templates.put(entry.getKey(), entry.getValue());
+       }
+     }
+    return new TemplateArchive(templates);
+   }
+
+
+  /**
+   * Compile all template files within a directory tree into an archive file.
+   *
+   * @param args Source directory and archive file
+   * @throws IOException IO exception
+   * @throws IllegalArgumentException If not called with two arguments
+   */
+  public static void main(final String[] args) throws IOException
+   {
+    if (args.length != 2)
+     {
+      throw new IllegalArgumentException("Usage: TemplateCompiler <sourceDirectory> <archiveFile>"); //$NON-NLS-1$
+     }
+    final TemplateArchive archive = compile(Paths.get(args[0]));
+    final Path target = Paths.get(args[1]).toAbsolutePath();
+    Files.createDirectories(target.getParent());
+    try (OutputStream out = Files.newOutputStream(target))
+     {
+      archive.write(out);
+     }
+    if (LOGGER.isInfoEnabled())
+     {
+      LOGGER.info("Compiled " + archive.getNames().size() + " templates into " + target); //$NON-NLS-1$ //$NON-NLS-2$
+     }
+   }
+
+ }
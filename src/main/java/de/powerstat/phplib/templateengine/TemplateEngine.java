@@ -4,26 +4,44 @@
 package de.powerstat.phplib.templateengine;
 
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -72,15 +90,20 @@ public final class TemplateEngine
   private static final String VARNAME_DOES_NOT_MATCH_NAME_PATTERN = "varname does not match name pattern"; //$NON-NLS-1$
 
   /**
-   * Varname regexp pattern.
+   * Undefined template variable regexp pattern.
    */
-  private static final String VARNAME_PATTERN = "^[a-zA-Z0-9_]{1,64}$"; //$NON-NLS-1$
+  private static final Pattern UNDEFINED_PATTERN = Pattern.compile("\\{([^ \\t\\r\\n}]+)\\}"); //$NON-NLS-1$
 
   /**
    * Maximum template size.
    */
   private static final int MAX_TEMPLATE_SIZE = 1048576;
 
+  /**
+   * Template file extension.
+   */
+  static final String TMPL_EXTENSION = ".tmpl"; //$NON-NLS-1$
+
   /**
    * Maximum varname size.
    */
@@ -89,12 +112,68 @@ public final class TemplateEngine
   /**
    * File name map.
    */
-  private final Map<String, File> files = new ConcurrentHashMap<>();
+  private final ForkableMap<String, File> files;
+
+  /**
+   * Absolute paths of template files set from a template directory.
+   *
+   * These files are resolved by their path only, so that a classpath resource with the same file name could not shadow them.
+   */
+  private final ForkableMap<String, Path> directoryFiles;
 
   /**
    * Temporary variables map.
+   *
+   * Values are stored by SymbolTable slot, so that compiled templates could read them without hashing.
+   * Copy on write, so that copies of an engine share all unchanged variables.
+   */
+  private final VariableTable tempVars;
+
+  /**
+   * Lazy variables that have not been set otherwise.
+   *
+   * A lazy value is only used when its variable has no value within tempVars.
+   */
+  private final ForkableMap<String, LazyValue> lazyVars;
+
+  /**
+   * Append buffers for parse targets.
+   *
+   * Appending to a target collects the parts here, so that repeated appends stay linear.
+   * A buffer will be moved to tempVars when its variable is read the next time.
+   */
+  private final Map<String, StringBuilder> appendBuffers = new ConcurrentHashMap<>();
+
+  /**
+   * Compiled templates cache.
+   *
+   * Entries are only valid as long as they are compiled from the current variable value.
+   */
+  private final ForkableMap<String, CompiledTemplate> compiled;
+
+  /**
+   * Last rendered output by variable name.
+   *
+   * Reused by subst() and parse() as long as the template and all values of its variables are unchanged,
+   * so that re-rendering a page only recomputes the blocks whose inputs have changed.
+   * An entry is removed whenever its variable is set, appended to or unset, so that no outdated output is kept alive.
+   * Not shared with forks, because every render would change it and so every fork would have to copy it.
+   */
+  private final ForkableMap<String, CompiledTemplate.Rendered> rendered;
+
+  /**
+   * Block indexes cache.
+   *
+   * Entries are only valid as long as they are built from the current variable value.
+   */
+  private final ForkableMap<String, BlockIndex> blockIndexes;
+
+  /**
+   * Template files loaded from the TemplateCache.
+   *
+   * Used to reload templates that have been invalidated within the cache.
    */
-  private final Map<String, String> tempVars = new ConcurrentHashMap<>();
+  private final ForkableMap<String, TemplateCache.Entry> loaded;
 
   /**
    * Handling of undefined template variables.
@@ -159,21 +238,27 @@ public final class TemplateEngine
   /**
    * Copy constructor.
    *
+   * Runs in constant time, because the copy shares all unchanged data with the original engine.
+   * This is only true for an original engine that has not been changed since it has been copied the last time (a frozen prototype),
+   * otherwise its changes are merged once in linear time. Rendering the original only changes it when a template is compiled the first time.
+   * The copy starts without the rendered outputs of the original.
+   *
    * @param engine Template engine
    * @throws NullPointerException If engine is null
    */
   public TemplateEngine(final TemplateEngine engine)
    {
     Objects.requireNonNull(engine, "engine"); //$NON-NLS-1$
+    engine.flushAll();
     this.unknowns = engine.unknowns;
-    for (final Map.Entry<String, String> entry : engine.tempVars.entrySet())
-     {
-      this.tempVars.put(entry.getKey(), entry.getValue());
-     }
-    for (final Map.Entry<String, File> entry : engine.files.entrySet())
-     {
-      this.files.put(entry.getKey(), entry.getValue());
-     }
+    this.tempVars = engine.tempVars.fork();
+    this.lazyVars = engine.lazyVars.fork();
+    this.files = engine.files.fork();
+    this.directoryFiles = engine.directoryFiles.fork();
+    this.compiled = engine.compiled.fork();
+    this.rendered = new ForkableMap<>();
+    this.blockIndexes = engine.blockIndexes.fork();
+    this.loaded = engine.loaded.fork();
    }
 
 
@@ -186,6 +271,14 @@ public final class TemplateEngine
   public TemplateEngine(final HandleUndefined unknowns)
    {
     this.unknowns = unknowns;
+    this.tempVars = new VariableTable();
+    this.lazyVars = new ForkableMap<>();
+    this.files = new ForkableMap<>();
+    this.directoryFiles = new ForkableMap<>();
+    this.compiled = new ForkableMap<>();
+    this.rendered = new ForkableMap<>();
+    this.blockIndexes = new ForkableMap<>();
+    this.loaded = new ForkableMap<>();
    }
 
 
@@ -212,14 +305,34 @@ public final class TemplateEngine
 
 
   /**
-   * Get new instance from a UTF-8 encoded text file.
+   * Fork this engine.
+   *
+   * Same as the copy constructor: runs in constant time from an unchanged prototype and only the variables changed later on are stored separately.
+   * This allows to load a prototype engine once and fork it for every request.
+   *
+   * @return A new TemplateEngine instance that is a copy of this engine.
+   */
+  public TemplateEngine fork()
+   {
+    return new TemplateEngine(this);
+   }
+
+
+  /**
+   * Get new instance from a UTF-8 encoded text file or a directory of template files.
+   *
+   * For a directory all template files (*.tmpl) within the directory tree are set as files and loaded in parallel.
+   * The variable name of each template is its relative path without extension, where path separators are replaced by '_'.
+   * Template files of a directory are always read from their path and never from the classpath.
    *
-   * @param file Text file (UTF-8 encoded) to load as template
-   * @return A new TemplateEngine instance where the template variable name is 'template'
+   * @param file Text file (UTF-8 encoded) to load as template or directory with template files
+   * @return A new TemplateEngine instance where the template variable name is 'template' for a single file
    * @throws FileNotFoundException When the given file does not exist
-   * @throws IOException When the given file is to large
-   * @throws IllegalArgumentException When the given file is null
+   * @throws IOException When the given file is to large or a template file could not be read
+   * @throws IllegalArgumentException When a template file within the directory is to large or its name does not match the name pattern
+   * @throws IllegalStateException When two template files within the directory are mapped to the same variable name
    * @throws NullPointerException If file is null
+   * @see #warmUp()
    */
   public static TemplateEngine newInstance(final File file) throws IOException
    {
@@ -230,8 +343,17 @@ public final class TemplateEngine
        {
         throw new FileNotFoundException(file.getAbsolutePath());
        }
-      // Load all files (*.tmpl) from directory?
-      throw new AssertionError(file.getAbsolutePath() + " is a directory and not a file!"); //$NON-NLS-1$
+      final TemplateEngine templ = new TemplateEngine();
+      for (final Entry<String, Path> template : toVarnames(file.toPath()).entrySet())
+       {
+        templ.setDirectoryFile(template.getKey(), template.getValue());
+       }
+      final Duration duration = templ.warmUp();
+      if (LOGGER.isDebugEnabled())
+       {
+        LOGGER.debug("Loaded " + templ.files.size() + " templates from " + file.getAbsolutePath() + " in " + duration.toMillis() + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+       }
+      return templ;
      }
     if (file.length() > MAX_TEMPLATE_SIZE)
      {
@@ -253,6 +375,93 @@ public final class TemplateEngine
    }
 
 
+  /**
+   * Get new instance from a classpath directory (package) of template files.
+   *
+   * All template files (*.tmpl) within the directory tree are read and compiled in parallel.
+   * The variable name of each template is its relative path without extension, where path separators are replaced by '_'.
+   * Directories within the filesystem are set as files like newInstance(File) does, directories within jars are set as variables.
+   *
+   * @param loader Class loader to find the directory with
+   * @param directory Classpath directory like "de/powerstat/templates"
+   * @return A new TemplateEngine instance with one variable per template file
+   * @throws FileNotFoundException When the directory could not be found
+   * @throws IOException When a template file could not be read
+   * @throws IllegalArgumentException When a template file is to large or its name does not match the name pattern
+   * @throws IllegalStateException When two template files are mapped to the same variable name
+   * @throws NullPointerException If loader or directory is null
+   */
+  public static TemplateEngine newInstance(final ClassLoader loader, final String directory) throws IOException
+   {
+    Objects.requireNonNull(loader, "loader"); //$NON-NLS-1$
+    Objects.requireNonNull(directory, "directory"); //$NON-NLS-1$
+    final URL url = loader.getResource(directory);
+    if (url == null)
+     {
+      throw new FileNotFoundException(directory);
+     }
+    final URI uri;
+    try
+     {
+      uri = url.toURI();
+     }
+    catch (final URISyntaxException e)
+     {
+      throw new IOException(e);
+     }
+    if ("file".equals(url.getProtocol())) //$NON-NLS-1$
+     {
+      return newInstance(Paths.get(uri).toFile());
+     }
+    final TemplateEngine templ = new TemplateEngine();
+    try (FileSystem filesystem = FileSystems.newFileSystem(uri, Collections.emptyMap()))
+     {
+      templ.setTemplates(filesystem.provider().getPath(uri));
+     }
+    catch (final FileSystemAlreadyExistsException ignored)
+     {
+      templ.setTemplates(Paths.get(uri));
+     }
+    return templ;
+   }
+
+
+  /**
+   * Read and compile all template files within a directory tree in parallel and set them as variables.
+   *
+   * @param directory Directory
+   * @throws IOException IO exception
+   */
+  private void setTemplates(final Path directory) throws IOException
+   {
+    final Map<String, CompiledTemplate> templates;
+    try
+     {
+      templates = toVarnames(directory).entrySet().parallelStream().collect(Collectors.toConcurrentMap(Entry::getKey, template ->
+       {
+        try
+         {
+          return CompiledTemplate.compile(normalizeNewlines(new String(Files.readAllBytes(template.getValue()), StandardCharsets.UTF_8)));
+         }
+        catch (final IOException e)
+         {
+          throw new UncheckedIOException(e);
+         }
+       }
+      ));
+     }
+    catch (final UncheckedIOException e)
+     {
+      throw e.getCause();
+     }
+    for (final Entry<String, CompiledTemplate> entry : templates.entrySet())
+     {
+      doSetVar(entry.getKey(), entry.getValue().getSource());
+      this.compiled.put(entry.getKey(), entry.getValue());
+     }
+   }
+
+
   /**
    * Get new instance from a stream.
    *
@@ -266,23 +475,17 @@ public final class TemplateEngine
   public static TemplateEngine newInstance(final InputStream stream) throws IOException
    {
     Objects.requireNonNull(stream, "stream"); //$NON-NLS-1$
-    final StringBuilder fileBuffer = new StringBuilder();
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8)))
+    final String fileBuffer;
+    try (stream)
      {
-      String line = reader.readLine();
-      while (line != null)
-       {
-        fileBuffer.append(line);
-        fileBuffer.append('\n');
-        line = reader.readLine();
-       }
+      fileBuffer = normalizeNewlines(new String(stream.readAllBytes(), StandardCharsets.UTF_8));
      }
-    if (fileBuffer.length() == 0)
+    if (fileBuffer.isEmpty())
      {
       throw new IllegalStateException("Empty stream"); //$NON-NLS-1$
      }
     final TemplateEngine templ = new TemplateEngine();
-    templ.setVar(TEMPLATE, fileBuffer.toString());
+    templ.setVar(TEMPLATE, fileBuffer);
     return templ;
    }
 
@@ -313,6 +516,139 @@ public final class TemplateEngine
    }
 
 
+  /**
+   * Get new instance from a precompiled template archive.
+   *
+   * All templates and blocks of the archive are set as variables together with their compiled form,
+   * so that no template file has to be read or scanned.
+   *
+   * @param archive Precompiled template archive
+   * @return A new TemplateEngine instance with one variable per archived template
+   * @throws NullPointerException If archive is null
+   * @see TemplateCompiler
+   */
+  public static TemplateEngine newInstance(final TemplateArchive archive)
+   {
+    Objects.requireNonNull(archive, "archive"); //$NON-NLS-1$
+    final TemplateEngine templ = new TemplateEngine();
+    for (final Entry<String, CompiledTemplate> entry : archive.getTemplates().entrySet())
+     {
+      templ.doSetVar(entry.getKey(), entry.getValue().getSource());
+      templ.compiled.put(entry.getKey(), entry.getValue());
+     }
+    return templ;
+   }
+
+
+  /**
+   * Get template variable name for a template file within a directory.
+   *
+   * The name is the relative path without the ".tmpl" extension, where path separators are replaced by '_'.
+   *
+   * @param directory Base directory
+   * @param file Template file within directory
+   * @return Template variable name
+   * @throws IllegalArgumentException If the resulting name is not a valid variable name
+   */
+  static String toVarname(final Path directory, final Path file)
+   {
+    final StringBuilder name = new StringBuilder();
+    for (final Path part : directory.relativize(file))
+     {
+      if (name.length() > 0)
+       {
+        name.append('_');
+       }
+      name.append(part.toString());
+     }
+    if (name.toString().endsWith(TMPL_EXTENSION))
+     {
+      name.setLength(name.length() - TMPL_EXTENSION.length());
+     }
+    final String result = name.toString();
+    if (!VarName.isValid(result))
+     {
+      throw new IllegalArgumentException("Template file name does not match name pattern: " + file); //$NON-NLS-1$
+     }
+    return result;
+   }
+
+
+  /**
+   * Get template variable names for all template files within a directory tree.
+   *
+   * @param directory Base directory
+   * @return Template files by variable name in order of their paths
+   * @throws IOException IO exception
+   * @throws IllegalArgumentException If a resulting name is not a valid variable name
+   * @throws IllegalStateException If two template files are mapped to the same variable name
+   */
+  static Map<String, Path> toVarnames(final Path directory) throws IOException
+   {
+    final Map<String, Path> result = new LinkedHashMap<>();
+    for (final Path file : TemplateCompiler.findTemplates(directory))
+     {
+      final Path other = result.putIfAbsent(toVarname(directory, file), file);
+      if (other != null)
+       {
+        throw new IllegalStateException("Duplicate template name " + toVarname(directory, file) + " for " + other + " and " + file); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+       }
+     }
+    return result;
+   }
+
+
+  /**
+   * Load and compile all template files that have been set in parallel.
+   *
+   * Template files that are already loaded will not be read again, so that a second call returns quickly.
+   *
+   * @return Total load time
+   * @throws FileNotFoundException File not found
+   * @throws IOException IO exception
+   */
+  public Duration warmUp() throws IOException
+   {
+    final long start = System.nanoTime();
+    final List<String> varnames = new ArrayList<>();
+    for (final String varname : this.files.keySet())
+     {
+      flush(varname);
+      if (!isLoaded(varname, this.tempVars.get(varname)) && !this.lazyVars.containsKey(varname))
+       {
+        varnames.add(varname);
+       }
+     }
+    final Map<String, TemplateCache.Entry> entries;
+    try
+     {
+      entries = varnames.parallelStream().collect(Collectors.toConcurrentMap(varname -> varname, varname ->
+       {
+        try
+         {
+          final TemplateCache.Entry entry = fetch(varname, this.files.get(varname));
+          /* final CompiledTemplate template = */ entry.getCompiled();
+          return entry;
+         }
+        catch (final IOException e)
+         {
+          throw new UncheckedIOException(e);
+         }
+       }
+      ));
+     }
+    catch (final UncheckedIOException e)
+     {
+      throw e.getCause();
+     }
+    for (final Entry<String, TemplateCache.Entry> entry : entries.entrySet())
+     {
+      /* final boolean success = */ setLoaded(entry.getKey(), entry.getValue());
+     }
+    return Duration.ofNanos(System.nanoTime() - start);
+   }
+
+
   /**
    * Handling of unknown template variables during parsing.
    *
@@ -348,7 +684,7 @@ public final class TemplateEngine
      {
       throw new IllegalArgumentException("newVarname is to long"); //$NON-NLS-1$
      }
-    if (!newVarname.matches(VARNAME_PATTERN))
+    if (!VarName.isValid(newVarname))
      {
       throw new IllegalArgumentException("newVarname does not match name pattern"); //$NON-NLS-1$
      }
@@ -360,33 +696,45 @@ public final class TemplateEngine
         throw new IllegalArgumentException("newFile to large"); //$NON-NLS-1$
        }
       this.files.put(newVarname, newFile);
+      this.directoryFiles.remove(newVarname);
      }
-    else
+    else if (TemplateCache.getInstance().getResource(newFile.getName()) != null)
      {
-      try (InputStream stream = this.getClass().getResourceAsStream("/" + newFile.getName())) //$NON-NLS-1$
-       {
-        if (stream != null)
-         {
-          exists = true;
-          this.files.put(newVarname, newFile);
-         }
-       }
-      catch (final IOException ignored)
-        {
-         // exists is already false
-         if (LOGGER.isWarnEnabled())
-          {
-           LOGGER.warn("File does not exist: " + newFile.getAbsolutePath(), ignored); //$NON-NLS-1$
-          }
-        }
+      exists = true;
+      this.files.put(newVarname, newFile);
+      this.directoryFiles.remove(newVarname);
      }
     return exists;
    }
 
 
+  /**
+   * Set template file of a template directory for variable.
+   *
+   * The file will be read from its path only and never from the classpath.
+   *
+   * @param varname Variable that should hold the template (already checked)
+   * @param file Template file UTF-8 encoded
+   * @throws IOException IO exception
+   * @throws IllegalArgumentException If file is to large
+   */
+  void setDirectoryFile(final String varname, final Path file) throws IOException
+   {
+    final Path path = file.toAbsolutePath();
+    if (Files.size(path) > MAX_TEMPLATE_SIZE)
+     {
+      throw new IllegalArgumentException("Template file to large: " + path); //$NON-NLS-1$
+     }
+    this.files.put(varname, path.toFile());
+    this.directoryFiles.put(varname, path);
+   }
+
+
   /**
    * Load template file (UTF-8 encoded) if required.
    *
+   * Loaded files are shared by all engines via the TemplateCache.
+   *
    * @param varname Variable to read from file
    * @return true if successful otherwise false
    * @throws FileNotFoundException File not found
@@ -395,7 +743,19 @@ public final class TemplateEngine
   private boolean loadfile(final String varname) throws IOException
    {
     assert (varname != null) && !varname.isEmpty() && (varname.length() <= MAX_VARNAME_SIZE);
-    if (this.tempVars.containsKey(varname)) // Already loaded?
+    flush(varname);
+    String value = this.tempVars.get(varname);
+    if ((value == null) && !this.lazyVars.isEmpty())
+     {
+      final LazyValue lazy = this.lazyVars.get(varname);
+      if (lazy != null)
+       {
+        value = lazy.get();
+        doSetVar(varname, value);
+        return true;
+       }
+     }
+    if (isLoaded(varname, value))
      {
       return true;
      }
@@ -404,336 +764,1749 @@ public final class TemplateEngine
      {
       return false;
      }
-    InputStream istream = this.getClass().getResourceAsStream("/" + file.getName()); //$NON-NLS-1$ // Read from classpath/jar
-    if (istream == null)
-     {
-      istream = Files.newInputStream(this.files.get(varname).toPath(), StandardOpenOption.READ); // Read from filesystem
-     }
-    final StringBuilder fileBuffer = new StringBuilder();
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(istream, StandardCharsets.UTF_8)))
-     {
-      String line = reader.readLine();
-      while (line != null)
-       {
-        fileBuffer.append(line);
-        fileBuffer.append('\n');
-        line = reader.readLine();
-       }
-     }
-    if (fileBuffer.length() == 0)
+    return setLoaded(varname, fetch(varname, file));
+   }
+
+
+  /**
+   * Is variable already loaded.
+   *
+   * @param varname Variable name
+   * @param value Current value of variable or null
+   * @return true if the variable has a value that is not an invalidated template file, false otherwise
+   */
+  private boolean isLoaded(final String varname, final String value)
+   {
+    if (value == null)
      {
       return false;
      }
-    setVar(varname, fileBuffer.toString());
-    return true;
+    final TemplateCache.Entry entry = this.loaded.get(varname);
+    return (entry == null) || !entry.isInvalidated() || (entry.getContent() != value); // NOPMD Identity by intention - only reload unmodified templates
    }
 
 
   /**
-   * Get template variable value.
+   * Set variable to a template file loaded from the TemplateCache.
    *
-   * @param varname Template variable name
-   * @return Template variables value
-   * @throws NullPointerException If varname is null
-   * @throws IllegalArgumentException If varname is empty
+   * @param varname Variable name
+   * @param entry Cache entry
+   * @return true if successful, false for an empty template file
    */
-  public String getVar(final String varname)
+  private boolean setLoaded(final String varname, final TemplateCache.Entry entry)
    {
-    Objects.requireNonNull(varname, VARNAME);
-    if (varname.isEmpty())
+    if (entry.getContent().isEmpty())
      {
-      throw new IllegalArgumentException(VARNAME_IS_EMPTY);
-     }
-    if (varname.length() > MAX_VARNAME_SIZE)
-     {
-      throw new IllegalArgumentException(VARNAME_IS_TO_LONG);
-     }
-    if (!varname.matches(VARNAME_PATTERN))
-     {
-      throw new IllegalArgumentException(VARNAME_DOES_NOT_MATCH_NAME_PATTERN);
+      return false;
      }
-    final String value = this.tempVars.get(varname);
-    return (value == null) ? "" : value; //$NON-NLS-1$
+    doSetVar(varname, entry.getContent());
+    this.compiled.put(varname, entry.getCompiled());
+    this.loaded.put(varname, entry);
+    return true;
    }
 
 
   /**
-   * Set template variables value.
+   * Get template file from the TemplateCache, read it from classpath or filesystem if required.
    *
-   * @param varname Template variable name
-   * @param value Template variable value, could  be null
-   * @throws NullPointerException If varname is null
-   * @throws IllegalArgumentException If varname is empty
+   * Template files of a template directory are only read from the filesystem.
+   * Does not change the engine, so that it could be called concurrently.
+   *
+   * @param varname Variable to read from file
+   * @param file Template file
+   * @return Cache entry
+   * @throws FileNotFoundException File not found
+   * @throws IOException IO exception
    */
-  public void setVar(final String varname, final String value)
+  private TemplateCache.Entry fetch(final String varname, final File file) throws IOException
    {
-    Objects.requireNonNull(varname, VARNAME);
-    if (varname.isEmpty())
+    final Path directoryFile = this.directoryFiles.get(varname);
+    final URL resource = (directoryFile == null) ? TemplateCache.getInstance().getResource(file.getName()) : null; // Read from classpath/jar
+    final String key;
+    Path path = null;
+    if (resource == null)
      {
-      throw new IllegalArgumentException(VARNAME_IS_EMPTY);
+      path = file.toPath().toAbsolutePath();
+      key = path.toString();
      }
-    if (varname.length() > MAX_VARNAME_SIZE)
+    else
      {
-      throw new IllegalArgumentException(VARNAME_IS_TO_LONG);
+      key = resource.toString();
+      if ("file".equals(resource.getProtocol())) //$NON-NLS-1$
+       {
+        try
+         {
+          path = Paths.get(resource.toURI());
+         }
+        catch (final URISyntaxException e)
+         {
+          throw new IOException(e);
+         }
+       }
      }
-    if ((value != null) && (value.length() > MAX_TEMPLATE_SIZE))
+    final TemplateLoadEvent event = new TemplateLoadEvent();
+    event.begin();
+    final TemplateCache.Entry entry = TemplateCache.getInstance().get(key, path, () ->
      {
-      throw new IllegalArgumentException("value is to large"); //$NON-NLS-1$
+      final boolean metrics = TemplateMetrics.enabled();
+      final long start = metrics ? System.nanoTime() : 0L;
+      final String content = readTemplate(resource, file);
+      if (metrics)
+       {
+        TemplateMetrics.getInstance().loaded(System.nanoTime() - start);
+       }
+      return content;
      }
-    if (!varname.matches(VARNAME_PATTERN))
+    );
+    event.end();
+    if (event.shouldCommit())
      {
-      throw new IllegalArgumentException(VARNAME_DOES_NOT_MATCH_NAME_PATTERN);
+      event.template = varname;
+      event.location = key;
+      event.size = entry.getContent().length();
+      event.commit();
      }
-    // if (!value.matches("^.+$"))
-    this.tempVars.put(varname, (value == null) ? "" : value); //$NON-NLS-1$
+    return entry;
    }
 
 
   /**
-   * Set template variable as empty.
+   * Read template (UTF-8 encoded) from classpath or filesystem.
    *
-   * @param varname Template variable name
-   * @throws NullPointerException If varname is null
-   * @throws IllegalArgumentException If varname is empty
+   * @param resource Classpath resource or null to read from filesystem
+   * @param file Template file
+   * @return Template content
+   * @throws IOException IO exception
    */
-  public void setVar(final String varname)
+  private static String readTemplate(final URL resource, final File file) throws IOException
    {
-    setVar(varname, ""); //$NON-NLS-1$
+    final byte[] bytes;
+    if (resource == null)
+     {
+      bytes = Files.readAllBytes(file.toPath()); // Read from filesystem
+     }
+    else
+     {
+      try (InputStream istream = resource.openStream()) // Read from classpath/jar
+       {
+        bytes = istream.readAllBytes();
+       }
+     }
+    return normalizeNewlines(new String(bytes, StandardCharsets.UTF_8));
+   }
+
+
+  /**
+   * Normalize line endings like reading the text line by line would do.
+   *
+   * "\r\n" and "\r" are replaced by "\n" and a non empty text always ends with a "\n".
+   *
+   * @param text Text to normalize
+   * @return Normalized text, text itself when already normalized
+   */
+  private static String normalizeNewlines(final String text)
+   {
+    final int length = text.length();
+    if ((text.indexOf('\r') < 0) && ((length == 0) || (text.charAt(length - 1) == '\n')))
+     {
+      return text;
+     }
+    final StringBuilder result = new StringBuilder(length + 1);
+    for (int pos = 0; pos < length; ++pos)
+     {
+      final char chr = text.charAt(pos);
+      if (chr == '\r')
+       {
+        result.append('\n');
+        if (((pos + 1) < length) && (text.charAt(pos + 1) == '\n'))
+         {
+          ++pos;
+         }
+       }
+      else
+       {
+        result.append(chr);
+       }
+     }
+    if (result.charAt(result.length() - 1) != '\n')
+     {
+      result.append('\n');
+     }
+    return result.toString();
+   }
+
+
+  /**
+   * Get template variable value.
+   *
+   * @param varname Template variable name
+   * @return Template variables value
+   * @throws NullPointerException If varname is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public String getVar(final String varname)
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    if (varname.isEmpty())
+     {
+      throw new IllegalArgumentException(VARNAME_IS_EMPTY);
+     }
+    if (varname.length() > MAX_VARNAME_SIZE)
+     {
+      throw new IllegalArgumentException(VARNAME_IS_TO_LONG);
+     }
+    if (!VarName.isValid(varname))
+     {
+      throw new IllegalArgumentException(VARNAME_DOES_NOT_MATCH_NAME_PATTERN);
+     }
+    return doGetVar(varname);
+   }
+
+
+  /**
+   * Get template variable value.
+   *
+   * @param varname Template variable name
+   * @return Template variables value
+   * @throws NullPointerException If varname is null
+   */
+  public String getVar(final VarName varname)
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    return doGetVar(varname.getName());
+   }
+
+
+  /**
+   * Get template variable value without name checks.
+   *
+   * @param varname Template variable name (already checked)
+   * @return Template variables value
+   */
+  private String doGetVar(final String varname)
+   {
+    final String value = lookup(varname);
+    return (value == null) ? "" : value; //$NON-NLS-1$
+   }
+
+
+  /**
+   * Set template variables value.
+   *
+   * @param varname Template variable name
+   * @param value Template variable value, could  be null
+   * @throws NullPointerException If varname is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public void setVar(final String varname, final String value)
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    if (varname.isEmpty())
+     {
+      throw new IllegalArgumentException(VARNAME_IS_EMPTY);
+     }
+    if (varname.length() > MAX_VARNAME_SIZE)
+     {
+      throw new IllegalArgumentException(VARNAME_IS_TO_LONG);
+     }
+    if (!VarName.isValid(varname))
+     {
+      throw new IllegalArgumentException(VARNAME_DOES_NOT_MATCH_NAME_PATTERN);
+     }
+    doSetVar(varname, value);
+   }
+
+
+  /**
+   * Set template variables value.
+   *
+   * @param varname Template variable name
+   * @param value Template variable value, could  be null
+   * @throws NullPointerException If varname is null
+   * @throws IllegalArgumentException If value is to large
+   */
+  public void setVar(final VarName varname, final String value)
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    doSetVar(varname.getName(), value);
+   }
+
+
+  /**
+   * Set template variables value without name checks.
+   *
+   * @param varname Template variable name (already checked)
+   * @param value Template variable value, could  be null
+   * @throws IllegalArgumentException If value is to large
+   */
+  private void doSetVar(final String varname, final String value)
+   {
+    if ((value != null) && (value.length() > MAX_TEMPLATE_SIZE))
+     {
+      throw new IllegalArgumentException("value is to large"); //$NON-NLS-1$
+     }
+    // if (!value.matches("^.+$"))
+    if ((value != null) && (this.tempVars.get(varname) == value) && !this.appendBuffers.containsKey(varname)) // NOPMD Identity by intention - keep dependent renders valid
+     {
+      return;
+     }
+    this.appendBuffers.remove(varname);
+    this.tempVars.put(varname, (value == null) ? "" : value); //$NON-NLS-1$
+    if (!this.lazyVars.isEmpty())
+     {
+      this.lazyVars.remove(varname);
+     }
+    this.compiled.remove(varname);
+    this.rendered.remove(varname);
+    this.blockIndexes.remove(varname);
+   }
+
+
+  /**
+   * Set template variables value lazily.
+   *
+   * The supplier will be called at most once and only when the variable is used for the first time,
+   * for example when a substitution hits a reference to it.
+   * So values that are expensive to compute and not used by the rendered templates are never computed.
+   * Copies of this engine share the supplier, so that it will also be called at most once for all copies.
+   *
+   * @param varname Template variable name
+   * @param supplier Template variable value supplier, could return null for an empty value
+   * @throws NullPointerException If varname or supplier is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public void setVar(final String varname, final Supplier<? extends CharSequence> supplier)
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    Objects.requireNonNull(supplier, "supplier"); //$NON-NLS-1$
+    if (varname.isEmpty())
+     {
+      throw new IllegalArgumentException(VARNAME_IS_EMPTY);
+     }
+    if (varname.length() > MAX_VARNAME_SIZE)
+     {
+      throw new IllegalArgumentException(VARNAME_IS_TO_LONG);
+     }
+    if (!VarName.isValid(varname))
+     {
+      throw new IllegalArgumentException(VARNAME_DOES_NOT_MATCH_NAME_PATTERN);
+     }
+    doUnsetVar(varname);
+    this.lazyVars.put(varname, new LazyValue(supplier));
+   }
+
+
+  /**
+   * Get lazy template variable value.
+   *
+   * Does not change the engine, so that it could be called during concurrent renders.
+   *
+   * @param varname Template variable name
+   * @return Lazy value or null if the variable has no lazy value
+   */
+  private String lookupLazy(final String varname)
+   {
+    if (this.lazyVars.isEmpty())
+     {
+      return null;
+     }
+    final LazyValue lazy = this.lazyVars.get(varname);
+    return (lazy == null) ? null : lazy.get();
+   }
+
+
+  /**
+   * Append to template variables value.
+   *
+   * @param varname Template variable name (already checked)
+   * @param value Value to append
+   * @throws IllegalArgumentException If the resulting value is to large
+   */
+  private void appendVar(final String varname, final String value)
+   {
+    this.appendBuffers.compute(varname, (key, buffer) ->
+     {
+      StringBuilder result = buffer;
+      if (result == null)
+       {
+        String oldValue = this.tempVars.get(key);
+        if (oldValue == null)
+         {
+          oldValue = lookupLazy(key);
+         }
+        result = new StringBuilder((oldValue == null) ? "" : oldValue); //$NON-NLS-1$
+       }
+      if ((result.length() + value.length()) > MAX_TEMPLATE_SIZE)
+       {
+        throw new IllegalArgumentException("value is to large"); //$NON-NLS-1$
+       }
+      return result.append(value);
+     }
+    );
+    if (!this.lazyVars.isEmpty())
+     {
+      this.lazyVars.remove(varname);
+     }
+    this.compiled.remove(varname);
+    this.rendered.remove(varname);
+    this.blockIndexes.remove(varname);
+   }
+
+
+  /**
+   * Move append buffer of a template variable (if any) to its value.
+   *
+   * @param varname Template variable name
+   */
+  private void flush(final String varname)
+   {
+    if (!this.appendBuffers.isEmpty())
+     {
+      this.appendBuffers.computeIfPresent(varname, (key, buffer) ->
+       {
+        this.tempVars.put(key, buffer.toString());
+        return null;
+       }
+      );
+     }
+   }
+
+
+  /**
+   * Move all append buffers to their values.
+   */
+  private void flushAll()
+   {
+    for (final String varname : this.appendBuffers.keySet())
+     {
+      flush(varname);
+     }
+   }
+
+
+  /**
+   * Lookup template variable value without name checks.
+   *
+   * @param varname Template variable name
+   * @return Template variable value or null if undefined
+   */
+  private String lookup(final String varname)
+   {
+    flush(varname);
+    final String value = this.tempVars.get(varname);
+    return (value == null) ? lookupLazy(varname) : value;
+   }
+
+
+  /**
+   * Lookup template variable value by SymbolTable slot.
+   *
+   * @param slot Template variable slot
+   * @return Template variable value or null if undefined
+   */
+  private String lookupSlot(final int slot)
+   {
+    if (!this.appendBuffers.isEmpty())
+     {
+      flush(SymbolTable.getInstance().getName(slot));
+     }
+    final String value = this.tempVars.get(slot);
+    return ((value == null) && !this.lazyVars.isEmpty()) ? lookupLazy(SymbolTable.getInstance().getName(slot)) : value;
+   }
+
+
+  /**
+   * Set template variable as empty.
+   *
+   * @param varname Template variable name
+   * @throws NullPointerException If varname is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public void setVar(final String varname)
+   {
+    setVar(varname, ""); //$NON-NLS-1$
+   }
+
+
+  /**
+   * Set template variable as empty.
+   *
+   * @param varname Template variable name
+   * @throws NullPointerException If varname is null
+   */
+  public void setVar(final VarName varname)
+   {
+    setVar(varname, ""); //$NON-NLS-1$
+   }
+
+
+  /**
+   * Unset template variable.
+   *
+   * @param varname Template variable name
+   * @throws NullPointerException If varname is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public void unsetVar(final String varname)
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    if (varname.isEmpty())
+     {
+      throw new IllegalArgumentException(VARNAME_IS_EMPTY);
+     }
+    if (varname.length() > MAX_VARNAME_SIZE)
+     {
+      throw new IllegalArgumentException(VARNAME_IS_TO_LONG);
+     }
+    if (!VarName.isValid(varname))
+     {
+      throw new IllegalArgumentException(VARNAME_DOES_NOT_MATCH_NAME_PATTERN);
+     }
+    doUnsetVar(varname);
+   }
+
+
+  /**
+   * Unset template variable.
+   *
+   * @param varname Template variable name
+   * @throws NullPointerException If varname is null
+   */
+  public void unsetVar(final VarName varname)
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    doUnsetVar(varname.getName());
+   }
+
+
+  /**
+   * Unset template variable without name checks.
+   *
+   * @param varname Template variable name (already checked)
+   */
+  private void doUnsetVar(final String varname)
+   {
+    this.appendBuffers.remove(varname);
+    /* String value = */ this.tempVars.remove(varname);
+    if (!this.lazyVars.isEmpty())
+     {
+      this.lazyVars.remove(varname);
+     }
+    this.compiled.remove(varname);
+    this.rendered.remove(varname);
+    this.blockIndexes.remove(varname);
+   }
+
+
+  /**
+   * Set template block (cut it from parent template and replace it with a variable).
+   *
+   * Used for repeatable blocks
+   *
+   * @param parent Name of parent template variable
+   * @param varname Name of template block
+   * @param name Name of variable in which the block will be placed - if empty will be the same as varname
+   * @return true on sucess otherwise false
+   * @throws IOException IO exception
+   * @throws IllegalStateException When no block with varname is found.
+   * @throws NullPointerException If parent or varname is null
+   * @throws IllegalArgumentException If parent or varname is empty
+   */
+  public boolean setBlock(final String parent, final String varname, final String name) throws IOException
+   {
+    Objects.requireNonNull(parent, "parent"); //$NON-NLS-1$
+    Objects.requireNonNull(varname, VARNAME);
+    Objects.requireNonNull(name, "name"); //$NON-NLS-1$
+    if (parent.isEmpty() || varname.isEmpty())
+     {
+      throw new IllegalArgumentException("parent or varname is empty"); //$NON-NLS-1$
+     }
+    if ((parent.length() > MAX_VARNAME_SIZE) || (varname.length() > MAX_VARNAME_SIZE) || (name.length() > MAX_VARNAME_SIZE))
+     {
+      throw new IllegalArgumentException("parent, varname or name is to long"); //$NON-NLS-1$
+     }
+    if (!VarName.isValid(parent) || !VarName.isValid(varname) || (!name.isEmpty() && (!VarName.isValid(name))))
+     {
+      throw new IllegalArgumentException("parent, varname or name does not match name pattern"); //$NON-NLS-1$
+     }
+    return doSetBlock(parent, varname, name.isEmpty() ? varname : name);
+   }
+
+
+  /**
+   * Set template block (cut it from parent template and replace it with a variable).
+   *
+   * Used for repeatable blocks
+   *
+   * @param parent Name of parent template variable
+   * @param varname Name of template block
+   * @param name Name of variable in which the block will be placed
+   * @return true on sucess otherwise false
+   * @throws IOException IO exception
+   * @throws IllegalStateException When no block with varname is found.
+   * @throws NullPointerException If parent, varname or name is null
+   */
+  public boolean setBlock(final VarName parent, final VarName varname, final VarName name) throws IOException
+   {
+    Objects.requireNonNull(parent, "parent"); //$NON-NLS-1$
+    Objects.requireNonNull(varname, VARNAME);
+    Objects.requireNonNull(name, "name"); //$NON-NLS-1$
+    return doSetBlock(parent.getName(), varname.getName(), name.getName());
+   }
+
+
+  /**
+   * Set template block (cut it from parent template and replace it with a variable).
+   *
+   * Used for on/off blocks
+   *
+   * @param parent Name of parent template variable
+   * @param varname Name of template block
+   * @return true on sucess otherwise false
+   * @throws IOException IO exception
+   * @throws IllegalStateException When no block with varname is found.
+   * @throws NullPointerException If parent or varname is null
+   */
+  public boolean setBlock(final VarName parent, final VarName varname) throws IOException
+   {
+    return setBlock(parent, varname, varname);
+   }
+
+
+  /**
+   * Set template block without name checks.
+   *
+   * @param parent Name of parent template variable (already checked)
+   * @param varname Name of template block (already checked)
+   * @param internName Name of variable in which the block will be placed (already checked)
+   * @return true on sucess otherwise false
+   * @throws IOException IO exception
+   * @throws IllegalStateException When no block with varname is found.
+   */
+  private boolean doSetBlock(final String parent, final String varname, final String internName) throws IOException
+   {
+    if (!loadfile(parent))
+     {
+      return false;
+     }
+    final BlockExtractEvent event = new BlockExtractEvent();
+    event.begin();
+    final String parentValue = doGetVar(parent);
+    final BlockIndex index = getBlockIndex(parent, parentValue);
+    final BlockIndex.Block block = index.get(varname);
+    if (block == null)
+     {
+      throw new IllegalStateException("No block found: " + varname); //$NON-NLS-1$
+     }
+    final String content = cutBlock(parent, parentValue, index, block, internName);
+    commit(event, parent, varname, parentValue, content);
+    return true;
+   }
+
+
+  /**
+   * Cut a block from its parent template and replace it with a variable.
+   *
+   * @param parent Name of parent template variable
+   * @param parentValue Parent template
+   * @param index Block index of parent template
+   * @param block Block to cut
+   * @param name Name of variable in which the block will be placed
+   * @return Block content
+   */
+  private String cutBlock(final String parent, final String parentValue, final BlockIndex index, final BlockIndex.Block block, final String name)
+   {
+    final String content = parentValue.substring(block.getContentStart(), block.getContentEnd());
+    final int replacementLength = name.length() + 2;
+    final String str = new StringBuilder(parentValue.length() - (block.getEnd() - block.getStart()) + replacementLength).append(parentValue, 0, block.getStart()).append('{').append(name).append('}').append(parentValue, block.getEnd(), parentValue.length()).toString();
+    doSetVar(block.getName(), content);
+    doSetVar(parent, str);
+    this.blockIndexes.put(block.getName(), index.inner(block, content));
+    this.blockIndexes.put(parent, index.replace(block, str, replacementLength));
+    return content;
+   }
+
+
+  /**
+   * Get block index for variable.
+   *
+   * @param varname Template variable name
+   * @param template Current template variable value
+   * @return Block index
+   */
+  private BlockIndex getBlockIndex(final String varname, final String template)
+   {
+    BlockIndex result = this.blockIndexes.get(varname);
+    if ((result == null) || !result.isBuiltFrom(template))
+     {
+      result = BlockIndex.build(template);
+      this.blockIndexes.put(varname, result);
+     }
+    return result;
+   }
+
+
+  /**
+   * Set all template blocks (cut them from parent template and replace them with variables of the same name).
+   *
+   * Nested blocks will be cut from their surrounding blocks. All blocks are found with a single scan over the parent template.
+   * This is the same as calling setBlock for all blocks, beginning with the outermost blocks.
+   *
+   * @param parent Name of parent template variable
+   * @return true on sucess otherwise false
+   * @throws IOException IO exception
+   * @throws IllegalStateException When blocks are overlapping
+   * @throws NullPointerException If parent is null
+   * @throws IllegalArgumentException If parent is empty
+   */
+  public boolean setAllBlocks(final String parent) throws IOException
+   {
+    Objects.requireNonNull(parent, "parent"); //$NON-NLS-1$
+    if (parent.isEmpty())
+     {
+      throw new IllegalArgumentException("parent is empty"); //$NON-NLS-1$
+     }
+    if (parent.length() > MAX_VARNAME_SIZE)
+     {
+      throw new IllegalArgumentException("parent is to long"); //$NON-NLS-1$
+     }
+    if (!VarName.isValid(parent))
+     {
+      throw new IllegalArgumentException("parent does not match name pattern"); //$NON-NLS-1$
+     }
+    if (!loadfile(parent))
+     {
+      return false;
+     }
+    cutAllBlocks(parent, doGetVar(parent));
+    return true;
+   }
+
+
+  /**
+   * Commit block extract event if a recording is running.
+   *
+   * @param event Begun block extract event
+   * @param parent Name of parent template variable
+   * @param block Name of template block
+   * @param parentValue Parent template
+   * @param content Block content
+   */
+  private static void commit(final BlockExtractEvent event, final String parent, final String block, final String parentValue, final String content)
+   {
+    event.end();
+    if (event.shouldCommit())
+     {
+      event.parent = parent;
+      event.block = block;
+      event.parentSize = parentValue.length();
+      event.blockSize = content.length();
+      event.commit();
+     }
+   }
+
+
+  /**
+   * Cut all blocks from a template recursively.
+   *
+   * @param parent Name of parent template variable
+   * @param parentValue Parent template
+   */
+  private void cutAllBlocks(final String parent, final String parentValue)
+   {
+    String value = parentValue;
+    BlockIndex index = getBlockIndex(parent, value);
+    for (final BlockIndex.Block topLevel : index.getTopLevelBlocks())
+     {
+      final BlockExtractEvent event = new BlockExtractEvent();
+      event.begin();
+      final BlockIndex.Block block = index.get(topLevel.getName());
+      final String content = cutBlock(parent, value, index, block, block.getName());
+      commit(event, parent, block.getName(), value, content);
+      value = doGetVar(parent);
+      index = this.blockIndexes.get(parent);
+      cutAllBlocks(block.getName(), content);
+     }
+   }
+
+
+  /**
+   * Set template block (cut it from parent template and replace it with a variable).
+   *
+   * Used for on/off blocks
+   *
+   * @param parent Name of parent template variable
+   * @param varname Name of template block
+   * @return true on sucess otherwise false
+   * @throws IOException IO exception
+   * @throws IllegalStateException When no block with varname is found.
+   * @throws NullPointerException If parent or varname is null
+   * @throws IllegalArgumentException If parent or varname is empty
+   */
+  public boolean setBlock(final String parent, final String varname) throws IOException
+   {
+    return setBlock(parent, varname, ""); //$NON-NLS-1$
+   }
+
+
+  /**
+   * Get compiled template for variable.
+   *
+   * Variable values could contain any text, so their unknown names are not added to the SymbolTable.
+   *
+   * @param varname Template variable name
+   * @param template Current template variable value
+   * @return Compiled template
+   */
+  private CompiledTemplate getCompiled(final String varname, final String template)
+   {
+    CompiledTemplate result = this.compiled.get(varname);
+    if ((result == null) || !result.isCompiledFrom(template))
+     {
+      result = CompiledTemplate.compileValue(template);
+      this.compiled.put(varname, result);
+     }
+    return result;
+   }
+
+
+  /**
+   * Substitute variable with its content.
+   *
+   * @param varname Variable name
+   * @return Replaced variable content or empty string
+   * @throws IOException File not found or IO exception
+   * @throws NullPointerException If varname is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public String subst(final String varname) throws IOException
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    if (varname.isEmpty())
+     {
+      throw new IllegalArgumentException(VARNAME_IS_EMPTY);
+     }
+    if (varname.length() > MAX_VARNAME_SIZE)
+     {
+      throw new IllegalArgumentException(VARNAME_IS_TO_LONG);
+     }
+    if (!VarName.isValid(varname))
+     {
+      throw new IllegalArgumentException(VARNAME_DOES_NOT_MATCH_NAME_PATTERN);
+     }
+    return doSubst(varname);
+   }
+
+
+  /**
+   * Substitute variable with its content.
+   *
+   * @param varname Variable name
+   * @return Replaced variable content or empty string
+   * @throws IOException File not found or IO exception
+   * @throws NullPointerException If varname is null
+   */
+  public String subst(final VarName varname) throws IOException
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    return doSubst(varname.getName());
+   }
+
+
+  /**
+   * Substitute variable with its content without name checks.
+   *
+   * @param varname Variable name (already checked)
+   * @return Replaced variable content or empty string
+   * @throws IOException File not found or IO exception
+   */
+  private String doSubst(final String varname) throws IOException
+   {
+    if (!loadfile(varname))
+     {
+      return ""; //$NON-NLS-1$
+     }
+    final CompiledTemplate template = getCompiled(varname, doGetVar(varname));
+    final boolean metrics = TemplateMetrics.enabled();
+    final long start = metrics ? System.nanoTime() : 0L;
+    final SubstEvent event = new SubstEvent();
+    event.begin();
+    final CompiledTemplate.Rendered previous = this.rendered.get(varname);
+    final CompiledTemplate.Rendered current = template.render(this::lookupSlot, previous);
+    if (current != previous)
+     {
+      this.rendered.put(varname, current);
+     }
+    final String result = current.getOutput();
+    event.end();
+    if (metrics)
+     {
+      TemplateMetrics.getInstance().substituted(varname, System.nanoTime() - start, result.length());
+     }
+    commit(event, varname, template, result.length());
+    return result;
+   }
+
+
+  /**
+   * Substitute variable with its content and write the result directly to an output.
+   *
+   * @param varname Variable name
+   * @param out Output to write the replaced variable content to, nothing will be written for an unknown variable
+   * @throws IOException File not found or IO exception or when writing to out fails
+   * @throws NullPointerException If varname or out is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public void subst(final String varname, final Appendable out) throws IOException
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    Objects.requireNonNull(out, "out"); //$NON-NLS-1$
+    if (varname.isEmpty())
+     {
+      throw new IllegalArgumentException(VARNAME_IS_EMPTY);
+     }
+    if (varname.length() > MAX_VARNAME_SIZE)
+     {
+      throw new IllegalArgumentException(VARNAME_IS_TO_LONG);
+     }
+    if (!VarName.isValid(varname))
+     {
+      throw new IllegalArgumentException(VARNAME_DOES_NOT_MATCH_NAME_PATTERN);
+     }
+    doSubst(varname, out);
+   }
+
+
+  /**
+   * Substitute variable with its content and write the result directly to an output.
+   *
+   * @param varname Variable name
+   * @param out Output to write the replaced variable content to, nothing will be written for an unknown variable
+   * @throws IOException File not found or IO exception or when writing to out fails
+   * @throws NullPointerException If varname or out is null
+   */
+  public void subst(final VarName varname, final Appendable out) throws IOException
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    Objects.requireNonNull(out, "out"); //$NON-NLS-1$
+    doSubst(varname.getName(), out);
+   }
+
+
+  /**
+   * Substitute variable with its content and handle undefined template variables within the same pass.
+   *
+   * Same result as finish(subst(varname)), but without the intermediate substituted string and without a second scan.
+   *
+   * @param varname Variable name
+   * @return Replaced and finished variable content or empty string
+   * @throws IOException File not found or IO exception
+   * @throws NullPointerException If varname is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public String substFinish(final String varname) throws IOException
+   {
+    final StringBuilder result = new StringBuilder();
+    substFinish(varname, result);
+    return result.toString();
+   }
+
+
+  /**
+   * Substitute variable with its content and handle undefined template variables within the same pass.
+   *
+   * @param varname Variable name
+   * @return Replaced and finished variable content or empty string
+   * @throws IOException File not found or IO exception
+   * @throws NullPointerException If varname is null
+   * @see #substFinish(String)
+   */
+  public String substFinish(final VarName varname) throws IOException
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    final StringBuilder result = new StringBuilder();
+    doSubstFinish(varname.getName(), result);
+    return result.toString();
+   }
+
+
+  /**
+   * Substitute variable with its content and handle undefined template variables within the same pass directly into an output.
+   *
+   * @param varname Variable name
+   * @param out Output to write the replaced and finished variable content to, nothing will be written for an unknown variable
+   * @throws IOException File not found or IO exception or when writing to out fails
+   * @throws NullPointerException If varname or out is null
+   * @throws IllegalArgumentException If varname is empty
+   * @see #substFinish(String)
+   */
+  public void substFinish(final String varname, final Appendable out) throws IOException
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    Objects.requireNonNull(out, "out"); //$NON-NLS-1$
+    if (varname.isEmpty())
+     {
+      throw new IllegalArgumentException(VARNAME_IS_EMPTY);
+     }
+    if (varname.length() > MAX_VARNAME_SIZE)
+     {
+      throw new IllegalArgumentException(VARNAME_IS_TO_LONG);
+     }
+    if (!VarName.isValid(varname))
+     {
+      throw new IllegalArgumentException(VARNAME_DOES_NOT_MATCH_NAME_PATTERN);
+     }
+    doSubstFinish(varname, out);
+   }
+
+
+  /**
+   * Substitute variable with its content and handle undefined template variables within the same pass directly into an output.
+   *
+   * @param varname Variable name
+   * @param out Output to write the replaced and finished variable content to, nothing will be written for an unknown variable
+   * @throws IOException File not found or IO exception or when writing to out fails
+   * @throws NullPointerException If varname or out is null
+   * @see #substFinish(String)
+   */
+  public void substFinish(final VarName varname, final Appendable out) throws IOException
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    Objects.requireNonNull(out, "out"); //$NON-NLS-1$
+    doSubstFinish(varname.getName(), out);
+   }
+
+
+  /**
+   * Substitute variable with its content and handle undefined template variables within the same pass without name checks.
+   *
+   * The rendered segments are written through an UndefinedFilter, so that references are handled while they are written.
+   *
+   * @param varname Variable name (already checked)
+   * @param out Output to write to
+   * @throws IOException File not found or IO exception or when writing to out fails
+   */
+  private void doSubstFinish(final String varname, final Appendable out) throws IOException
+   {
+    final UndefinedFilter filter = new UndefinedFilter(this.unknowns, out);
+    doSubst(varname, template -> template.render(this::lookupSlot, filter));
+    /* final long length = */ filter.finish();
+   }
+
+
+  /**
+   * Commit subst event if a recording is running.
+   *
+   * @param event Ended subst event
+   * @param varname Variable name
+   * @param template Compiled template
+   * @param length Rendered length
+   */
+  static void commit(final SubstEvent event, final String varname, final CompiledTemplate template, final int length)
+   {
+    if (event.shouldCommit())
+     {
+      event.template = varname;
+      event.inputSize = template.getSource().length();
+      event.outputSize = length;
+      event.variableCount = template.getVariableCount();
+      event.commit();
+     }
+   }
+
+
+  /**
+   * Substitute variable with its content and write the result directly to an output without name checks.
+   *
+   * @param varname Variable name (already checked)
+   * @param out Output to write the replaced variable content to
+   * @throws IOException File not found or IO exception or when writing to out fails
+   */
+  private void doSubst(final String varname, final Appendable out) throws IOException
+   {
+    doSubst(varname, template -> template.render(this::lookupSlot, out));
+   }
+
+
+  /**
+   * Substitute variable with its content and write the result to a sink without name checks.
+   *
+   * @param varname Variable name (already checked)
+   * @param sink Sink to render the compiled template to
+   * @throws IOException File not found or IO exception or when writing fails
+   */
+  private void doSubst(final String varname, final CompiledTemplate.Sink<IOException> sink) throws IOException
+   {
+    if (!loadfile(varname))
+     {
+      return;
+     }
+    final CompiledTemplate template = getCompiled(varname, doGetVar(varname));
+    final boolean metrics = TemplateMetrics.enabled();
+    final long start = metrics ? System.nanoTime() : 0L;
+    final SubstEvent event = new SubstEvent();
+    event.begin();
+    final int length = sink.render(template);
+    event.end();
+    if (metrics)
+     {
+      TemplateMetrics.getInstance().substituted(varname, System.nanoTime() - start, length);
+     }
+    commit(event, varname, template, length);
+   }
+
+
+  /**
+   * Substitute variable with its content and write the result UTF-8 encoded directly to a stream.
+   *
+   * The literal template text is written pre-encoded, so that only the variable values are encoded per call.
+   * The stream will be flushed, but not closed.
+   *
+   * @param varname Variable name
+   * @param out Stream to write the replaced variable content to
+   * @throws IOException File not found or IO exception or when writing to out fails
+   * @throws NullPointerException If varname or out is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public void substBytes(final String varname, final OutputStream out) throws IOException
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    Objects.requireNonNull(out, "out"); //$NON-NLS-1$
+    if (varname.isEmpty())
+     {
+      throw new IllegalArgumentException(VARNAME_IS_EMPTY);
+     }
+    if (varname.length() > MAX_VARNAME_SIZE)
+     {
+      throw new IllegalArgumentException(VARNAME_IS_TO_LONG);
+     }
+    if (!VarName.isValid(varname))
+     {
+      throw new IllegalArgumentException(VARNAME_DOES_NOT_MATCH_NAME_PATTERN);
+     }
+    doSubst(varname, template -> template.render(this::lookupSlot, out));
+    out.flush();
+   }
+
+
+  /**
+   * Substitute variable with its content and write the result UTF-8 encoded directly to a stream.
+   *
+   * The stream will be flushed, but not closed.
+   *
+   * @param varname Variable name
+   * @param out Stream to write the replaced variable content to
+   * @throws IOException File not found or IO exception or when writing to out fails
+   * @throws NullPointerException If varname or out is null
+   * @see #substBytes(String, OutputStream)
+   */
+  public void substBytes(final VarName varname, final OutputStream out) throws IOException
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    Objects.requireNonNull(out, "out"); //$NON-NLS-1$
+    doSubst(varname.getName(), template -> template.render(this::lookupSlot, out));
+    out.flush();
+   }
+
+
+  /**
+   * Substitute variable with its content and write the result UTF-8 encoded directly to a buffer.
+   *
+   * The literal template text is written pre-encoded, so that only the variable values are encoded per call.
+   * The buffer will not be changed when the result does not fit into its remaining space.
+   *
+   * @param varname Variable name
+   * @param out Buffer to write the replaced variable content to, nothing will be written for an unknown variable
+   * @throws IOException File not found or IO exception
+   * @throws NullPointerException If varname or out is null
+   * @throws IllegalArgumentException If varname is empty
+   * @throws java.nio.BufferOverflowException If the remaining buffer space is to small
+   * @throws java.nio.ReadOnlyBufferException If out is read only
+   */
+  public void substBytes(final String varname, final ByteBuffer out) throws IOException
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    Objects.requireNonNull(out, "out"); //$NON-NLS-1$
+    if (varname.isEmpty())
+     {
+      throw new IllegalArgumentException(VARNAME_IS_EMPTY);
+     }
+    if (varname.length() > MAX_VARNAME_SIZE)
+     {
+      throw new IllegalArgumentException(VARNAME_IS_TO_LONG);
+     }
+    if (!VarName.isValid(varname))
+     {
+      throw new IllegalArgumentException(VARNAME_DOES_NOT_MATCH_NAME_PATTERN);
+     }
+    doSubst(varname, template -> template.render(this::lookupSlot, out));
+   }
+
+
+  /**
+   * Substitute variable with its content and write the result UTF-8 encoded directly to a buffer.
+   *
+   * @param varname Variable name
+   * @param out Buffer to write the replaced variable content to, nothing will be written for an unknown variable
+   * @throws IOException File not found or IO exception
+   * @throws NullPointerException If varname or out is null
+   * @throws java.nio.BufferOverflowException If the remaining buffer space is to small
+   * @throws java.nio.ReadOnlyBufferException If out is read only
+   * @see #substBytes(String, ByteBuffer)
+   */
+  public void substBytes(final VarName varname, final ByteBuffer out) throws IOException
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    Objects.requireNonNull(out, "out"); //$NON-NLS-1$
+    doSubst(varname.getName(), template -> template.render(this::lookupSlot, out));
+   }
+
+
+  /**
+   * Substitute variable with its content asynchronously.
+   *
+   * Loading of template files and the substitution happen on the executor, so that the calling thread will not be blocked.
+   * The name checks happen on the calling thread.
+   *
+   * @param varname Variable name
+   * @param executor Executor to run the substitution on
+   * @return Future with the replaced variable content or empty string, completed exceptionally with an IOException when loading fails
+   * @throws NullPointerException If varname or executor is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public CompletableFuture<String> substAsync(final String varname, final Executor executor)
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    Objects.requireNonNull(executor, "executor"); //$NON-NLS-1$
+    if (varname.isEmpty())
+     {
+      throw new IllegalArgumentException(VARNAME_IS_EMPTY);
+     }
+    if (varname.length() > MAX_VARNAME_SIZE)
+     {
+      throw new IllegalArgumentException(VARNAME_IS_TO_LONG);
+     }
+    if (!VarName.isValid(varname))
+     {
+      throw new IllegalArgumentException(VARNAME_DOES_NOT_MATCH_NAME_PATTERN);
+     }
+    final CompletableFuture<String> result = new CompletableFuture<>();
+    executor.execute(() ->
+     {
+      try
+       {
+        result.complete(doSubst(varname));
+       }
+      catch (final IOException | RuntimeException e)
+       {
+        result.completeExceptionally(e);
+       }
+     }
+    );
+    return result;
+   }
+
+
+  /**
+   * Substitute variable with its content asynchronously.
+   *
+   * Uses virtual threads on Java 21 and later, otherwise the common fork join pool.
+   *
+   * @param varname Variable name
+   * @return Future with the replaced variable content or empty string, completed exceptionally with an IOException when loading fails
+   * @throws NullPointerException If varname is null
+   * @throws IllegalArgumentException If varname is empty
+   * @see #substAsync(String, Executor)
+   */
+  public CompletableFuture<String> substAsync(final String varname)
+   {
+    return substAsync(varname, AsyncExecutors.getDefault());
+   }
+
+
+  /**
+   * Parse a variable and replace all variables within it by their content.
+   *
+   * @param target Target for parsing operation
+   * @param varname Parse the content of this variable
+   * @param append true for appending blocks to target, otherwise false for replacing targets content
+   * @return Variables content after parsing
+   * @throws IOException File not found or IO exception
+   * @throws NullPointerException If target or varname is null
+   * @throws IllegalArgumentException If target or varname is empty
+   */
+  public String parse(final String target, final String varname, final boolean append) throws IOException
+   {
+    checkParseNames(target, varname);
+    return doParse(target, varname, append);
+   }
+
+
+  /**
+   * Parse a variable and replace all variables within it by their content.
+   *
+   * @param target Target for parsing operation
+   * @param varname Parse the content of this variable
+   * @param append true for appending blocks to target, otherwise false for replacing targets content
+   * @return Variables content after parsing
+   * @throws IOException File not found or IO exception
+   * @throws NullPointerException If target or varname is null
+   */
+  public String parse(final VarName target, final VarName varname, final boolean append) throws IOException
+   {
+    Objects.requireNonNull(target, "target"); //$NON-NLS-1$
+    Objects.requireNonNull(varname, VARNAME);
+    return doParse(target.getName(), varname.getName(), append);
+   }
+
+
+  /**
+   * Parse a variable and replace all variables within it by their content without name checks.
+   *
+   * @param target Target for parsing operation (already checked)
+   * @param varname Parse the content of this variable (already checked)
+   * @param append true for appending blocks to target, otherwise false for replacing targets content
+   * @return Variables content after parsing
+   * @throws IOException File not found or IO exception
+   */
+  private String doParse(final String target, final String varname, final boolean append) throws IOException
+   {
+    if (TemplateMetrics.enabled())
+     {
+      TemplateMetrics.getInstance().parsed();
+     }
+    final String str = doSubst(varname);
+    if (append)
+     {
+      appendVar(target, str);
+     }
+    else
+     {
+      doSetVar(target, str);
+     }
+    return str;
+   }
+
+
+  /**
+   * Parse a variable and replace all variables within it by their content.
+   *
+   * Don't append
+   *
+   * @param target Target for parsing operation
+   * @param varname Parse the content of this variable
+   * @return Variables content after parsing
+   * @throws IOException File not found or IO exception
+   * @throws NullPointerException If target or varname is null
+   * @throws IllegalArgumentException If target or varname is empty
+   */
+  public String parse(final String target, final String varname) throws IOException
+   {
+    return parse(target, varname, false);
+   }
+
+
+  /**
+   * Parse a variable and replace all variables within it by their content.
+   *
+   * Don't append
+   *
+   * @param target Target for parsing operation
+   * @param varname Parse the content of this variable
+   * @return Variables content after parsing
+   * @throws IOException File not found or IO exception
+   * @throws NullPointerException If target or varname is null
+   */
+  public String parse(final VarName target, final VarName varname) throws IOException
+   {
+    return parse(target, varname, false);
+   }
+
+
+  /**
+   * Parse a variable asynchronously and replace all variables within it by their content.
+   *
+   * Loading of template files, the substitution and storing the result in target happen on the executor.
+   * The name checks happen on the calling thread.
+   *
+   * @param target Target for parsing operation
+   * @param varname Parse the content of this variable
+   * @param append true for appending blocks to target, otherwise false for replacing targets content
+   * @param executor Executor to run the parse operation on
+   * @return Future with the variables content after parsing, completed exceptionally with an IOException when loading fails
+   * @throws NullPointerException If target, varname or executor is null
+   * @throws IllegalArgumentException If target or varname is empty
+   */
+  public CompletableFuture<String> parseAsync(final String target, final String varname, final boolean append, final Executor executor)
+   {
+    checkParseNames(target, varname);
+    Objects.requireNonNull(executor, "executor"); //$NON-NLS-1$
+    final CompletableFuture<String> result = new CompletableFuture<>();
+    executor.execute(() ->
+     {
+      try
+       {
+        result.complete(doParse(target, varname, append));
+       }
+      catch (final IOException | RuntimeException e)
+       {
+        result.completeExceptionally(e);
+       }
+     }
+    );
+    return result;
    }
 
 
   /**
-   * Unset template variable.
+   * Parse a variable asynchronously and replace all variables within it by their content.
    *
-   * @param varname Template variable name
-   * @throws NullPointerException If varname is null
-   * @throws IllegalArgumentException If varname is empty
+   * Uses virtual threads on Java 21 and later, otherwise the common fork join pool.
+   *
+   * @param target Target for parsing operation
+   * @param varname Parse the content of this variable
+   * @param append true for appending blocks to target, otherwise false for replacing targets content
+   * @return Future with the variables content after parsing, completed exceptionally with an IOException when loading fails
+   * @throws NullPointerException If target or varname is null
+   * @throws IllegalArgumentException If target or varname is empty
+   * @see #parseAsync(String, String, boolean, Executor)
    */
-  public void unsetVar(final String varname)
+  public CompletableFuture<String> parseAsync(final String target, final String varname, final boolean append)
    {
-    Objects.requireNonNull(varname, VARNAME);
-    if (varname.isEmpty())
-     {
-      throw new IllegalArgumentException(VARNAME_IS_EMPTY);
-     }
-    if (varname.length() > MAX_VARNAME_SIZE)
-     {
-      throw new IllegalArgumentException(VARNAME_IS_TO_LONG);
-     }
-    if (!varname.matches(VARNAME_PATTERN))
-     {
-      throw new IllegalArgumentException(VARNAME_DOES_NOT_MATCH_NAME_PATTERN);
-     }
-    /* String value = */ this.tempVars.remove(varname);
+    return parseAsync(target, varname, append, AsyncExecutors.getDefault());
    }
 
 
   /**
-   * Set template block (cut it from parent template and replace it with a variable).
+   * Parse a block once for every row and append the results to a target.
    *
-   * Used for repeatable blocks
+   * Same result as setting all values of a row with setVar and calling parse(target, varname, true) for every row,
+   * but the block is compiled only once and the row values are only used while rendering their row.
+   * So variables other than target are not changed. Variables that are not part of a row are taken from this engine.
+   * Values are converted with toString(), null values are handled as empty strings.
    *
-   * @param parent Name of parent template variable
-   * @param varname Name of template block
-   * @param name Name of variable in which the block will be placed - if empty will be the same as varname
-   * @return true on sucess otherwise false
-   * @throws IOException IO exception
-   * @throws IllegalStateException When no block with varname is found.
-   * @throws NullPointerException If parent or varname is null
-   * @throws IllegalArgumentException If parent or varname is empty
+   * @param target Target to append the parsed rows to
+   * @param varname Block to parse for every row
+   * @param rows Rows with variable values by name
+   * @throws IOException File not found or IO exception
+   * @throws NullPointerException If target, varname or rows is null
+   * @throws IllegalArgumentException If target or varname is empty or the result is to large
    */
-  public boolean setBlock(final String parent, final String varname, final String name) throws IOException
+  public void parseRows(final String target, final String varname, final Iterable<? extends Map<String, ?>> rows) throws IOException
    {
-    Objects.requireNonNull(parent, "parent"); //$NON-NLS-1$
-    Objects.requireNonNull(varname, VARNAME);
-    Objects.requireNonNull(name, "name"); //$NON-NLS-1$
-    if (parent.isEmpty() || varname.isEmpty())
-     {
-      throw new IllegalArgumentException("parent or varname is empty"); //$NON-NLS-1$
-     }
-    if ((parent.length() > MAX_VARNAME_SIZE) || (varname.length() > MAX_VARNAME_SIZE) || (name.length() > MAX_VARNAME_SIZE))
+    Objects.requireNonNull(rows, "rows"); //$NON-NLS-1$
+    checkParseNames(target, varname);
+    doParseRows(target, getRowTemplate(varname), rows.iterator());
+   }
+
+
+  /**
+   * Parse a block once for every row of a stream and append the results to a target.
+   *
+   * Like parseRows(String, String, Iterable), but a parallel stream will be rendered in parallel.
+   * The rows are appended in the encounter order of the stream.
+   *
+   * @param target Target to append the parsed rows to
+   * @param varname Block to parse for every row
+   * @param rows Rows with variable values by name
+   * @throws IOException File not found or IO exception
+   * @throws NullPointerException If target, varname or rows is null
+   * @throws IllegalArgumentException If target or varname is empty or the result is to large
+   * @see #parseRows(String, String, Iterable)
+   */
+  public void parseRows(final String target, final String varname, final Stream<? extends Map<String, ?>> rows) throws IOException
+   {
+    Objects.requireNonNull(rows, "rows"); //$NON-NLS-1$
+    checkParseNames(target, varname);
+    final CompiledTemplate template = getRowTemplate(varname);
+    if (!rows.isParallel() || template.references(target))
      {
-      throw new IllegalArgumentException("parent, varname or name is to long"); //$NON-NLS-1$
+      doParseRows(target, template, rows.iterator());
+      return;
      }
-    if (!parent.matches(VARNAME_PATTERN) || !varname.matches(VARNAME_PATTERN) || (!name.isEmpty() && (!name.matches(VARNAME_PATTERN))))
+    appendVar(target, rows.map(row -> template.render(slot -> lookupRow(row, slot))).collect(Collectors.joining()));
+   }
+
+
+  /**
+   * Check target and varname of a parse operation.
+   *
+   * @param target Target for parsing operation
+   * @param varname Parse the content of this variable
+   * @throws NullPointerException If target or varname is null
+   * @throws IllegalArgumentException If target or varname is empty, to long or does not match the name pattern
+   */
+  private static void checkParseNames(final String target, final String varname)
+   {
+    Objects.requireNonNull(target, "target"); //$NON-NLS-1$
+    Objects.requireNonNull(varname, VARNAME);
+    if (target.isEmpty() || varname.isEmpty())
      {
-      throw new IllegalArgumentException("parent, varname or name does not match name pattern"); //$NON-NLS-1$
+      throw new IllegalArgumentException("target or varname is empty"); //$NON-NLS-1$
      }
-    if (!loadfile(parent))
+    if ((target.length() > MAX_VARNAME_SIZE) || (varname.length() > MAX_VARNAME_SIZE))
      {
-      return false;
+      throw new IllegalArgumentException("target or varname is to long"); //$NON-NLS-1$
      }
-    String internName = name;
-    if ("".equals(internName)) //$NON-NLS-1$
+    if (!VarName.isValid(target) || !VarName.isValid(varname))
      {
-      internName = varname;
+      throw new IllegalArgumentException("target or varname does not match name pattern"); //$NON-NLS-1$
      }
-    final Pattern pattern = Pattern.compile("<!--\\s+BEGIN " + varname + "\\s+-->(.*)<!--\\s+END " + varname + "\\s+-->", Pattern.DOTALL | Pattern.MULTILINE); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-    final Matcher matcher = pattern.matcher(getVar(parent));
-    final String str = matcher.replaceFirst("{" + internName + "}"); //$NON-NLS-1$ //$NON-NLS-2$
-    setVar(varname, matcher.group(1));
-    setVar(parent, str);
-    return true;
    }
 
 
   /**
-   * Set template block (cut it from parent template and replace it with a variable).
+   * Get compiled block for row rendering.
    *
-   * Used for on/off blocks
+   * Rows are looked up by name, so all names of the block have to be known to the SymbolTable.
    *
-   * @param parent Name of parent template variable
-   * @param varname Name of template block
-   * @return true on sucess otherwise false
-   * @throws IOException IO exception
-   * @throws IllegalStateException When no block with varname is found.
-   * @throws NullPointerException If parent or varname is null
-   * @throws IllegalArgumentException If parent or varname is empty
+   * @param varname Block variable name (already checked)
+   * @return Compiled block, empty for an unknown variable
+   * @throws IOException File not found or IO exception
    */
-  public boolean setBlock(final String parent, final String varname) throws IOException
+  private CompiledTemplate getRowTemplate(final String varname) throws IOException
    {
-    return setBlock(parent, varname, ""); //$NON-NLS-1$
+    /* final boolean success = */ loadfile(varname);
+    final CompiledTemplate template = getCompiled(varname, doGetVar(varname));
+    final CompiledTemplate result = template.intern();
+    if (result != template) // NOPMD Identity by intention
+     {
+      this.compiled.put(varname, result);
+     }
+    return result;
    }
 
 
   /**
-   * Replace variables old version.
+   * Render rows sequentially and append them to a target.
    *
-   * @param block Template block
-   * @return Template/Block with replaced variables
+   * @param target Target variable name (already checked)
+   * @param template Compiled block
+   * @param rows Rows with variable values by name
+   * @throws IOException IO exception
+   * @throws IllegalArgumentException If the result is to large
    */
-  /*
-  private String replaceVarsOld(String block)
+  private void doParseRows(final String target, final CompiledTemplate template, final Iterator<? extends Map<String, ?>> rows) throws IOException
    {
-    assert (block != null) && !block.isEmpty();
-    // loop over all known variables an replace them
-    if (!this.tempVars.isEmpty())
+    if (template.references(target)) // Every row could see the rows before
+     {
+      while (rows.hasNext())
+       {
+        final Map<String, ?> row = rows.next();
+        appendVar(target, template.render(slot -> lookupRow(row, slot)));
+       }
+      return;
+     }
+    final StringBuilder out = new StringBuilder();
+    while (rows.hasNext())
      {
-      final Set<Entry<String, String>> tempVarsSet = this.tempVars.entrySet();
-      final Iterator<Entry<String, String>> iter = tempVarsSet.iterator();
-      while (iter.hasNext())
+      final Map<String, ?> row = rows.next();
+      template.render(slot -> lookupRow(row, slot), out);
+      if (out.length() > MAX_TEMPLATE_SIZE)
        {
-        final Map.Entry<String, String> mapEntry = iter.next();
-        // convert into regexp (special char filter)
-        block = Pattern.compile("\\{" + mapEntry.getKey() + "\\}").matcher(block).replaceAll(mapEntry.getValue()); //$NON-NLS-1$ //$NON-NLS-2$
+        throw new IllegalArgumentException("value is to large"); //$NON-NLS-1$
        }
      }
-    return block;
+    appendVar(target, out.toString());
    }
-  */
 
 
   /**
-   * Replace variables new version.
+   * Lookup template variable value within a row first.
    *
-   * @param block Template block
-   * @return Template/Block with replaced variables
+   * @param row Row with variable values by name
+   * @param slot Template variable slot
+   * @return Template variable value or null if undefined
    */
-  private String replaceVarsNew(final String block)
+  private String lookupRow(final Map<String, ?> row, final int slot)
    {
-    assert (block != null) && !block.isEmpty() && (block.length() < MAX_TEMPLATE_SIZE);
-    // assert block.matches("^.+$")
-    // Get variable names to replace from varname
-    final Matcher matcherTemplate = Pattern.compile("\\{([^{^}\n\r\t :]+)\\}").matcher(block); //$NON-NLS-1$
-    final Set<String> varsSetTemplate = new TreeSet<>();
-    while (matcherTemplate.find())
+    final String name = SymbolTable.getInstance().getName(slot);
+    final Object value = row.get(name);
+    if (value != null)
      {
-      final String varnameTemplate = block.substring(matcherTemplate.start() + 1, matcherTemplate.end() - 1);
-      if (this.tempVars.containsKey(varnameTemplate))
-       {
-        varsSetTemplate.add(varnameTemplate);
-       }
-     }
-    String resBlock = block;
-    for (final String varName : varsSetTemplate)
-     {
-      resBlock = resBlock.replaceAll("\\{" + varName + "\\}", getVar(varName)); //$NON-NLS-1$ //$NON-NLS-2$
+      return value.toString();
      }
-    return resBlock;
+    return row.containsKey(name) ? "" : lookupSlot(slot); //$NON-NLS-1$
    }
 
 
   /**
-   * Substitute variable with its content.
+   * Run parse jobs and render independent jobs concurrently.
    *
-   * @param varname Variable name
-   * @return Replaced variable content or empty string
+   * The result is the same as calling parse(target, varname, append) for all jobs in the given order.
+   * Jobs are grouped into levels: a job is placed behind all earlier jobs whose target it reads
+   * and not before earlier jobs that read or write its own target.
+   * All jobs of a level are rendered concurrently on the executor,
+   * afterwards their results are stored in job order, so that the output is deterministic.
+   *
+   * @param jobs Parse jobs in sequential order
+   * @param executor Executor to render the jobs of a level on
+   * @return Variables contents after parsing in job order
    * @throws IOException File not found or IO exception
-   * @throws NullPointerException If varname is null
-   * @throws IllegalArgumentException If varname is empty
+   * @throws NullPointerException If jobs, one of the jobs or executor is null
    */
-  public String subst(final String varname) throws IOException
+  public List<String> parse(final List<ParseJob> jobs, final Executor executor) throws IOException
    {
-    Objects.requireNonNull(varname, VARNAME);
-    if (varname.isEmpty())
+    Objects.requireNonNull(jobs, "jobs"); //$NON-NLS-1$
+    Objects.requireNonNull(executor, "executor"); //$NON-NLS-1$
+    final int[] levels = new int[jobs.size()];
+    final CompiledTemplate[] templates = new CompiledTemplate[jobs.size()];
+    int barrier = 0;
+    int maxLevel = -1;
+    for (int j = 0; j < jobs.size(); ++j)
      {
-      throw new IllegalArgumentException(VARNAME_IS_EMPTY);
+      final ParseJob job = Objects.requireNonNull(jobs.get(j), "job"); //$NON-NLS-1$
+      final String varname = job.getVarname().getName();
+      final String target = job.getTarget().getName();
+      boolean readsTarget = false;
+      for (int i = 0; i < j; ++i)
+       {
+        readsTarget |= varname.equals(jobs.get(i).getTarget().getName());
+       }
+      int level = barrier;
+      if (readsTarget) // Template is the result of an earlier job, so its references are unknown until then
+       {
+        level = maxLevel + 1;
+        barrier = level;
+       }
+      else if (loadfile(varname))
+       {
+        templates[j] = getCompiled(varname, doGetVar(varname));
+       }
+      for (int i = 0; i < j; ++i)
+       {
+        final String earlierTarget = jobs.get(i).getTarget().getName();
+        if ((templates[j] != null) && templates[j].references(earlierTarget))
+         {
+          level = Math.max(level, levels[i] + 1); // Read after write
+         }
+        if (target.equals(earlierTarget) || target.equals(jobs.get(i).getVarname().getName()) || ((templates[i] != null) && templates[i].references(target)))
+         {
+          level = Math.max(level, levels[i]); // Write after write or write after read
+         }
+       }
+      levels[j] = level;
+      maxLevel = Math.max(maxLevel, level);
      }
-    if (varname.length() > MAX_VARNAME_SIZE)
+    final String[] results = new String[jobs.size()];
+    for (int level = 0; level <= maxLevel; ++level)
      {
-      throw new IllegalArgumentException(VARNAME_IS_TO_LONG);
+      final List<CompletableFuture<String>> futures = new ArrayList<>();
+      final List<Integer> indexes = new ArrayList<>();
+      for (int j = 0; j < jobs.size(); ++j)
+       {
+        if (levels[j] == level)
+         {
+          final String varname = jobs.get(j).getVarname().getName();
+          futures.add(CompletableFuture.supplyAsync(() -> substUnchecked(varname), executor));
+          indexes.add(j);
+         }
+       }
+      for (int k = 0; k < futures.size(); ++k)
+       {
+        final int j = indexes.get(k);
+        results[j] = join(futures.get(k));
+        final ParseJob job = jobs.get(j);
+        if (job.isAppend())
+         {
+          appendVar(job.getTarget().getName(), results[j]);
+         }
+        else
+         {
+          doSetVar(job.getTarget().getName(), results[j]);
+         }
+       }
      }
-    if (!varname.matches(VARNAME_PATTERN))
+    return Collections.unmodifiableList(Arrays.asList(results));
+   }
+
+
+  /**
+   * Run parse jobs and render independent jobs concurrently on the common fork join pool.
+   *
+   * @param jobs Parse jobs in sequential order
+   * @return Variables contents after parsing in job order
+   * @throws IOException File not found or IO exception
+   * @throws NullPointerException If jobs or one of the jobs is null
+   * @see #parse(List, Executor)
+   */
+  public List<String> parse(final List<ParseJob> jobs) throws IOException
+   {
+    return parse(jobs, ForkJoinPool.commonPool());
+   }
+
+
+  /**
+   * Substitute variable with its content without name checks for use within lambdas.
+   *
+   * @param varname Variable name (already checked)
+   * @return Replaced variable content or empty string
+   * @throws UncheckedIOException File not found or IO exception
+   */
+  private String substUnchecked(final String varname)
+   {
+    try
      {
-      throw new IllegalArgumentException(VARNAME_DOES_NOT_MATCH_NAME_PATTERN);
+      return doSubst(varname);
      }
-    if (!loadfile(varname))
+    catch (final IOException e)
      {
-      return ""; //$NON-NLS-1$
+      throw new UncheckedIOException(e);
      }
-    // return replaceVarsOld(getVar(varname));
-    return replaceVarsNew(getVar(varname));
    }
 
 
   /**
-   * Parse a variable and replace all variables within it by their content.
+   * Wait for a render result.
    *
-   * @param target Target for parsing operation
-   * @param varname Parse the content of this variable
-   * @param append true for appending blocks to target, otherwise false for replacing targets content
-   * @return Variables content after parsing
-   * @throws IOException File not found or IO exception
-   * @throws NullPointerException If target or varname is null
-   * @throws IllegalArgumentException If target or varname is empty
+   * @param future Render result
+   * @return Rendered content
+   * @throws IOException File not found or IO exception during rendering
    */
-  public String parse(final String target, final String varname, final boolean append) throws IOException
+  private static String join(final CompletableFuture<String> future) throws IOException
    {
-    Objects.requireNonNull(target, "target"); //$NON-NLS-1$
-    Objects.requireNonNull(varname, VARNAME);
-    if (target.isEmpty() || varname.isEmpty())
-     {
-      throw new IllegalArgumentException("target or varname is empty"); //$NON-NLS-1$
-     }
-    if ((target.length() > MAX_VARNAME_SIZE) || (varname.length() > MAX_VARNAME_SIZE))
+    try
      {
-      throw new IllegalArgumentException("target or varname is to long"); //$NON-NLS-1$
+      return future.join();
      }
-    if (!target.matches(VARNAME_PATTERN) || !varname.matches(VARNAME_PATTERN))
+    catch (final CompletionException e)
      {
-      throw new IllegalArgumentException("target or varname does not match name pattern"); //$NON-NLS-1$
+      if (e.getCause() instanceof UncheckedIOException)
+       {
+        throw ((UncheckedIOException)e.getCause()).getCause();
+       }
+      if (e.getCause() instanceof RuntimeException)
+       {
+        throw (RuntimeException)e.getCause();
+       }
+      throw e;
      }
-    final String str = subst(varname);
-    setVar(target, (append ? getVar(target) : "") + str); //$NON-NLS-1$
-    return str;
    }
 
 
   /**
-   * Parse a variable and replace all variables within it by their content.
-   *
-   * Don't append
+   * Load all template files and compile all template variables.
    *
-   * @param target Target for parsing operation
-   * @param varname Parse the content of this variable
-   * @return Variables content after parsing
+   * @return Compiled templates by variable name
    * @throws IOException File not found or IO exception
-   * @throws NullPointerException If target or varname is null
-   * @throws IllegalArgumentException If target or varname is empty
    */
-  public String parse(final String target, final String varname) throws IOException
+  Map<String, CompiledTemplate> compileAll() throws IOException
    {
-    return parse(target, varname, false);
+    for (final String varname : this.files.keySet())
+     {
+      /* final boolean success = */ loadfile(varname);
+     }
+    for (final String varname : new ArrayList<>(this.lazyVars.keySet()))
+     {
+      /* final boolean success = */ loadfile(varname);
+     }
+    flushAll();
+    final Map<String, CompiledTemplate> result = new HashMap<>();
+    for (final Entry<String, String> entry : this.tempVars.entrySet())
+     {
+      result.put(entry.getKey(), getCompiled(entry.getKey(), entry.getValue()).intern());
+     }
+    return result;
    }
 
 
@@ -744,7 +2517,8 @@ public final class TemplateEngine
    */
   public List<String> getVars()
    {
-    if (this.tempVars.isEmpty())
+    flushAll();
+    if (this.tempVars.isEmpty() && this.lazyVars.isEmpty())
      {
       return Collections.emptyList();
      }
@@ -753,6 +2527,7 @@ public final class TemplateEngine
      {
       result.add(entry.getKey()); // entry.getValue();
      }
+    result.addAll(this.lazyVars.keySet());
     return Collections.unmodifiableList(result);
    }
 
@@ -777,22 +2552,50 @@ public final class TemplateEngine
      {
       throw new IllegalArgumentException(VARNAME_IS_TO_LONG);
      }
-    if (!varname.matches(VARNAME_PATTERN))
+    if (!VarName.isValid(varname))
      {
       throw new IllegalArgumentException(VARNAME_DOES_NOT_MATCH_NAME_PATTERN);
      }
+    return doGetUndefined(varname);
+   }
+
+
+  /**
+   * Get list with all undefined template variables.
+   *
+   * @param varname Variable to parse for undefined variables
+   * @return List with undefined template variables names
+   * @throws IOException  File not found or IO exception
+   * @throws NullPointerException If varname is null
+   */
+  public List<String> getUndefined(final VarName varname) throws IOException
+   {
+    Objects.requireNonNull(varname, VARNAME);
+    return doGetUndefined(varname.getName());
+   }
+
+
+  /**
+   * Get list with all undefined template variables without name checks.
+   *
+   * @param varname Variable to parse for undefined variables (already checked)
+   * @return List with undefined template variables names
+   * @throws IOException  File not found or IO exception
+   */
+  private List<String> doGetUndefined(final String varname) throws IOException
+   {
     if (!loadfile(varname))
      {
       return Collections.emptyList();
      }
-    final Pattern pattern = Pattern.compile("\\{([^ \\t\\r\\n}]+)\\}"); //$NON-NLS-1$
-    final Matcher matcher = pattern.matcher(getVar(varname));
+    flushAll();
+    final Matcher matcher = UNDEFINED_PATTERN.matcher(doGetVar(varname));
     boolean result = matcher.find();
     final List<String> undefvars = new ArrayList<>();
     while (result)
      {
       final String vname = matcher.group(1);
-      if (!this.tempVars.containsKey(vname) && !undefvars.contains(vname))
+      if (!this.tempVars.containsKey(vname) && !this.lazyVars.containsKey(vname) && !undefvars.contains(vname))
        {
         undefvars.add(vname);
        }
@@ -822,23 +2625,62 @@ public final class TemplateEngine
       throw new IllegalArgumentException("template is to large"); //$NON-NLS-1$
      }
     // if (!template.matches("^.+$"))
-    String result = template;
-    final Pattern pattern = Pattern.compile("\\{([^ \\t\\r\\n}]+)\\}"); //$NON-NLS-1$
-    final Matcher matcher = pattern.matcher(result);
-    switch (this.unknowns)
-     {
-      case KEEP:
-        break;
-      case REMOVE:
-        result = matcher.replaceAll(""); //$NON-NLS-1$
-        break;
-      case COMMENT:
-        result = matcher.replaceAll("<!-- Template variable '$1' undefined -->"); //$NON-NLS-1$
-        break;
-      default: // For the case that enum HandleUndefined will be extended!
-        throw new AssertionError(this.unknowns);
+    if (this.unknowns == HandleUndefined.KEEP)
+     {
+      UndefinedFilter.commitKept(template);
+      return template;
      }
-    return result;
+    final StringBuilder result = new StringBuilder(template.length());
+    try
+     {
+      writeFinished(template, this.unknowns, result);
+     }
+    catch (final IOException e)
+     {
+      throw new AssertionError(e); // StringBuilder does not throw IOExceptions
+     }
+    return result.toString();
+   }
+
+
+  /**
+   * Handle undefined template variables after parsing has happened and write the result directly to an output.
+   *
+   * @param template Template to parse for unknown variables
+   * @param out Output to write the modified template to, as specified by the "unknowns" setting
+   * @throws IOException When writing to out fails
+   * @throws NullPointerException If template or out is null
+   * @throws IllegalArgumentException If template is empty
+   */
+  public void finish(final String template, final Appendable out) throws IOException
+   {
+    Objects.requireNonNull(template, TEMPLATE);
+    Objects.requireNonNull(out, "out"); //$NON-NLS-1$
+    if (template.isEmpty())
+     {
+      throw new IllegalArgumentException("template is empty"); //$NON-NLS-1$
+     }
+    if (template.length() > MAX_TEMPLATE_SIZE)
+     {
+      throw new IllegalArgumentException("template is to large"); //$NON-NLS-1$
+     }
+    writeFinished(template, this.unknowns, out);
+   }
+
+
+  /**
+   * Write template with undefined template variables handled as specified by unknowns.
+   *
+   * @param template Template to parse for unknown variables
+   * @param unknowns Handling of undefined template variables
+   * @param out Output to write to
+   * @throws IOException When writing to out fails
+   */
+  static void writeFinished(final String template, final HandleUndefined unknowns, final Appendable out) throws IOException
+   {
+    final UndefinedFilter filter = new UndefinedFilter(unknowns, out);
+    filter.append(template);
+    /* final long length = */ filter.finish();
    }
 
 
@@ -856,6 +2698,21 @@ public final class TemplateEngine
    }
 
 
+  /**
+   * Shortcut for finish(getVar(varname), out).
+   *
+   * @param varname Name of template variable
+   * @param out Output to write the finished value of the template variable to
+   * @throws IOException When writing to out fails
+   * @throws NullPointerException If varname or out is null
+   * @throws IllegalArgumentException If varname is empty
+   */
+  public void get(final String varname, final Appendable out) throws IOException
+   {
+    finish(getVar(varname), out);
+   }
+
+
   /**
    * Returns the string representation of this TemplatEngine.
    *
@@ -882,7 +2739,8 @@ public final class TemplateEngine
   @Override
   public int hashCode()
    {
-    return Objects.hash(this.unknowns, this.files, this.tempVars);
+    flushAll();
+    return Objects.hash(this.unknowns, this.files, this.tempVars, this.lazyVars);
    }
 
 
@@ -905,7 +2763,9 @@ public final class TemplateEngine
       return false;
      }
     final TemplateEngine other = (TemplateEngine)obj;
-    return (this.unknowns == other.unknowns) && this.files.equals(other.files) && this.tempVars.equals(other.tempVars);
+    flushAll();
+    other.flushAll();
+    return (this.unknowns == other.unknowns) && this.files.equals(other.files) && this.tempVars.equals(other.tempVars) && this.lazyVars.equals(other.lazyVars);
    }
 
  }
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * Template file loaded into an engine (from the TemplateCache or from the file).
+ *
+ * Committed only while a Java Flight Recorder recording with this event enabled is running.
+ */
+@Name("de.powerstat.phplib.templateengine.TemplateLoad") //$NON-NLS-1$
+@Label("Template Load") //$NON-NLS-1$
+@Category({"PHPLib", "TemplateEngine"}) //$NON-NLS-1$ //$NON-NLS-2$
+@Description("Template file loaded into an engine (from the TemplateCache or from the file).") //$NON-NLS-1$
+final class TemplateLoadEvent extends Event
+ {
+  /**
+   * Template variable name.
+   */
+  @Label("Template") //$NON-NLS-1$
+  String template;
+
+  /**
+   * Resolved template location.
+   */
+  @Label("Location") //$NON-NLS-1$
+  String location;
+
+  /**
+   * Template size in characters.
+   */
+  @Label("Size") //$NON-NLS-1$
+  long size;
+
+
+  /**
+   * Constructor.
+   */
+  TemplateLoadEvent()
+   {
+    super();
+   }
+
+ }
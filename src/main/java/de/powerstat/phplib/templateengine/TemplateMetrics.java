@@ -0,0 +1,468 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+
+/**
+ * Process wide template engine metrics.
+ *
+ * Metrics collection is disabled by default and then costs only one volatile read per operation.
+ * It could be enabled with setEnabled(true) or with the system property "de.powerstat.phplib.templateengine.metrics=true",
+ * which also registers the metrics as platform MBean "de.powerstat.phplib.templateengine:type=TemplateMetrics".
+ *
+ * Unconditionally thread safe.
+ */
+public final class TemplateMetrics implements TemplateMetricsMXBean
+ {
+  /**
+   * System property to enable and register metrics on startup.
+   */
+  public static final String ENABLE_PROPERTY = "de.powerstat.phplib.templateengine.metrics"; //$NON-NLS-1$
+
+  /**
+   * MBean object name.
+   */
+  public static final String OBJECT_NAME = "de.powerstat.phplib.templateengine:type=TemplateMetrics"; //$NON-NLS-1$
+
+  /**
+   * Shared instance.
+   */
+  private static final TemplateMetrics INSTANCE = new TemplateMetrics();
+
+  /**
+   * Metrics collection enabled.
+   */
+  private static volatile boolean enabled;
+
+  /**
+   * Templates loaded.
+   */
+  private final LongAdder templatesLoaded = new LongAdder();
+
+  /**
+   * Templates taken from the TemplateCache.
+   */
+  private final LongAdder templateCacheHits = new LongAdder();
+
+  /**
+   * Load time in nanoseconds.
+   */
+  private final LongAdder loadTimeNanos = new LongAdder();
+
+  /**
+   * Subst calls.
+   */
+  private final LongAdder substCalls = new LongAdder();
+
+  /**
+   * Parse calls.
+   */
+  private final LongAdder parseCalls = new LongAdder();
+
+  /**
+   * Subst time in nanoseconds.
+   */
+  private final LongAdder substTimeNanos = new LongAdder();
+
+  /**
+   * Rendered characters.
+   */
+  private final LongAdder charsRendered = new LongAdder();
+
+  /**
+   * Undefined variables handled by finish.
+   */
+  private final LongAdder undefinedVariables = new LongAdder();
+
+  /**
+   * Subst calls by template name.
+   */
+  private final Map<String, LongAdder> substCallsByTemplate = new ConcurrentHashMap<>();
+
+  /**
+   * Subst time in nanoseconds by template name.
+   */
+  private final Map<String, LongAdder> substTimeNanosByTemplate = new ConcurrentHashMap<>();
+
+
+  static
+   {
+    if (Boolean.getBoolean(ENABLE_PROPERTY))
+     {
+      enabled = true;
+      try
+       {
+        INSTANCE.register();
+       }
+      catch (final JMException ignored)
+       {
+        // Metrics are still available via getInstance()
+       }
+     }
+   }
+
+
+  /**
+   * Constructor.
+   */
+  private TemplateMetrics()
+   {
+    super();
+   }
+
+
+  /**
+   * Get the shared metrics.
+   *
+   * @return Shared metrics instance
+   */
+  public static TemplateMetrics getInstance()
+   {
+    return INSTANCE;
+   }
+
+
+  /**
+   * Is metrics collection enabled - for the hot paths.
+   *
+   * @return true if enabled, false otherwise
+   */
+  static boolean enabled()
+   {
+    return enabled;
+   }
+
+
+  /**
+   * Register as platform MBean.
+   *
+   * @throws JMException If the registration fails
+   */
+  public void register() throws JMException
+   {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try
+     {
+      server.registerMBean(this, new ObjectName(OBJECT_NAME));
+     }
+    catch (final InstanceAlreadyExistsException ignored)
+     {
+      // Already registered
+     }
+   }
+
+
+  /**
+   * Unregister platform MBean.
+   *
+   * @throws JMException If the unregistration fails
+   */
+  public void unregister() throws JMException
+   {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try
+     {
+      server.unregisterMBean(new ObjectName(OBJECT_NAME));
+     }
+    catch (final InstanceNotFoundException | MalformedObjectNameException ignored)
+     {
+      // Not registered
+     }
+   }
+
+
+  /**
+   * Record a template read from a file or the classpath.
+   *
+   * @param nanos Load time in nanoseconds
+   */
+  void loaded(final long nanos)
+   {
+    this.templatesLoaded.increment();
+    this.loadTimeNanos.add(nanos);
+   }
+
+
+  /**
+   * Record a template taken from the TemplateCache.
+   */
+  void cacheHit()
+   {
+    this.templateCacheHits.increment();
+   }
+
+
+  /**
+   * Record a substitution.
+   *
+   * @param varname Template variable name
+   * @param nanos Substitution time in nanoseconds
+   * @param chars Rendered characters
+   */
+  void substituted(final String varname, final long nanos, final long chars)
+   {
+    this.substCalls.increment();
+    this.substTimeNanos.add(nanos);
+    this.charsRendered.add(chars);
+    this.substCallsByTemplate.computeIfAbsent(varname, key -> new LongAdder()).increment();
+    this.substTimeNanosByTemplate.computeIfAbsent(varname, key -> new LongAdder()).add(nanos);
+   }
+
+
+  /**
+   * Record a parse call.
+   */
+  void parsed()
+   {
+    this.parseCalls.increment();
+   }
+
+
+  /**
+   * Record undefined variables handled by finish.
+   *
+   * @param count Number of undefined variables
+   */
+  void undefined(final long count)
+   {
+    this.undefinedVariables.add(count);
+   }
+
+
+  /**
+   * Sum up counters by template name.
+   *
+   * @param counters Counters by template name
+   * @return Sorted snapshot of the counters
+   */
+  private static Map<String, Long> snapshot(final Map<String, LongAdder> counters)
+   {
+    final Map<String, Long> result = new TreeMap<>();
+    for (final Map.Entry<String, LongAdder> entry : counters.entrySet())
+     {
+      result.put(entry.getKey(), entry.getValue().sum());
+     }
+    return Collections.unmodifiableMap(result);
+   }
+
+
+  /**
+   * Is metrics collection enabled.
+   *
+   * @return true if enabled, false otherwise
+   */
+  @Override
+  public boolean isEnabled()
+   {
+    return enabled;
+   }
+
+
+  /**
+   * Enable or disable metrics collection.
+   *
+   * @param newEnabled true to enable, false to disable
+   */
+  @Override
+  public void setEnabled(final boolean newEnabled)
+   {
+    enabled = newEnabled; // NOPMD Shared switch by intention
+   }
+
+
+  /**
+   * Get number of loaded templates.
+   *
+   * @return Number of loaded templates
+   */
+  @Override
+  public long getTemplatesLoaded()
+   {
+    return this.templatesLoaded.sum();
+   }
+
+
+  /**
+   * Get number of templates taken from the TemplateCache.
+   *
+   * @return Number of template cache hits
+   */
+  @Override
+  public long getTemplateCacheHits()
+   {
+    return this.templateCacheHits.sum();
+   }
+
+
+  /**
+   * Get time spent reading templates.
+   *
+   * @return Load time in nanoseconds
+   */
+  @Override
+  public long getLoadTimeNanos()
+   {
+    return this.loadTimeNanos.sum();
+   }
+
+
+  /**
+   * Get number of subst calls.
+   *
+   * @return Number of subst calls
+   */
+  @Override
+  public long getSubstCalls()
+   {
+    return this.substCalls.sum();
+   }
+
+
+  /**
+   * Get number of parse calls.
+   *
+   * @return Number of parse calls
+   */
+  @Override
+  public long getParseCalls()
+   {
+    return this.parseCalls.sum();
+   }
+
+
+  /**
+   * Get time spent substituting variables.
+   *
+   * @return Substitution time in nanoseconds
+   */
+  @Override
+  public long getSubstTimeNanos()
+   {
+    return this.substTimeNanos.sum();
+   }
+
+
+  /**
+   * Get number of rendered characters.
+   *
+   * @return Number of rendered characters
+   */
+  @Override
+  public long getCharsRendered()
+   {
+    return this.charsRendered.sum();
+   }
+
+
+  /**
+   * Get number of undefined variables handled by finish.
+   *
+   * @return Number of undefined variables
+   */
+  @Override
+  public long getUndefinedVariables()
+   {
+    return this.undefinedVariables.sum();
+   }
+
+
+  /**
+   * Get number of TemplateCache hits.
+   *
+   * @return Cache hits
+   */
+  @Override
+  public long getCacheHits()
+   {
+    return TemplateCache.getInstance().getHits();
+   }
+
+
+  /**
+   * Get number of TemplateCache misses.
+   *
+   * @return Cache misses
+   */
+  @Override
+  public long getCacheMisses()
+   {
+    return TemplateCache.getInstance().getMisses();
+   }
+
+
+  /**
+   * Get number of subst calls by template variable name.
+   *
+   * @return Subst calls by template name
+   */
+  @Override
+  public Map<String, Long> getSubstCallsByTemplate()
+   {
+    return snapshot(this.substCallsByTemplate);
+   }
+
+
+  /**
+   * Get substitution time by template variable name.
+   *
+   * @return Substitution time in nanoseconds by template name
+   */
+  @Override
+  public Map<String, Long> getSubstTimeNanosByTemplate()
+   {
+    return snapshot(this.substTimeNanosByTemplate);
+   }
+
+
+  /**
+   * Reset all counters.
+   */
+  @Override
+  public void reset()
+   {
+    this.templatesLoaded.reset();
+    this.templateCacheHits.reset();
+    this.loadTimeNanos.reset();
+    this.substCalls.reset();
+    this.parseCalls.reset();
+    this.substTimeNanos.reset();
+    this.charsRendered.reset();
+    this.undefinedVariables.reset();
+    this.substCallsByTemplate.clear();
+    this.substTimeNanosByTemplate.clear();
+   }
+
+
+  /**
+   * Returns the string representation of this TemplateMetrics.
+   *
+   * The exact details of this representation are unspecified and subject to change, but the following may be regarded as typical:
+   *
+   * "TemplateMetrics[enabled=true, loaded=1, cacheHits=0, substCalls=2, parseCalls=1, charsRendered=40, undefined=0]"
+   *
+   * @return String representation of this TemplateMetrics.
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString()
+   {
+    return new StringBuilder().append("TemplateMetrics[enabled=").append(enabled).append(", loaded=").append(getTemplatesLoaded()).append(", cacheHits=").append(getTemplateCacheHits()).append(", substCalls=").append(getSubstCalls()).append(", parseCalls=").append(getParseCalls()).append(", charsRendered=").append(getCharsRendered()).append(", undefined=").append(getUndefinedVariables()).append(']').toString(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+   }
+
+ }
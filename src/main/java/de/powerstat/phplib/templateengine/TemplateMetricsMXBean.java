@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import java.util.Map;
+
+
+/**
+ * Template engine metrics management interface.
+ */
+public interface TemplateMetricsMXBean
+ {
+  /**
+   * Is metrics collection enabled.
+   *
+   * @return true if enabled, false otherwise
+   */
+  boolean isEnabled();
+
+
+  /**
+   * Enable or disable metrics collection.
+   *
+   * @param enabled true to enable, false to disable
+   */
+  void setEnabled(boolean enabled);
+
+
+  /**
+   * Get number of templates read from files or the classpath.
+   *
+   * @return Number of loaded templates
+   */
+  long getTemplatesLoaded();
+
+
+  /**
+   * Get number of templates taken from the TemplateCache without reading them.
+   *
+   * @return Number of template cache hits
+   */
+  long getTemplateCacheHits();
+
+
+  /**
+   * Get time spent reading templates.
+   *
+   * @return Load time in nanoseconds
+   */
+  long getLoadTimeNanos();
+
+
+  /**
+   * Get number of subst calls (including parse calls).
+   *
+   * @return Number of subst calls
+   */
+  long getSubstCalls();
+
+
+  /**
+   * Get number of parse calls.
+   *
+   * @return Number of parse calls
+   */
+  long getParseCalls();
+
+
+  /**
+   * Get time spent substituting variables.
+   *
+   * @return Substitution time in nanoseconds
+   */
+  long getSubstTimeNanos();
+
+
+  /**
+   * Get number of rendered characters.
+   *
+   * @return Number of rendered characters
+   */
+  long getCharsRendered();
+
+
+  /**
+   * Get number of undefined variables handled by finish.
+   *
+   * @return Number of undefined variables
+   */
+  long getUndefinedVariables();
+
+
+  /**
+   * Get number of TemplateCache hits.
+   *
+   * @return Cache hits
+   */
+  long getCacheHits();
+
+
+  /**
+   * Get number of TemplateCache misses.
+   *
+   * @return Cache misses
+   */
+  long getCacheMisses();
+
+
+  /**
+   * Get number of subst calls by template variable name.
+   *
+   * @return Subst calls by template name
+   */
+  Map<String, Long> getSubstCallsByTemplate();
+
+
+  /**
+   * Get substitution time by template variable name.
+   *
+   * @return Substitution time in nanoseconds by template name
+   */
+  Map<String, Long> getSubstTimeNanosByTemplate();
+
+
+  /**
+   * Reset all counters.
+   */
+  void reset();
+
+ }
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import de.powerstat.phplib.templateengine.TemplateEngine.HandleUndefined;
+
+
+/**
+ * Immutable set of compiled templates that could be shared by all threads.
+ *
+ * A template set is created once from a configured TemplateEngine (files set, blocks cut)
+ * and renders with cheap per request RenderContexts that only hold the variables of one render.
+ *
+ * Immutable and therefore thread safe.
+ */
+public final class TemplateSet
+ {
+  /**
+   * Compiled templates by SymbolTable slot, null for slots without template.
+   */
+  private final CompiledTemplate[] templates;
+
+  /**
+   * Template names.
+   */
+  private final List<String> names;
+
+
+  /**
+   * Constructor.
+   *
+   * @param compiled Compiled templates by name
+   */
+  private TemplateSet(final Map<String, CompiledTemplate> compiled)
+   {
+    super();
+    final SymbolTable symbols = SymbolTable.getInstance();
+    int size = 0;
+    for (final String name : compiled.keySet())
+     {
+      size = Math.max(size, symbols.slot(name) + 1);
+     }
+    this.templates = new CompiledTemplate[size];
+    for (final Map.Entry<String, CompiledTemplate> entry : compiled.entrySet())
+     {
+      this.templates[symbols.slot(entry.getKey())] = entry.getValue();
+     }
+    final List<String> sorted = new ArrayList<>(compiled.keySet());
+    Collections.sort(sorted);
+    this.names = Collections.unmodifiableList(sorted);
+   }
+
+
+  /**
+   * Create a template set from all templates and variables of an engine.
+   *
+   * All template files of the engine will be loaded. Later changes of the engine do not change the template set.
+   *
+   * @param engine Configured template engine
+   * @return Template set
+   * @throws IOException File not found or IO exception
+   * @throws NullPointerException If engine is null
+   */
+  public static TemplateSet of(final TemplateEngine engine) throws IOException
+   {
+    Objects.requireNonNull(engine, "engine"); //$NON-NLS-1$
+    return new TemplateSet(engine.compileAll());
+   }
+
+
+  /**
+   * Create a template set from a precompiled template archive.
+   *
+   * @param archive Precompiled template archive
+   * @return Template set
+   * @throws NullPointerException If archive is null
+   */
+  public static TemplateSet of(final TemplateArchive archive)
+   {
+    Objects.requireNonNull(archive, "archive"); //$NON-NLS-1$
+    return new TemplateSet(archive.getTemplates());
+   }
+
+
+  /**
+   * Create a new render context for this template set.
+   *
+   * @param unknowns Handling of undefined template variables
+   * @return New render context
+   * @throws NullPointerException If unknowns is null
+   */
+  public RenderContext newContext(final HandleUndefined unknowns)
+   {
+    Objects.requireNonNull(unknowns, "unknowns"); //$NON-NLS-1$
+    return new RenderContext(this, unknowns);
+   }
+
+
+  /**
+   * Create a new render context for this template set that removes undefined variables.
+   *
+   * @return New render context
+   */
+  public RenderContext newContext()
+   {
+    return newContext(HandleUndefined.REMOVE);
+   }
+
+
+  /**
+   * Get compiled template by SymbolTable slot.
+   *
+   * @param slot Slot
+   * @return Compiled template or null
+   */
+  CompiledTemplate get(final int slot)
+   {
+    return (slot < this.templates.length) ? this.templates[slot] : null;
+   }
+
+
+  /**
+   * Get names of all templates.
+   *
+   * @return Sorted list of template names
+   */
+  public List<String> getNames()
+   {
+    return this.names;
+   }
+
+
+  /**
+   * Returns the string representation of this TemplateSet.
+   *
+   * The exact details of this representation are unspecified and subject to change, but the following may be regarded as typical:
+   *
+   * "TemplateSet[names=[blk1, file1]]"
+   *
+   * @return String representation of this TemplateSet.
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString()
+   {
+    return new StringBuilder().append("TemplateSet[names=").append(this.names).append(']').toString(); //$NON-NLS-1$
+   }
+
+ }
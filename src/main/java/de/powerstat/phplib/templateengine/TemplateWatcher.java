@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+/**
+ * Watches the directories of cached template files and invalidates templates within the TemplateCache when their files change.
+ *
+ * Templates whose file length and modification time still match are kept,
+ * so that several events for one edit do not remove a template that has already been reloaded.
+ *
+ * Uses a daemon thread.
+ */
+final class TemplateWatcher implements Closeable
+ {
+  /**
+   * Logger.
+   */
+  private static final Logger LOGGER = LogManager.getLogger(TemplateWatcher.class);
+
+  /**
+   * Template cache to invalidate.
+   */
+  private final TemplateCache cache;
+
+  /**
+   * Watch service.
+   */
+  private final WatchService service;
+
+  /**
+   * Watched directories.
+   */
+  private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+
+  /**
+   * Watcher thread.
+   */
+  private final Thread thread;
+
+
+  /**
+   * Constructor.
+   *
+   * @param cache Template cache to invalidate
+   * @throws IOException If the watch service could not be created
+   */
+  TemplateWatcher(final TemplateCache cache) throws IOException
+   {
+    this.cache = cache;
+    this.service = FileSystems.getDefault().newWatchService();
+    this.thread = new Thread(this::run, "TemplateWatcher"); //$NON-NLS-1$
+    this.thread.setDaemon(true);
+    this.thread.start();
+   }
+
+
+  /**
+   * Watch the directory of a template file.
+   *
+   * @param file Template file (absolute path)
+   */
+  void register(final Path file)
+   {
+    final Path directory = file.getParent();
+    if ((directory == null) || this.directories.containsValue(directory))
+     {
+      return;
+     }
+    try
+     {
+      final WatchKey key = directory.register(this.service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+      this.directories.put(key, directory);
+     }
+    catch (final IOException | ClosedWatchServiceException e)
+     {
+      if (LOGGER.isWarnEnabled())
+       {
+        LOGGER.warn("Could not watch directory: " + directory, e); //$NON-NLS-1$
+       }
+     }
+   }
+
+
+  /**
+   * Process file change events until the watcher is closed.
+   */
+  private void run()
+   {
+    try
+     {
+      while (true)
+       {
+        final WatchKey key = this.service.take();
+        final Path directory = this.directories.get(key);
+        if (directory != null)
+         {
+          for (final WatchEvent<?> event : key.pollEvents())
+           {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+             {
+              this.cache.invalidateDirectory(directory);
+             }
+            else
+             {
+              /* final boolean removed = */ this.cache.invalidateChanged(directory.resolve((Path)event.context()));
+             }
+           }
+         }
+        if (!key.reset())
+         {
+          this.directories.remove(key);
+         }
+       }
+     }
+    catch (final InterruptedException ignored)
+     {
+      Thread.currentThread().interrupt();
+     }
+    catch (final ClosedWatchServiceException ignored)
+     {
+      // Watcher has been closed
+     }
+   }
+
+
+  /**
+   * Stop watching.
+   *
+   * @throws IOException IO exception
+   */
+  @Override
+  public void close() throws IOException
+   {
+    this.service.close();
+    this.thread.interrupt();
+   }
+
+ }
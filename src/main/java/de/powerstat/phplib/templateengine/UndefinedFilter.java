@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import java.io.IOException;
+import java.util.Objects;
+
+import de.powerstat.phplib.templateengine.TemplateEngine.HandleUndefined;
+
+
+/**
+ * Output filter that handles undefined template variables while the text is written through it.
+ *
+ * Matches the same references as the pattern "\{([^ \t\r\n}]+)\}", but within a single streaming pass,
+ * so that a template could be substituted and finished into the same output without any intermediate string.
+ * References could span several appends, because a possible reference is held back until it is complete.
+ * With KEEP all text is written through unchanged without scanning.
+ *
+ * Not thread safe.
+ */
+final class UndefinedFilter implements Appendable
+ {
+  /**
+   * Comment prefix.
+   */
+  private static final String COMMENT_PREFIX = "<!-- Template variable '"; //$NON-NLS-1$
+
+  /**
+   * Comment suffix.
+   */
+  private static final String COMMENT_SUFFIX = "' undefined -->"; //$NON-NLS-1$
+
+  /**
+   * Output to write to.
+   */
+  private final Appendable out;
+
+  /**
+   * Handling of undefined template variables.
+   */
+  private final HandleUndefined unknowns;
+
+  /**
+   * Held back possible reference starting with '{', empty if there is none.
+   */
+  private final StringBuilder pending = new StringBuilder();
+
+  /**
+   * Finish event.
+   */
+  private final FinishEvent event = new FinishEvent();
+
+  /**
+   * Number of characters written to this filter.
+   */
+  private long inputSize;
+
+  /**
+   * Number of characters written to the output.
+   */
+  private long outputSize;
+
+  /**
+   * Number of handled undefined references.
+   */
+  private long count;
+
+
+  /**
+   * Constructor.
+   *
+   * @param unknowns Handling of undefined template variables
+   * @param out Output to write to
+   * @throws NullPointerException If unknowns or out is null
+   */
+  UndefinedFilter(final HandleUndefined unknowns, final Appendable out)
+   {
+    super();
+    this.unknowns = Objects.requireNonNull(unknowns, "unknowns"); //$NON-NLS-1$
+    this.out = Objects.requireNonNull(out, "out"); //$NON-NLS-1$
+    this.event.begin();
+   }
+
+
+  /**
+   * Report a finish with KEEP, where the template is used unchanged without any filtering.
+   *
+   * @param template Finished template
+   */
+  static void commitKept(final String template)
+   {
+    final FinishEvent event = new FinishEvent();
+    event.begin();
+    event.end();
+    if (event.shouldCommit())
+     {
+      event.unknowns = HandleUndefined.KEEP.name();
+      event.inputSize = template.length();
+      event.outputSize = template.length();
+      event.undefinedCount = 0;
+      event.commit();
+     }
+   }
+
+
+  /**
+   * Is character a reference terminating whitespace.
+   *
+   * @param chr Character
+   * @return true if whitespace, false otherwise
+   */
+  private static boolean isWhitespace(final char chr)
+   {
+    return (chr == ' ') || (chr == '\t') || (chr == '\r') || (chr == '\n');
+   }
+
+
+  /**
+   * Write held back text unchanged.
+   *
+   * @throws IOException When writing to out fails
+   */
+  private void flushPending() throws IOException
+   {
+    this.out.append(this.pending);
+    this.outputSize += this.pending.length();
+    this.pending.setLength(0);
+   }
+
+
+  /**
+   * Handle the complete undefined reference held back.
+   *
+   * @throws IOException When writing to out fails
+   */
+  private void handleReference() throws IOException
+   {
+    ++this.count;
+    switch (this.unknowns)
+     {
+      case REMOVE:
+        break;
+      case COMMENT:
+        this.out.append(COMMENT_PREFIX).append(this.pending, 1, this.pending.length()).append(COMMENT_SUFFIX);
+        this.outputSize += COMMENT_PREFIX.length() + (this.pending.length() - 1) + COMMENT_SUFFIX.length();
+        break;
+      default: // For the case that enum HandleUndefined will be extended!
+        throw new AssertionError(this.unknowns);
+     }
+    this.pending.setLength(0);
+   }
+
+
+  /**
+   * Append character.
+   *
+   * @param chr Character
+   * @return This filter
+   * @throws IOException When writing to out fails
+   * @see java.lang.Appendable#append(char)
+   */
+  @Override
+  public Appendable append(final char chr) throws IOException
+   {
+    ++this.inputSize;
+    if (this.unknowns == HandleUndefined.KEEP)
+     {
+      this.out.append(chr);
+      ++this.outputSize;
+     }
+    else if (this.pending.length() == 0)
+     {
+      if (chr == '{')
+       {
+        this.pending.append(chr);
+       }
+      else
+       {
+        this.out.append(chr);
+        ++this.outputSize;
+       }
+     }
+    else if (chr == '}')
+     {
+      if (this.pending.length() > 1)
+       {
+        handleReference();
+       }
+      else
+       {
+        this.pending.append(chr);
+        flushPending();
+       }
+     }
+    else if (isWhitespace(chr))
+     {
+      this.pending.append(chr);
+      flushPending();
+     }
+    else
+     {
+      this.pending.append(chr);
+     }
+    return this;
+   }
+
+
+  /**
+   * Append character sequence.
+   *
+   * @param csq Character sequence, null will be appended as "null"
+   * @param start Start index
+   * @param end End index (exclusive)
+   * @return This filter
+   * @throws IOException When writing to out fails
+   * @see java.lang.Appendable#append(java.lang.CharSequence, int, int)
+   */
+  @Override
+  public Appendable append(final CharSequence csq, final int start, final int end) throws IOException
+   {
+    final CharSequence text = (csq == null) ? "null" : csq; //$NON-NLS-1$
+    Objects.checkFromToIndex(start, end, text.length());
+    if (this.unknowns == HandleUndefined.KEEP)
+     {
+      this.out.append(text, start, end);
+      this.inputSize += end - start;
+      this.outputSize += end - start;
+      return this;
+     }
+    int pos = start;
+    while (pos < end)
+     {
+      if (this.pending.length() == 0)
+       {
+        // Copy text up to the next possible reference at once
+        int next = pos;
+        while ((next < end) && (text.charAt(next) != '{'))
+         {
+          ++next;
+         }
+        this.out.append(text, pos, next);
+        this.outputSize += next - pos;
+        this.inputSize += next - pos;
+        pos = next;
+        if (pos == end)
+         {
+          break;
+         }
+       }
+      append(text.charAt(pos));
+      ++pos;
+     }
+    return this;
+   }
+
+
+  /**
+   * Append character sequence.
+   *
+   * @param csq Character sequence, null will be appended as "null"
+   * @return This filter
+   * @throws IOException When writing to out fails
+   * @see java.lang.Appendable#append(java.lang.CharSequence)
+   */
+  @Override
+  public Appendable append(final CharSequence csq) throws IOException
+   {
+    final CharSequence text = (csq == null) ? "null" : csq; //$NON-NLS-1$
+    return append(text, 0, text.length());
+   }
+
+
+  /**
+   * Finish filtering by writing held back text and reporting the handled references.
+   *
+   * @return Number of characters written to the output
+   * @throws IOException When writing to out fails
+   */
+  long finish() throws IOException
+   {
+    flushPending();
+    this.event.end();
+    if ((this.count > 0) && TemplateMetrics.enabled())
+     {
+      TemplateMetrics.getInstance().undefined(this.count);
+     }
+    if (this.event.shouldCommit())
+     {
+      this.event.unknowns = this.unknowns.name();
+      this.event.inputSize = this.inputSize;
+      this.event.outputSize = this.outputSize;
+      this.event.undefinedCount = this.count;
+      this.event.commit();
+     }
+    return this.outputSize;
+   }
+
+ }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import java.util.Objects;
+
+
+/**
+ * Validated template variable name.
+ *
+ * A variable name consists of 1 to 64 characters out of a-z, A-Z, 0-9 and _.
+ * Names are validated once on creation, so that TemplateEngine methods called with a VarName could skip the name checks.
+ *
+ * Immutable and therefore thread safe.
+ */
+public final class VarName implements Comparable<VarName>
+ {
+  /**
+   * Maximum variable name length.
+   */
+  private static final int MAX_VARNAME_SIZE = 64;
+
+  /**
+   * Variable name.
+   */
+  private final String name;
+
+  /**
+   * Cached SymbolTable slot, -1 if not yet known.
+   *
+   * Racy single-check like String.hashCode(), every thread computes the same value.
+   */
+  private int slot = -1;
+
+
+  /**
+   * Constructor.
+   *
+   * @param name Variable name (already checked)
+   */
+  private VarName(final String name)
+   {
+    super();
+    this.name = name;
+   }
+
+
+  /**
+   * VarName factory.
+   *
+   * @param name Variable name
+   * @return VarName object
+   * @throws NullPointerException If name is null
+   * @throws IllegalArgumentException If name is empty, to long or does not match the name pattern
+   */
+  public static VarName of(final String name)
+   {
+    Objects.requireNonNull(name, "name"); //$NON-NLS-1$
+    if (name.isEmpty())
+     {
+      throw new IllegalArgumentException("name is empty"); //$NON-NLS-1$
+     }
+    if (name.length() > MAX_VARNAME_SIZE)
+     {
+      throw new IllegalArgumentException("name is to long"); //$NON-NLS-1$
+     }
+    if (!isValid(name))
+     {
+      throw new IllegalArgumentException("name does not match name pattern"); //$NON-NLS-1$
+     }
+    return new VarName(name);
+   }
+
+
+  /**
+   * Check if a string is a valid variable name without using a regular expression.
+   *
+   * Same as matching "^[a-zA-Z0-9_]{1,64}$", but without allocations.
+   *
+   * @param name Variable name
+   * @return true if name is valid, false otherwise
+   */
+  static boolean isValid(final String name)
+   {
+    final int length = name.length();
+    if ((length == 0) || (length > MAX_VARNAME_SIZE))
+     {
+      return false;
+     }
+    for (int i = 0; i < length; ++i)
+     {
+      if (!CompiledTemplate.isNameChar(name.charAt(i)))
+       {
+        return false;
+       }
+     }
+    return true;
+   }
+
+
+  /**
+   * Get variable name.
+   *
+   * @return Variable name
+   */
+  public String getName()
+   {
+    return this.name;
+   }
+
+
+  /**
+   * Get SymbolTable slot of this name.
+   *
+   * @return Slot
+   */
+  int getSlot()
+   {
+    int result = this.slot;
+    if (result < 0)
+     {
+      result = SymbolTable.getInstance().slot(this.name);
+      this.slot = result;
+     }
+    return result;
+   }
+
+
+  /**
+   * Calculate hash code.
+   *
+   * @return Hash
+   * @see java.lang.Object#hashCode()
+   */
+  @Override
+  public int hashCode()
+   {
+    return this.name.hashCode();
+   }
+
+
+  /**
+   * Is equal with another object.
+   *
+   * @param obj Object
+   * @return true when equal, false otherwise
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(final Object obj)
+   {
+    if (this == obj)
+     {
+      return true;
+     }
+    if (!(obj instanceof VarName))
+     {
+      return false;
+     }
+    return this.name.equals(((VarName)obj).name);
+   }
+
+
+  /**
+   * Returns the string representation of this VarName.
+   *
+   * The exact details of this representation are unspecified and subject to change, but the following may be regarded as typical:
+   *
+   * "VarName[name=file1]"
+   *
+   * @return String representation of this VarName.
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString()
+   {
+    return new StringBuilder().append("VarName[name=").append(this.name).append(']').toString(); //$NON-NLS-1$
+   }
+
+
+  /**
+   * Compare with another object.
+   *
+   * @param obj Object to compare with
+   * @return 0: equal; 1: greater; -1: smaller
+   * @see java.lang.Comparable#compareTo(java.lang.Object)
+   */
+  @Override
+  public int compareTo(final VarName obj)
+   {
+    Objects.requireNonNull(obj, "obj"); //$NON-NLS-1$
+    return this.name.compareTo(obj.name);
+   }
+
+ }
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine;
+
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Template variable values stored in chunks of an array indexed by SymbolTable slots.
+ *
+ * Rendering a compiled template reads values by slot, so that no hashing of variable names is necessary.
+ * Could be forked in constant time: a forked table shares its chunks with its origin
+ * and the first change of a chunk on either side copies only the chunk directory and that chunk (copy on write).
+ * The size of a table depends on the highest slot stored in it, not on the size of the SymbolTable.
+ * Null keys and values are not supported.
+ *
+ * Thread safe, changes are serialized, reads are lock free.
+ */
+final class VariableTable extends AbstractMap<String, String>
+ {
+  /**
+   * Symbol table.
+   */
+  private static final SymbolTable SYMBOLS = SymbolTable.getInstance();
+
+  /**
+   * Number of bits of a slot within a chunk.
+   */
+  private static final int CHUNK_BITS = 5;
+
+  /**
+   * Number of slots per chunk.
+   */
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+  /**
+   * Mask for the slot within a chunk.
+   */
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  /**
+   * Chunk directory, values by slot within chunks of CHUNK_SIZE values, null for chunks without values.
+   */
+  private volatile AtomicReferenceArray<AtomicReferenceArray<String>> chunks;
+
+  /**
+   * Chunk directory is shared with a fork and has to be copied before the next change.
+   */
+  private boolean shared;
+
+  /**
+   * Chunks that are owned by this table and could be changed in place, all other chunks are shared with a fork.
+   */
+  private boolean[] owned;
+
+  /**
+   * Number of defined values.
+   */
+  private volatile int count;
+
+
+  /**
+   * Constructor.
+   *
+   * @param chunks Chunk directory
+   * @param count Number of defined values
+   * @param shared Chunk directory is shared
+   */
+  private VariableTable(final AtomicReferenceArray<AtomicReferenceArray<String>> chunks, final int count, final boolean shared)
+   {
+    super();
+    this.chunks = chunks;
+    this.count = count;
+    this.shared = shared;
+    this.owned = new boolean[0];
+   }
+
+
+  /**
+   * Default constructor.
+   */
+  VariableTable()
+   {
+    this(new AtomicReferenceArray<>(0), 0, false);
+   }
+
+
+  /**
+   * Fork this table.
+   *
+   * @return New table with the same content that is independent of this table
+   */
+  synchronized VariableTable fork()
+   {
+    this.shared = true;
+    this.owned = new boolean[0];
+    return new VariableTable(this.chunks, this.count, true);
+   }
+
+
+  /**
+   * Make the chunk of a slot writable.
+   *
+   * Copies the chunk directory when it is shared or to small and the chunk when it is not owned by this table.
+   *
+   * @param slot Slot that will be written
+   * @return Writable chunk of the slot
+   */
+  private AtomicReferenceArray<String> ensureWritable(final int slot)
+   {
+    assert Thread.holdsLock(this);
+    final int index = slot >>> CHUNK_BITS;
+    AtomicReferenceArray<AtomicReferenceArray<String>> directory = this.chunks;
+    final boolean copyDirectory = this.shared || (index >= directory.length());
+    if (copyDirectory)
+     {
+      final AtomicReferenceArray<AtomicReferenceArray<String>> copy = new AtomicReferenceArray<>(Math.max(directory.length(), index + 1));
+      for (int i = 0; i < directory.length(); ++i)
+       {
+        copy.lazySet(i, directory.get(i));
+       }
+      directory = copy;
+     }
+    AtomicReferenceArray<String> chunk = directory.get(index);
+    if ((index >= this.owned.length) || !this.owned[index])
+     {
+      final AtomicReferenceArray<String> copy = new AtomicReferenceArray<>(CHUNK_SIZE);
+      if (chunk != null)
+       {
+        for (int i = 0; i < CHUNK_SIZE; ++i)
+         {
+          copy.lazySet(i, chunk.get(i));
+         }
+       }
+      directory.set(index, copy); // Volatile write publishes the copied values
+      chunk = copy;
+      if (index >= this.owned.length)
+       {
+        this.owned = Arrays.copyOf(this.owned, Math.max(index + 1, directory.length()));
+       }
+      this.owned[index] = true;
+     }
+    if (copyDirectory)
+     {
+      this.chunks = directory; // Volatile write publishes the copied directory
+      this.shared = false;
+     }
+    return chunk;
+   }
+
+
+  /**
+   * Get value by slot.
+   *
+   * @param slot Slot
+   * @return Value or null
+   */
+  String get(final int slot)
+   {
+    final AtomicReferenceArray<AtomicReferenceArray<String>> directory = this.chunks;
+    final int index = slot >>> CHUNK_BITS;
+    if (index >= directory.length())
+     {
+      return null;
+     }
+    final AtomicReferenceArray<String> chunk = directory.get(index);
+    return (chunk == null) ? null : chunk.get(slot & CHUNK_MASK);
+   }
+
+
+  /**
+   * Get value.
+   *
+   * @param key Variable name
+   * @return Value or null
+   * @see java.util.AbstractMap#get(java.lang.Object)
+   */
+  @Override
+  public String get(final Object key)
+   {
+    if (!(key instanceof String))
+     {
+      return null;
+     }
+    final int slot = SYMBOLS.find((String)key);
+    return (slot < 0) ? null : get(slot);
+   }
+
+
+  /**
+   * Contains key.
+   *
+   * @param key Variable name
+   * @return true if key is contained, false otherwise
+   * @see java.util.AbstractMap#containsKey(java.lang.Object)
+   */
+  @Override
+  public boolean containsKey(final Object key)
+   {
+    return get(key) != null;
+   }
+
+
+  /**
+   * Put value.
+   *
+   * @param key Variable name
+   * @param value Value
+   * @return Previous value or null
+   * @throws NullPointerException If key or value is null
+   * @see java.util.AbstractMap#put(java.lang.Object, java.lang.Object)
+   */
+  @Override
+  public String put(final String key, final String value)
+   {
+    Objects.requireNonNull(key, "key"); //$NON-NLS-1$
+    Objects.requireNonNull(value, "value"); //$NON-NLS-1$
+    final int slot = SYMBOLS.slot(key);
+    synchronized (this)
+     {
+      final String old = ensureWritable(slot).getAndSet(slot & CHUNK_MASK, value);
+      if (old == null)
+       {
+        ++this.count;
+       }
+      return old;
+     }
+   }
+
+
+  /**
+   * Remove value.
+   *
+   * @param key Variable name
+   * @return Previous value or null
+   * @see java.util.AbstractMap#remove(java.lang.Object)
+   */
+  @Override
+  public String remove(final Object key)
+   {
+    if (!(key instanceof String))
+     {
+      return null;
+     }
+    final int slot = SYMBOLS.find((String)key);
+    if (slot < 0)
+     {
+      return null;
+     }
+    synchronized (this)
+     {
+      if (get(slot) == null)
+       {
+        return null;
+       }
+      --this.count;
+      return ensureWritable(slot).getAndSet(slot & CHUNK_MASK, null);
+     }
+   }
+
+
+  /**
+   * Remove all values.
+   *
+   * @see java.util.AbstractMap#clear()
+   */
+  @Override
+  public synchronized void clear()
+   {
+    this.chunks = new AtomicReferenceArray<>(0);
+    this.shared = false;
+    this.owned = new boolean[0];
+    this.count = 0;
+   }
+
+
+  /**
+   * Get number of defined values.
+   *
+   * @return Number of values
+   * @see java.util.AbstractMap#size()
+   */
+  @Override
+  public int size()
+   {
+    return this.count;
+   }
+
+
+  /**
+   * Is empty.
+   *
+   * @return true if empty, false otherwise
+   * @see java.util.AbstractMap#isEmpty()
+   */
+  @Override
+  public boolean isEmpty()
+   {
+    return this.count == 0;
+   }
+
+
+  /**
+   * Get a snapshot of all entries in slot order.
+   *
+   * @return Unmodifiable entry set
+   * @see java.util.AbstractMap#entrySet()
+   */
+  @Override
+  public synchronized Set<Entry<String, String>> entrySet()
+   {
+    final AtomicReferenceArray<AtomicReferenceArray<String>> directory = this.chunks;
+    final Map<String, String> result = new LinkedHashMap<>();
+    for (int index = 0; index < directory.length(); ++index)
+     {
+      final AtomicReferenceArray<String> chunk = directory.get(index);
+      if (chunk != null)
+       {
+        for (int i = 0; i < CHUNK_SIZE; ++i)
+         {
+          final String value = chunk.get(i);
+          if (value != null)
+           {
+            result.put(SYMBOLS.getName((index << CHUNK_BITS) + i), value);
+           }
+         }
+       }
+     }
+    return Collections.unmodifiableMap(result).entrySet();
+   }
+
+ }
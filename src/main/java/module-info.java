@@ -9,6 +9,8 @@ module de.powerstat.phplib.templateengine
   // requires java.nio;
   // requires java.util;
 
+  requires java.management;
+  requires jdk.jfr;
   requires org.apache.logging.log4j;
 
  }
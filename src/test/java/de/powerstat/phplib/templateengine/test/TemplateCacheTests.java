@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine.test;
+
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.powerstat.phplib.templateengine.TemplateCache;
+import de.powerstat.phplib.templateengine.TemplateEngine;
+
+
+/**
+ * TemplateCache tests.
+ */
+public final class TemplateCacheTests
+ {
+  /**
+   * Template file 1 path constant.
+   */
+  private static final String TEMPLATE1_TMPL = "target/test-classes/templates/template1.tmpl"; //$NON-NLS-1$
+
+  /**
+   * Template file 2 path constant.
+   */
+  private static final String TEMPLATE2_TMPL = "target/test-classes/templates/template2.tmpl"; //$NON-NLS-1$
+
+  /**
+   * Template file 1 name constant.
+   */
+  private static final String FILE1 = "file1"; //$NON-NLS-1$
+
+  /**
+   * Cache counter not as expected message.
+   */
+  private static final String COUNTER_NOT_AS_EXPECTED = "Cache counter not as expected"; //$NON-NLS-1$
+
+  /**
+   * Result not as expected message.
+   */
+  private static final String RESULT_NOT_AS_EXPECTED = "Result not as expected"; //$NON-NLS-1$
+
+  /**
+   * Template cache.
+   */
+  private final TemplateCache cache = TemplateCache.getInstance();
+
+
+  /**
+   * Default constructor.
+   */
+  public TemplateCacheTests()
+   {
+    super();
+   }
+
+
+  /**
+   * Start every test with an empty cache.
+   */
+  @BeforeEach
+  public void clearCache()
+   {
+    this.cache.clear();
+   }
+
+
+  /**
+   * Restore default cache size.
+   */
+  @AfterEach
+  public void restoreCache()
+   {
+    this.cache.setMaxSize(TemplateCache.DEFAULT_MAX_SIZE);
+    this.cache.clear();
+   }
+
+
+  /**
+   * Load one template file with two engines.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void hitAndMiss() throws IOException
+   {
+    final long hits = this.cache.getHits();
+    final long misses = this.cache.getMisses();
+    final TemplateEngine engine1 = new TemplateEngine();
+    /* final boolean success = */ engine1.setFile(FILE1, new File(TEMPLATE1_TMPL));
+    final String result1 = engine1.subst(FILE1);
+    final TemplateEngine engine2 = new TemplateEngine();
+    /* final boolean success = */ engine2.setFile(FILE1, new File(TEMPLATE1_TMPL));
+    final String result2 = engine2.subst(FILE1);
+    assertAll(
+      () -> assertEquals(result1, result2, "Results not equal"), //$NON-NLS-1$
+      () -> assertEquals(1, this.cache.getCount(), COUNTER_NOT_AS_EXPECTED),
+      () -> assertEquals(misses + 1, this.cache.getMisses(), COUNTER_NOT_AS_EXPECTED),
+      () -> assertEquals(hits + 1, this.cache.getHits(), COUNTER_NOT_AS_EXPECTED),
+      () -> assertEquals(2L * result1.length(), this.cache.getSize(), COUNTER_NOT_AS_EXPECTED)
+    );
+   }
+
+
+  /**
+   * Evict least recently used template.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void evict() throws IOException
+   {
+    final long evictions = this.cache.getEvictions();
+    this.cache.setMaxSize(200);
+    final TemplateEngine engine = new TemplateEngine();
+    /* final boolean success = */ engine.setFile(FILE1, new File(TEMPLATE1_TMPL));
+    /* final boolean success = */ engine.setFile("file2", new File(TEMPLATE2_TMPL)); //$NON-NLS-1$
+    /* final String result = */ engine.subst(FILE1);
+    /* final String result = */ engine.subst("file2"); //$NON-NLS-1$
+    assertAll(
+      () -> assertEquals(1, this.cache.getCount(), COUNTER_NOT_AS_EXPECTED),
+      () -> assertEquals(evictions + 1, this.cache.getEvictions(), COUNTER_NOT_AS_EXPECTED),
+      () -> assertTrue(this.cache.getSize() <= 200, COUNTER_NOT_AS_EXPECTED)
+    );
+   }
+
+
+  /**
+   * Disabled caching.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void disabled() throws IOException
+   {
+    this.cache.setMaxSize(0);
+    final TemplateEngine engine = new TemplateEngine();
+    /* final boolean success = */ engine.setFile(FILE1, new File(TEMPLATE1_TMPL));
+    final String result = engine.subst(FILE1);
+    assertAll(
+      () -> assertEquals("123\n{variable1}\n456\n", result, "Result not as expected"), //$NON-NLS-1$ //$NON-NLS-2$
+      () -> assertEquals(0, this.cache.getCount(), COUNTER_NOT_AS_EXPECTED)
+    );
+   }
+
+
+  /**
+   * Invalidate cached template.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void invalidate() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    /* final boolean success = */ engine.setFile(FILE1, new File(TEMPLATE1_TMPL));
+    /* final String result = */ engine.subst(FILE1);
+    final boolean invalidated = this.cache.invalidate(new File(TEMPLATE1_TMPL).getAbsolutePath());
+    assertAll(
+      () -> assertTrue(invalidated, "Not invalidated"), //$NON-NLS-1$
+      () -> assertFalse(this.cache.invalidate("unknown"), "Invalidated"), //$NON-NLS-1$ //$NON-NLS-2$
+      () -> assertEquals(0, this.cache.getCount(), COUNTER_NOT_AS_EXPECTED),
+      () -> assertEquals(0, this.cache.getSize(), COUNTER_NOT_AS_EXPECTED)
+    );
+   }
+
+
+  /**
+   * Reload invalidated template that has not been modified within the engine.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   */
+  @Test
+  public void reloadInvalidated(@TempDir final Path tempDir) throws IOException
+   {
+    final Path file = tempDir.resolve("reload.tmpl"); //$NON-NLS-1$
+    Files.writeString(file, "old {variable1}\n"); //$NON-NLS-1$
+    final TemplateEngine engine = new TemplateEngine();
+    /* final boolean success = */ engine.setFile(FILE1, file.toFile());
+    /* final boolean success = */ engine.setFile("file2", file.toFile()); //$NON-NLS-1$
+    final String result1 = engine.subst(FILE1);
+    /* final String result = */ engine.subst("file2"); //$NON-NLS-1$
+    engine.setVar("file2", "modified"); //$NON-NLS-1$ //$NON-NLS-2$
+    Files.writeString(file, "new {variable1}\n"); //$NON-NLS-1$
+    /* final boolean invalidated = */ this.cache.invalidate(file.toAbsolutePath().toString());
+    final String result2 = engine.subst(FILE1);
+    final String result3 = engine.subst("file2"); //$NON-NLS-1$
+    assertAll(
+      () -> assertEquals("old {variable1}\n", result1, RESULT_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("new {variable1}\n", result2, RESULT_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("modified", result3, RESULT_NOT_AS_EXPECTED) //$NON-NLS-1$
+    );
+   }
+
+
+  /**
+   * Reload a cached template file for a new engine after its length changed, without watching.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   */
+  @Test
+  public void reloadChanged(@TempDir final Path tempDir) throws IOException
+   {
+    final Path file = tempDir.resolve("changed.tmpl"); //$NON-NLS-1$
+    Files.writeString(file, "old\n"); //$NON-NLS-1$
+    final TemplateEngine engine1 = new TemplateEngine();
+    /* final boolean success = */ engine1.setFile(FILE1, file.toFile());
+    final String result1 = engine1.subst(FILE1);
+    final TemplateEngine engine2 = new TemplateEngine();
+    /* final boolean success = */ engine2.setFile(FILE1, file.toFile());
+    final String result2 = engine2.subst(FILE1);
+    final long misses = this.cache.getMisses();
+    Files.writeString(file, "changed\n"); //$NON-NLS-1$
+    final TemplateEngine engine3 = new TemplateEngine();
+    /* final boolean success = */ engine3.setFile(FILE1, file.toFile());
+    final String result3 = engine3.subst(FILE1);
+    final String result4 = engine1.subst(FILE1);
+    assertAll(
+      () -> assertEquals("old\n", result1, RESULT_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("old\n", result2, RESULT_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("changed\n", result3, RESULT_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("changed\n", result4, RESULT_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals(misses + 1, this.cache.getMisses(), COUNTER_NOT_AS_EXPECTED)
+    );
+   }
+
+
+  /**
+   * Classpath lookups are done only once per template file name.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void lookupOnce() throws IOException
+   {
+    final long lookups = this.cache.getLookups();
+    for (int i = 0; i < 3; ++i)
+     {
+      final TemplateEngine engine = new TemplateEngine();
+      /* final boolean success5 = */ engine.setFile("file5", new File("template5.tmpl")); //$NON-NLS-1$ //$NON-NLS-2$
+      /* final boolean successUnknown = */ engine.setFile("unknown", new File("unknown.tmpl")); //$NON-NLS-1$ //$NON-NLS-2$
+      /* final String result = */ engine.subst("file5"); //$NON-NLS-1$
+     }
+    assertEquals(lookups + 2, this.cache.getLookups(), COUNTER_NOT_AS_EXPECTED);
+   }
+
+
+  /**
+   * Template file names not found on the classpath are looked up again after an invalidation.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void lookupMissingAfterInvalidate() throws IOException
+   {
+    final long lookups = this.cache.getLookups();
+    final TemplateEngine engine1 = new TemplateEngine();
+    /* final boolean success1 = */ engine1.setFile("unknown", new File("unknown.tmpl")); //$NON-NLS-1$ //$NON-NLS-2$
+    /* final boolean removed = */ this.cache.invalidate("unknown.tmpl"); //$NON-NLS-1$
+    final TemplateEngine engine2 = new TemplateEngine();
+    /* final boolean success2 = */ engine2.setFile("unknown", new File("unknown.tmpl")); //$NON-NLS-1$ //$NON-NLS-2$
+    assertEquals(lookups + 2, this.cache.getLookups(), COUNTER_NOT_AS_EXPECTED);
+   }
+
+
+  /**
+   * Reload watched template file after it has been changed.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   * @throws InterruptedException Interrupted
+   */
+  @Test
+  public void watch(@TempDir final Path tempDir) throws IOException, InterruptedException
+   {
+    final Path file = tempDir.resolve("watch.tmpl"); //$NON-NLS-1$
+    final Path other = tempDir.resolve("other.tmpl"); //$NON-NLS-1$
+    Files.writeString(file, "old\n"); //$NON-NLS-1$
+    Files.writeString(other, "other\n"); //$NON-NLS-1$
+    final long misses = this.cache.getMisses();
+    this.cache.startWatching();
+    try
+     {
+      final TemplateEngine engine = new TemplateEngine();
+      /* final boolean success = */ engine.setFile(FILE1, file.toFile());
+      /* final boolean success = */ engine.setFile("file2", other.toFile()); //$NON-NLS-1$
+      final String result1 = engine.subst(FILE1);
+      /* final String result = */ engine.subst("file2"); //$NON-NLS-1$
+      Files.writeString(file, "new\n"); //$NON-NLS-1$
+      // Events could arrive late and more than once, so poll until the reload has settled
+      String result2 = engine.subst(FILE1);
+      for (int wait = 0; (wait < 100) && (!"new\n".equals(result2) || (this.cache.getCount() != 2)); ++wait) //$NON-NLS-1$
+       {
+        Thread.sleep(100);
+        result2 = engine.subst(FILE1);
+       }
+      final String newResult = result2;
+      assertAll(
+        () -> assertTrue(this.cache.isWatching(), "Not watching"), //$NON-NLS-1$
+        () -> assertEquals("old\n", result1, RESULT_NOT_AS_EXPECTED), //$NON-NLS-1$
+        () -> assertEquals("new\n", newResult, RESULT_NOT_AS_EXPECTED), //$NON-NLS-1$
+        () -> assertTrue(this.cache.getCount() <= 2, COUNTER_NOT_AS_EXPECTED),
+        () -> assertTrue(this.cache.getMisses() >= (misses + 3), COUNTER_NOT_AS_EXPECTED)
+      );
+     }
+    finally
+     {
+      this.cache.stopWatching();
+     }
+   }
+
+
+  /**
+   * Negative maximum size.
+   */
+  @Test
+  public void maxSizeNegative()
+   {
+    assertThrows(IllegalArgumentException.class, () ->
+     {
+      this.cache.setMaxSize(-1);
+     }
+    );
+   }
+
+
+  /**
+   * Test toString.
+   */
+  @Test
+  public void testToString()
+   {
+    assertTrue(this.cache.toString().startsWith("TemplateCache[count=0, size=0, maxSize=67108864"), "toString not as expected"); //$NON-NLS-1$ //$NON-NLS-2$
+   }
+
+ }
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine.test;
+
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.powerstat.phplib.templateengine.RenderContext;
+import de.powerstat.phplib.templateengine.TemplateArchive;
+import de.powerstat.phplib.templateengine.TemplateCompiler;
+import de.powerstat.phplib.templateengine.TemplateEngine;
+import de.powerstat.phplib.templateengine.TemplateSet;
+
+
+/**
+ * TemplateCompiler and TemplateArchive tests.
+ */
+public final class TemplateCompilerTests
+ {
+  /**
+   * Templates directory path constant.
+   */
+  private static final String TEMPLATES = "target/test-classes/templates"; //$NON-NLS-1$
+
+  /**
+   * Template file 1 name constant.
+   */
+  private static final String TEMPLATE1_TMPL = "template1.tmpl"; //$NON-NLS-1$
+
+  /**
+   * Template file 2 name constant.
+   */
+  private static final String TEMPLATE2_TMPL = "template2.tmpl"; //$NON-NLS-1$
+
+  /**
+   * Sub directory name constant.
+   */
+  private static final String SUB = "sub"; //$NON-NLS-1$
+
+  /**
+   * Template variable 1 name constant.
+   */
+  private static final String VARIABLE1 = "variable1"; //$NON-NLS-1$
+
+  /**
+   * Template variable 2 name constant.
+   */
+  private static final String VARIABLE2 = "variable2"; //$NON-NLS-1$
+
+  /**
+   * Result not as expected message.
+   */
+  private static final String RESULT_NOT_AS_EXPECTED = "Result not as expected"; //$NON-NLS-1$
+
+
+  /**
+   * Default constructor.
+   */
+  public TemplateCompilerTests()
+   {
+    super();
+   }
+
+
+  /**
+   * Create a template directory with template1 and template2 within a sub directory.
+   *
+   * @param tempDir Temporary directory
+   * @return Template directory
+   * @throws IOException IO exception
+   */
+  private static Path createTemplates(final Path tempDir) throws IOException
+   {
+    final Path sub = Files.createDirectories(tempDir.resolve(SUB));
+    Files.copy(Paths.get(TEMPLATES, TEMPLATE1_TMPL), tempDir.resolve(TEMPLATE1_TMPL));
+    Files.copy(Paths.get(TEMPLATES, TEMPLATE2_TMPL), sub.resolve(TEMPLATE2_TMPL));
+    return tempDir;
+   }
+
+
+  /**
+   * Write and read an archive.
+   *
+   * @param archive Template archive
+   * @return Read template archive
+   * @throws IOException IO exception
+   */
+  private static TemplateArchive writeRead(final TemplateArchive archive) throws IOException
+   {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    archive.write(out);
+    return TemplateArchive.read(new ByteArrayInputStream(out.toByteArray()));
+   }
+
+
+  /**
+   * Test compile, write, read and render.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   */
+  @Test
+  public void compile(@TempDir final Path tempDir) throws IOException
+   {
+    final TemplateArchive archive = writeRead(TemplateCompiler.compile(createTemplates(tempDir)));
+    final TemplateEngine engine = TemplateEngine.newInstance(archive);
+    engine.setVar(VARIABLE1, "a"); //$NON-NLS-1$
+    engine.setVar(VARIABLE2, "b"); //$NON-NLS-1$
+    /* final String block = */ engine.parse("BLK1", "BLK1"); //$NON-NLS-1$ //$NON-NLS-2$
+    final String page = engine.subst("sub_template2"); //$NON-NLS-1$
+    assertAll(
+      () -> assertEquals(List.of("BLK1", "sub_template2", "template1"), archive.getNames(), RESULT_NOT_AS_EXPECTED), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+      () -> assertEquals("123\na\n456\n", engine.subst("template1"), RESULT_NOT_AS_EXPECTED), //$NON-NLS-1$ //$NON-NLS-2$
+      () -> assertEquals("123\na\n456\n\n789\nb\nabc\n\ndef\n{variable3}\nghi\n", page, RESULT_NOT_AS_EXPECTED) //$NON-NLS-1$
+    );
+   }
+
+
+  /**
+   * Test template set from archive.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   */
+  @Test
+  public void templateSet(@TempDir final Path tempDir) throws IOException
+   {
+    final TemplateSet templates = TemplateSet.of(writeRead(TemplateCompiler.compile(createTemplates(tempDir))));
+    final RenderContext context = templates.newContext();
+    context.setVar(VARIABLE2, "x"); //$NON-NLS-1$
+    assertEquals("\n789\nx\nabc\n", context.subst("BLK1"), RESULT_NOT_AS_EXPECTED); //$NON-NLS-1$ //$NON-NLS-2$
+   }
+
+
+  /**
+   * Test main writes an archive file.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   */
+  @Test
+  public void main(@TempDir final Path tempDir) throws IOException
+   {
+    final Path archiveFile = tempDir.resolve("out/templates.ptpl"); //$NON-NLS-1$
+    TemplateCompiler.main(new String[]{createTemplates(tempDir.resolve("src")).toString(), archiveFile.toString()}); //$NON-NLS-1$
+    try (InputStream stream = Files.newInputStream(archiveFile))
+     {
+      assertEquals(3, TemplateArchive.read(stream).getNames().size(), RESULT_NOT_AS_EXPECTED);
+     }
+   }
+
+
+  /**
+   * Test main with wrong arguments.
+   */
+  @Test
+  public void mainWrongArguments()
+   {
+    assertThrows(IllegalArgumentException.class, () ->
+     {
+      TemplateCompiler.main(new String[0]);
+     }
+    );
+   }
+
+
+  /**
+   * Test compile of a file instead of a directory.
+   */
+  @Test
+  public void compileNoDirectory()
+   {
+    assertThrows(IllegalArgumentException.class, () ->
+     {
+      /* final TemplateArchive archive = */ TemplateCompiler.compile(Paths.get(TEMPLATES, TEMPLATE1_TMPL));
+     }
+    );
+   }
+
+
+  /**
+   * Test compile of a template with an invalid file name.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   */
+  @Test
+  public void compileInvalidName(@TempDir final Path tempDir) throws IOException
+   {
+    Files.copy(Paths.get(TEMPLATES, TEMPLATE1_TMPL), tempDir.resolve("template-1.tmpl")); //$NON-NLS-1$
+    assertThrows(IllegalArgumentException.class, () ->
+     {
+      /* final TemplateArchive archive = */ TemplateCompiler.compile(tempDir);
+     }
+    );
+   }
+
+
+  /**
+   * Test compile of two templates that declare a block with the same name.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   */
+  @Test
+  public void compileDuplicateBlock(@TempDir final Path tempDir) throws IOException
+   {
+    Files.writeString(tempDir.resolve("list1.tmpl"), "<!-- BEGIN row -->1{variable1}<!-- END row -->"); //$NON-NLS-1$ //$NON-NLS-2$
+    Files.writeString(tempDir.resolve("list2.tmpl"), "<!-- BEGIN row -->2{variable2}<!-- END row -->"); //$NON-NLS-1$ //$NON-NLS-2$
+    assertThrows(IllegalStateException.class, () ->
+     {
+      /* final TemplateArchive archive = */ TemplateCompiler.compile(tempDir);
+     }
+    );
+   }
+
+
+  /**
+   * Test compile of two templates that are mapped to the same variable name.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   */
+  @Test
+  public void compileDuplicateName(@TempDir final Path tempDir) throws IOException
+   {
+    Files.copy(Paths.get(TEMPLATES, TEMPLATE1_TMPL), Files.createDirectories(tempDir.resolve("a")).resolve("b.tmpl")); //$NON-NLS-1$ //$NON-NLS-2$
+    Files.copy(Paths.get(TEMPLATES, TEMPLATE1_TMPL), tempDir.resolve("a_b.tmpl")); //$NON-NLS-1$
+    assertThrows(IllegalStateException.class, () ->
+     {
+      /* final TemplateArchive archive = */ TemplateCompiler.compile(tempDir);
+     }
+    );
+   }
+
+
+  /**
+   * Test read of data that is not an archive.
+   */
+  @Test
+  public void readInvalid()
+   {
+    assertThrows(IOException.class, () ->
+     {
+      /* final TemplateArchive archive = */ TemplateArchive.read(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 0, 0, 0, 1}));
+     }
+    );
+   }
+
+
+  /**
+   * Test read of a truncated archive.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   */
+  @Test
+  public void readTruncated(@TempDir final Path tempDir) throws IOException
+   {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    TemplateCompiler.compile(createTemplates(tempDir)).write(out);
+    final byte[] bytes = out.toByteArray();
+    final byte[] truncated = new byte[bytes.length - 3];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+    assertThrows(IOException.class, () ->
+     {
+      /* final TemplateArchive archive = */ TemplateArchive.read(new ByteArrayInputStream(truncated));
+     }
+    );
+   }
+
+
+  /**
+   * Test toString.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   */
+  @Test
+  public void testToString(@TempDir final Path tempDir) throws IOException
+   {
+    assertEquals("TemplateArchive[names=[BLK1, sub_template2, template1]]", TemplateCompiler.compile(createTemplates(tempDir)).toString(), RESULT_NOT_AS_EXPECTED); //$NON-NLS-1$
+   }
+
+ }
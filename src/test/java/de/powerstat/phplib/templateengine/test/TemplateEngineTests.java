@@ -9,24 +9,52 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import de.powerstat.phplib.templateengine.ParseJob;
 import de.powerstat.phplib.templateengine.TemplateEngine;
 import de.powerstat.phplib.templateengine.TemplateEngine.HandleUndefined;
+import de.powerstat.phplib.templateengine.VarName;
 
 
 /**
@@ -149,6 +177,11 @@ public final class TemplateEngineTests
    */
   private static final String BLK1 = "BLK1"; //$NON-NLS-1$
 
+  /**
+   * Template with nested blocks.
+   */
+  private static final String NESTED_BLOCKS = "a<!-- BEGIN outer -->\nd<!--  BEGIN inner\t-->{x}<!-- END inner -->e\n<!-- END outer -->b<!-- BEGIN other --> o <!-- END other -->c"; //$NON-NLS-1$
+
   /**
    * Template output variable name constant.
    */
@@ -394,6 +427,348 @@ public final class TemplateEngineTests
    }
 
 
+  /**
+   * Test subst after the template variable has been changed.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void substRecompile() throws IOException
+   {
+    final TemplateEngine engine = TemplateEngine.newInstance("a{variable1}b"); //$NON-NLS-1$
+    engine.setVar(VARIABLE1, VALUE1);
+    final String result1 = engine.subst(TEMPLATE);
+    engine.setVar(TEMPLATE, "{variable1}{variable1}"); //$NON-NLS-1$
+    final String result2 = engine.subst(TEMPLATE);
+    assertAll(
+      () -> assertEquals("aTEST1b", result1, VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("TEST1TEST1", result2, VARIABLE_VALUE_NOT_AS_EXPECTED) //$NON-NLS-1$
+    );
+   }
+
+
+  /**
+   * Test subst with regular expression special characters within the value.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void substSpecialCharacters() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    /* final boolean success = */ engine.setFile(FILE1, new File(TEMPLATE1_TMPL));
+    engine.setVar(VARIABLE1, "$1 \\ {variable1}"); //$NON-NLS-1$
+    final String variableValue = engine.subst(FILE1);
+    assertEquals("123\n$1 \\ {variable1}\n456\n", variableValue, VARIABLE_VALUE_NOT_AS_EXPECTED); //$NON-NLS-1$
+   }
+
+
+  /**
+   * Test subst with variables that are referenced more than once and a variable that is set after compilation.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void substRepeatedVariables() throws IOException
+   {
+    final TemplateEngine engine = TemplateEngine.newInstance("{a}-{b}-{a}-{unknownVariable}"); //$NON-NLS-1$
+    engine.setVar("a", "1"); //$NON-NLS-1$ //$NON-NLS-2$
+    final String first = engine.subst(TEMPLATE);
+    engine.setVar("b", "2"); //$NON-NLS-1$ //$NON-NLS-2$
+    engine.setVar("unknownVariable", "3"); //$NON-NLS-1$ //$NON-NLS-2$
+    final String second = engine.subst(TEMPLATE);
+    assertAll(
+      () -> assertEquals("1-{b}-1-{unknownVariable}", first, VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("1-2-1-3", second, VARIABLE_VALUE_NOT_AS_EXPECTED) //$NON-NLS-1$
+    );
+   }
+
+
+  /**
+   * Test subst of a value that references a variable which is set after the value has been compiled.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void substValueLateVariable() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    engine.setVar(VARIABLE1, "a{lateValueVariable}b"); //$NON-NLS-1$
+    final String first = engine.subst(VARIABLE1);
+    engine.setVar("lateValueVariable", "1"); //$NON-NLS-1$ //$NON-NLS-2$
+    final String second = engine.subst(VARIABLE1);
+    assertAll(
+      () -> assertEquals("a{lateValueVariable}b", first, VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("a1b", second, VARIABLE_VALUE_NOT_AS_EXPECTED) //$NON-NLS-1$
+    );
+   }
+
+
+  /**
+   * Test subst of a maximum size template.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void substMaxSize() throws IOException
+   {
+    final TemplateEngine engine = TemplateEngine.newInstance(new File(TEMPLATE9_TMPL));
+    final String variableValue = engine.subst(TEMPLATE);
+    assertEquals(readStringFromFile(new File(TEMPLATE9_TMPL)).length(), variableValue.length(), VARIABLE_VALUE_NOT_AS_EXPECTED);
+   }
+
+
+  /**
+   * Test subst to an appendable.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void substAppendable() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    /* final boolean success = */ engine.setFile(FILE1, new File(TEMPLATE1_TMPL));
+    engine.setVar(VARIABLE1, VALUE1);
+    final StringWriter writer = new StringWriter();
+    engine.subst(FILE1, writer);
+    assertEquals("123\nTEST1\n456\n", writer.toString(), VARIABLE_VALUE_NOT_AS_EXPECTED); //$NON-NLS-1$
+   }
+
+
+  /**
+   * Test lazy variables are only evaluated when referenced and at most once.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void setVarSupplier() throws IOException
+   {
+    final AtomicInteger used = new AtomicInteger();
+    final AtomicInteger unused = new AtomicInteger();
+    final TemplateEngine engine = TemplateEngine.newInstance("{variable1}-{variable1}"); //$NON-NLS-1$
+    engine.setVar(VARIABLE1, () ->
+     {
+      used.incrementAndGet();
+      return VALUE1;
+     }
+    );
+    engine.setVar(VARIABLE2, () ->
+     {
+      unused.incrementAndGet();
+      return VALUE2;
+     }
+    );
+    final TemplateEngine copy = new TemplateEngine(engine);
+    final String result1 = engine.subst(TEMPLATE);
+    final String result2 = engine.subst(TEMPLATE);
+    final String result3 = copy.subst(TEMPLATE);
+    assertAll(
+      () -> assertEquals("TEST1-TEST1", result1, VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("TEST1-TEST1", result2, VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("TEST1-TEST1", result3, VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals(1, used.get(), VARIABLE_VALUE_NOT_AS_EXPECTED),
+      () -> assertEquals(0, unused.get(), VARIABLE_VALUE_NOT_AS_EXPECTED),
+      () -> assertEquals(List.of(TEMPLATE, VARIABLE1, VARIABLE2), sorted(engine.getVars()), VARIABLE_VALUE_NOT_AS_EXPECTED),
+      () -> assertEquals(0, unused.get(), VARIABLE_VALUE_NOT_AS_EXPECTED)
+    );
+   }
+
+
+  /**
+   * Test lazy variables could be overwritten, unset and parsed.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void setVarSupplierOverwrite() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    engine.setVar(VARIABLE1, () -> "lazy"); //$NON-NLS-1$
+    engine.setVar(VARIABLE1, VALUE1);
+    final String value1 = engine.getVar(VARIABLE1);
+    engine.setVar(VARIABLE2, () -> null);
+    final String value2 = engine.getVar(VARIABLE2);
+    engine.setVar(VARIABLE3, () -> new StringBuilder("{variable1}")); //$NON-NLS-1$
+    final String parsed = engine.parse(OUTPUT, VARIABLE3);
+    engine.unsetVar(VARIABLE3);
+    assertAll(
+      () -> assertEquals(VALUE1, value1, VARIABLE_VALUE_NOT_AS_EXPECTED),
+      () -> assertEquals("", value2, VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals(VALUE1, parsed, VARIABLE_VALUE_NOT_AS_EXPECTED),
+      () -> assertEquals("", engine.getVar(VARIABLE3), VARIABLE_VALUE_NOT_AS_EXPECTED) //$NON-NLS-1$
+    );
+   }
+
+
+  /**
+   * Test set lazy variable with null supplier.
+   */
+  @Test
+  public void setVarSupplierNull()
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    assertThrows(NullPointerException.class, () ->
+     {
+      engine.setVar(VARIABLE1, (Supplier<String>)null);
+     }
+    );
+   }
+
+
+  /**
+   * Test re-rendering reuses the output of blocks whose variables are unchanged.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void incrementalRender() throws IOException
+   {
+    final TemplateEngine engine = TemplateEngine.newInstance("<!-- BEGIN a -->[{variable1}]<!-- END a --><!-- BEGIN b -->({variable2})<!-- END b -->"); //$NON-NLS-1$
+    /* final boolean success = */ engine.setAllBlocks(TEMPLATE);
+    engine.setVar(VARIABLE1, VALUE1);
+    engine.setVar(VARIABLE2, VALUE2);
+    final String a1 = engine.subst("a"); //$NON-NLS-1$
+    final String b1 = engine.subst("b"); //$NON-NLS-1$
+    final String a2 = engine.subst("a"); //$NON-NLS-1$
+    engine.setVar(VARIABLE1, VALUE3);
+    final String a3 = engine.subst("a"); //$NON-NLS-1$
+    final String b3 = engine.subst("b"); //$NON-NLS-1$
+    assertAll(
+      () -> assertEquals("[TEST1]", a1, VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertSame(a1, a2, VARIABLE_VALUE_NOT_AS_EXPECTED),
+      () -> assertEquals("[TEST3]", a3, VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertNotSame(a1, a3, VARIABLE_VALUE_NOT_AS_EXPECTED),
+      () -> assertSame(b1, b3, VARIABLE_VALUE_NOT_AS_EXPECTED)
+    );
+   }
+
+
+  /**
+   * Test re-rendering a page after one block changed.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void incrementalRenderPage() throws IOException
+   {
+    final TemplateEngine engine = TemplateEngine.newInstance("{head}|{body}"); //$NON-NLS-1$
+    engine.setVar("headTmpl", "<{variable1}>"); //$NON-NLS-1$ //$NON-NLS-2$
+    engine.setVar("bodyTmpl", "<{variable2}>"); //$NON-NLS-1$ //$NON-NLS-2$
+    engine.setVar(VARIABLE1, VALUE1);
+    engine.setVar(VARIABLE2, VALUE2);
+    /* final String head = */ engine.parse("head", "headTmpl"); //$NON-NLS-1$ //$NON-NLS-2$
+    final String body1 = engine.parse("body", "bodyTmpl"); //$NON-NLS-1$ //$NON-NLS-2$
+    final String page1 = engine.parse(OUTPUT, TEMPLATE);
+    /* final String head = */ engine.parse("head", "headTmpl"); //$NON-NLS-1$ //$NON-NLS-2$
+    /* final String body = */ engine.parse("body", "bodyTmpl"); //$NON-NLS-1$ //$NON-NLS-2$
+    final String page2 = engine.parse(OUTPUT, TEMPLATE);
+    engine.setVar(VARIABLE1, VALUE3);
+    /* final String head = */ engine.parse("head", "headTmpl"); //$NON-NLS-1$ //$NON-NLS-2$
+    final String body3 = engine.parse("body", "bodyTmpl"); //$NON-NLS-1$ //$NON-NLS-2$
+    final String page3 = engine.parse(OUTPUT, TEMPLATE);
+    assertAll(
+      () -> assertEquals("<TEST1>|<TEST2>", page1, VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertSame(page1, page2, VARIABLE_VALUE_NOT_AS_EXPECTED),
+      () -> assertSame(body1, body3, VARIABLE_VALUE_NOT_AS_EXPECTED),
+      () -> assertEquals("<TEST3>|<TEST2>", page3, VARIABLE_VALUE_NOT_AS_EXPECTED) //$NON-NLS-1$
+    );
+   }
+
+
+  /**
+   * Test subst to an output stream.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void substOutputStream() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    /* final boolean success = */ engine.setFile(FILE1, new File(TEMPLATE1_TMPL));
+    engine.setVar(VARIABLE1, "äöü"); //$NON-NLS-1$
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    engine.substBytes(FILE1, stream);
+    assertEquals("123\näöü\n456\n", stream.toString(StandardCharsets.UTF_8), VARIABLE_VALUE_NOT_AS_EXPECTED); //$NON-NLS-1$
+   }
+
+
+  /**
+   * Test subst to a print stream, that is an Appendable and an OutputStream.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void substPrintStream() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    /* final boolean success = */ engine.setFile(FILE1, new File(TEMPLATE1_TMPL));
+    engine.setVar(VARIABLE1, VALUE1);
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    try (PrintStream print = new PrintStream(stream, true, StandardCharsets.UTF_8))
+     {
+      engine.subst(FILE1, print);
+     }
+    assertEquals("123\nTEST1\n456\n", stream.toString(StandardCharsets.UTF_8), VARIABLE_VALUE_NOT_AS_EXPECTED); //$NON-NLS-1$
+   }
+
+
+  /**
+   * Test subst to a byte buffer.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void substByteBuffer() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    /* final boolean success = */ engine.setFile(FILE1, new File(TEMPLATE1_TMPL));
+    engine.setVar(VARIABLE1, "€ß"); //$NON-NLS-1$
+    final ByteBuffer buffer = ByteBuffer.allocate(64);
+    engine.substBytes(VarName.of(FILE1), buffer);
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    engine.substBytes(VarName.of(FILE1), stream);
+    buffer.flip();
+    assertAll(
+      () -> assertEquals("123\n€ß\n456\n", StandardCharsets.UTF_8.decode(buffer).toString(), VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("123\n€ß\n456\n", stream.toString(StandardCharsets.UTF_8), VARIABLE_VALUE_NOT_AS_EXPECTED) //$NON-NLS-1$
+    );
+   }
+
+
+  /**
+   * Test subst to a byte buffer that is to small.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void substByteBufferOverflow() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    /* final boolean success = */ engine.setFile(FILE1, new File(TEMPLATE1_TMPL));
+    engine.setVar(VARIABLE1, "€ß"); //$NON-NLS-1$
+    final ByteBuffer buffer = ByteBuffer.allocate(13);
+    assertAll(
+      () -> assertThrows(BufferOverflowException.class, () -> engine.substBytes(FILE1, buffer)),
+      () -> assertEquals(0, buffer.position(), VARIABLE_VALUE_NOT_AS_EXPECTED)
+    );
+   }
+
+
+  /**
+   * Test subst of an unknown variable to an appendable.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void substAppendableUnknown() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    final StringBuilder builder = new StringBuilder();
+    engine.subst(FILE1, builder);
+    assertEquals(0, builder.length(), VARIABLE_VALUE_NOT_AS_EXPECTED);
+   }
+
+
   /**
    * Get undefined variables from template.
    *
@@ -536,6 +911,49 @@ public final class TemplateEngineTests
    }
 
 
+  /**
+   * Test set, subst, parse and unset with pre-validated variable names.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void varNameOverloads() throws IOException
+   {
+    final VarName file1 = VarName.of(FILE1);
+    final VarName variable1 = VarName.of(VARIABLE1);
+    final VarName target = VarName.of(VARIABLE2);
+    final TemplateEngine engine = new TemplateEngine();
+    /* final boolean success = */ engine.setFile(FILE1, new File(TEMPLATE1_TMPL));
+    final List<String> undefinedBefore = engine.getUndefined(file1);
+    engine.setVar(variable1, TEST);
+    final String substResult = engine.subst(file1);
+    final String parseResult = engine.parse(target, file1);
+    engine.unsetVar(variable1);
+    assertAll(
+      () -> assertEquals(List.of(VARIABLE1), undefinedBefore, "Undefined variables not as expected"), //$NON-NLS-1$
+      () -> assertEquals("123\nTEST\n456\n", substResult, VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals(substResult, parseResult, VARIABLE_VALUE_NOT_AS_EXPECTED),
+      () -> assertEquals(substResult, engine.getVar(target), VARIABLE_VALUE_NOT_AS_EXPECTED),
+      () -> assertEquals("", engine.getVar(variable1), VARIABLE_VALUE_NOT_AS_EXPECTED) //$NON-NLS-1$
+    );
+   }
+
+
+  /**
+   * Test set variable with null VarName.
+   */
+  @Test
+  public void setVarVarNameNull()
+   {
+    assertThrows(NullPointerException.class, () ->
+     {
+      final TemplateEngine engine = new TemplateEngine();
+      engine.setVar((VarName)null, TEST);
+     }
+    );
+   }
+
+
   /**
    * Test set empty variable with value.
    */
@@ -677,44 +1095,131 @@ public final class TemplateEngineTests
 
 
   /**
-   * Test set non existing block.
+   * Test get replace with comment variable parsing to an appendable.
+   *
+   * @throws IOException IO exception
    */
   @Test
-  public void setBlockFailure()
+  public void getCommentAppendable() throws IOException
    {
-    assertThrows(IllegalStateException.class, () ->
-     {
-      final TemplateEngine engine = new TemplateEngine(HandleUndefined.COMMENT);
-      /* final boolean successFile = */ engine.setFile(FILE2, new File(TEMPLATE2_TMPL));
-      /* String substResult = */ engine.subst(FILE2);
-      /* final boolean successBlock = */ engine.setBlock(FILE2, "blk2"); //$NON-NLS-1$
-     }
-    );
+    final TemplateEngine engine = new TemplateEngine(HandleUndefined.COMMENT);
+    /* final boolean success = */ engine.setFile(FILE1, new File(TEMPLATE1_TMPL));
+    /* String parseResult = */ engine.parse(OUTPUT, FILE1);
+    final StringWriter writer = new StringWriter();
+    engine.get(OUTPUT, writer);
+    assertEquals("123\n<!-- Template variable 'variable1' undefined -->\n456\n", writer.toString(), "Output not as expected"); //$NON-NLS-1$ //$NON-NLS-2$
    }
 
 
   /**
-   * Test set empty block name.
+   * Test subst with finish in one pass.
+   *
+   * @throws IOException IO exception
    */
   @Test
-  public void setBlockEmpty()
+  public void substFinish() throws IOException
    {
-    assertThrows(IllegalArgumentException.class, () ->
-     {
-      final TemplateEngine engine = new TemplateEngine(HandleUndefined.COMMENT);
-      /* final boolean successBlock = */ engine.setBlock("", ""); //$NON-NLS-1$ //$NON-NLS-2$
-     }
+    final TemplateEngine engine = new TemplateEngine(HandleUndefined.COMMENT);
+    /* final boolean success = */ engine.setFile(FILE1, new File(TEMPLATE1_TMPL));
+    final String output = engine.substFinish(FILE1);
+    final StringWriter writer = new StringWriter();
+    engine.substFinish(VarName.of(FILE1), writer);
+    assertAll(
+      () -> assertEquals("123\n<!-- Template variable 'variable1' undefined -->\n456\n", output, "Output not as expected"), //$NON-NLS-1$ //$NON-NLS-2$
+      () -> assertEquals(output, writer.toString(), "Output not as expected") //$NON-NLS-1$
     );
    }
 
 
   /**
-   * Test set existing block.
+   * Test subst with finish in one pass is the same as finish after subst for all handlings.
+   *
+   * Covers references within values and references spanning a literal and a value.
    *
    * @throws IOException IO exception
    */
   @Test
-  public void setBlock() throws IOException
+  public void substFinishSameAsFinish() throws IOException
+   {
+    for (final HandleUndefined unknowns : HandleUndefined.values())
+     {
+      final TemplateEngine engine = new TemplateEngine(unknowns);
+      engine.setVar(TEMPLATE, "a {{variable1}} b {variable2} c {x-y} d {variable3}{ e {}\n{"); //$NON-NLS-1$
+      engine.setVar(VARIABLE1, "v1"); //$NON-NLS-1$
+      engine.setVar(VARIABLE2, "{inner} {"); //$NON-NLS-1$
+      final String expected = engine.finish(engine.subst(TEMPLATE));
+      assertEquals(expected, engine.substFinish(TEMPLATE), unknowns.name());
+     }
+   }
+
+
+  /**
+   * Test subst with finish of an unknown variable.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void substFinishUnknown() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    assertEquals("", engine.substFinish(FILE1), "Output not as expected"); //$NON-NLS-1$ //$NON-NLS-2$
+   }
+
+
+  /**
+   * Test subst with finish with an empty varname.
+   */
+  @Test
+  public void substFinishEmpty()
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    assertThrows(IllegalArgumentException.class, () ->
+     {
+      /* final String output = */ engine.substFinish(""); //$NON-NLS-1$
+     }
+    );
+   }
+
+
+  /**
+   * Test set non existing block.
+   */
+  @Test
+  public void setBlockFailure()
+   {
+    assertThrows(IllegalStateException.class, () ->
+     {
+      final TemplateEngine engine = new TemplateEngine(HandleUndefined.COMMENT);
+      /* final boolean successFile = */ engine.setFile(FILE2, new File(TEMPLATE2_TMPL));
+      /* String substResult = */ engine.subst(FILE2);
+      /* final boolean successBlock = */ engine.setBlock(FILE2, "blk2"); //$NON-NLS-1$
+     }
+    );
+   }
+
+
+  /**
+   * Test set empty block name.
+   */
+  @Test
+  public void setBlockEmpty()
+   {
+    assertThrows(IllegalArgumentException.class, () ->
+     {
+      final TemplateEngine engine = new TemplateEngine(HandleUndefined.COMMENT);
+      /* final boolean successBlock = */ engine.setBlock("", ""); //$NON-NLS-1$ //$NON-NLS-2$
+     }
+    );
+   }
+
+
+  /**
+   * Test set existing block.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void setBlock() throws IOException
    {
     final TemplateEngine engine = new TemplateEngine(HandleUndefined.COMMENT);
     /* final boolean successFile = */ engine.setFile(FILE2, new File(TEMPLATE2_TMPL));
@@ -728,6 +1233,116 @@ public final class TemplateEngineTests
    }
 
 
+  /**
+   * Test set inner block and then the enclosing outer block of the same parent.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void setBlockInnerThenOuter() throws IOException
+   {
+    final TemplateEngine engine = TemplateEngine.newInstance("x<!-- BEGIN outer -->a<!-- BEGIN inner -->b<!-- END inner -->c<!-- END outer -->y"); //$NON-NLS-1$
+    final boolean successInner = engine.setBlock(TEMPLATE, "inner"); //$NON-NLS-1$
+    final boolean successOuter = engine.setBlock(TEMPLATE, "outer"); //$NON-NLS-1$
+    assertAll(
+      () -> assertTrue(successInner, "Block could not be cut out successfully!"), //$NON-NLS-1$
+      () -> assertTrue(successOuter, "Block could not be cut out successfully!"), //$NON-NLS-1$
+      () -> assertEquals("x{outer}y", engine.getVar(TEMPLATE), "Template value not as expected"), //$NON-NLS-1$ //$NON-NLS-2$
+      () -> assertEquals("a{inner}c", engine.getVar("outer"), "Block value not as expected"), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+      () -> assertEquals("b", engine.getVar("inner"), "Block value not as expected") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    );
+   }
+
+
+  /**
+   * Test set existing block with pre-validated names.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void setBlockVarName() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine(HandleUndefined.COMMENT);
+    /* final boolean successFile = */ engine.setFile(FILE2, new File(TEMPLATE2_TMPL));
+    final boolean successBlock = engine.setBlock(VarName.of(FILE2), VarName.of(BLK1), VarName.of(BLK1_BLK));
+    final String block = engine.getVar(VarName.of(BLK1));
+    assertAll(
+      () -> assertTrue(successBlock, "Block could not be cut out successfully!"), //$NON-NLS-1$
+      () -> assertEquals("\n789\n{variable2}\nabc\n", block, "Block value not as expected") //$NON-NLS-1$ //$NON-NLS-2$
+    );
+   }
+
+
+  /**
+   * Test set nested blocks one after another.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void setBlockNested() throws IOException
+   {
+    final TemplateEngine engine = TemplateEngine.newInstance(NESTED_BLOCKS);
+    final boolean success1 = engine.setBlock(TEMPLATE, "outer"); //$NON-NLS-1$
+    final boolean success2 = engine.setBlock("outer", "inner", "inners"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    final boolean success3 = engine.setBlock(TEMPLATE, "other"); //$NON-NLS-1$
+    assertAll(
+      () -> assertTrue(success1 && success2 && success3, "Block could not be cut out successfully!"), //$NON-NLS-1$
+      () -> assertEquals("a{outer}b{other}c", engine.getVar(TEMPLATE), "Template value not as expected"), //$NON-NLS-1$ //$NON-NLS-2$
+      () -> assertEquals("\nd{inners}e\n", engine.getVar("outer"), "Block value not as expected"), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+      () -> assertEquals("{x}", engine.getVar("inner"), "Block value not as expected"), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+      () -> assertEquals(" o ", engine.getVar("other"), "Block value not as expected") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    );
+   }
+
+
+  /**
+   * Test set all blocks at once.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void setAllBlocks() throws IOException
+   {
+    final TemplateEngine engine = TemplateEngine.newInstance(NESTED_BLOCKS);
+    final boolean success = engine.setAllBlocks(TEMPLATE);
+    assertAll(
+      () -> assertTrue(success, "Blocks could not be cut out successfully!"), //$NON-NLS-1$
+      () -> assertEquals("a{outer}b{other}c", engine.getVar(TEMPLATE), "Template value not as expected"), //$NON-NLS-1$ //$NON-NLS-2$
+      () -> assertEquals("\nd{inner}e\n", engine.getVar("outer"), "Block value not as expected"), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+      () -> assertEquals("{x}", engine.getVar("inner"), "Block value not as expected"), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+      () -> assertEquals(" o ", engine.getVar("other"), "Block value not as expected") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    );
+   }
+
+
+  /**
+   * Test set all blocks of an unknown parent.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void setAllBlocksUnknown() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    assertFalse(engine.setAllBlocks(TEMPLATE), "SetAllBlocks not as expected"); //$NON-NLS-1$
+   }
+
+
+  /**
+   * Test set all blocks with wrong parent name.
+   */
+  @Test
+  public void setAllBlocksParentWrong()
+   {
+    assertThrows(IllegalArgumentException.class, () ->
+     {
+      final TemplateEngine engine = new TemplateEngine();
+      /* final boolean success = */ engine.setAllBlocks(VARIABLE4);
+     }
+    );
+   }
+
+
   /**
    * Test set block with to long parent name.
    */
@@ -937,6 +1552,53 @@ public final class TemplateEngineTests
    }
 
 
+  /**
+   * Test parsing with many appends.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void parseAppendMany() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine(HandleUndefined.COMMENT);
+    engine.setVar(BLK1, "<{variable1}>"); //$NON-NLS-1$
+    final StringBuilder expected = new StringBuilder();
+    for (int row = 0; row < 1000; ++row)
+     {
+      engine.setVar(VARIABLE1, Integer.toString(row));
+      /* String parseResult = */ engine.parse(BLK1_BLK, BLK1, true);
+      expected.append('<').append(row).append('>');
+     }
+    assertEquals(expected.toString(), engine.getVar(BLK1_BLK), "Block value not as expected"); //$NON-NLS-1$
+   }
+
+
+  /**
+   * Test parsing with append after the target has been read and reset.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void parseAppendReadAndReset() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine(HandleUndefined.COMMENT);
+    engine.setVar(BLK1, VALUE1);
+    /* String parseResult = */ engine.parse(BLK1_BLK, BLK1, true);
+    final String value1 = engine.getVar(BLK1_BLK);
+    /* String parseResult = */ engine.parse(BLK1_BLK, BLK1, true);
+    final String value2 = engine.getVar(BLK1_BLK);
+    /* String parseResult = */ engine.parse(BLK1_BLK, BLK1, true);
+    engine.setVar(BLK1_BLK, VALUE2);
+    /* String parseResult = */ engine.parse(BLK1_BLK, BLK1, true);
+    final String value3 = engine.getVar(BLK1_BLK);
+    assertAll(
+      () -> assertEquals("TEST1", value1, "Block value not as expected"), //$NON-NLS-1$ //$NON-NLS-2$
+      () -> assertEquals("TEST1TEST1", value2, "Block value not as expected"), //$NON-NLS-1$ //$NON-NLS-2$
+      () -> assertEquals("TEST2TEST1", value3, "Block value not as expected") //$NON-NLS-1$ //$NON-NLS-2$
+    );
+   }
+
+
   /**
    * Test a specific parsing problem.
    *
@@ -951,6 +1613,8 @@ public final class TemplateEngineTests
    * then the variable will not be replaced within the block. When the block will be parsed first,
    * then the variable will also be replaced within the block.
    *
+   * Since templates are compiled and substituted in a single pass, variables within the unparsed block are never replaced.
+   *
    * @throws IOException IO exception
    */
   @Test
@@ -967,8 +1631,8 @@ public final class TemplateEngineTests
     final String output = engine.parse(OUTPUT, FILE3);
     assertAll(
       () -> assertTrue(successBlock, "Could not cut out block!"), //$NON-NLS-1$
-      () -> assertEquals("000 \n111 \n \nabc {test1} def 333 ghi \n \n333 \n000 \n", output, "Output value not as expected") // Buggy result, because of order problem //$NON-NLS-1$ //$NON-NLS-2$
-      // () -> assertEquals("000 \n111 \n \nabc {test1} def {test3} ghi \n \n333 \n000 \n", output) // Wanted result without block parsing //$NON-NLS-1$
+      // () -> assertEquals("000 \n111 \n \nabc {test1} def 333 ghi \n \n333 \n000 \n", output) // Buggy result, because of order problem //$NON-NLS-1$
+      () -> assertEquals("000 \n111 \n \nabc {test1} def {test3} ghi \n \n333 \n000 \n", output, "Output value not as expected") // Wanted result without block parsing //$NON-NLS-1$ //$NON-NLS-2$
       // () -> assertEquals("000 \n111 \n \nabc 111 def 333 ghi \n \n333 \n000 \n", output) // Result with block parsing //$NON-NLS-1$
     );
 
@@ -1392,12 +2056,12 @@ public final class TemplateEngineTests
 
 
   /**
-   * Test newInstance from directory.
+   * Test newInstance from directory with a to large template file.
    */
   @Test
   public void newInstanceFileFromDirectory()
    {
-    assertThrows(AssertionError.class, () ->
+    assertThrows(IllegalArgumentException.class, () ->
      {
       /* final TemplateEngine engine = */ TemplateEngine.newInstance(new File("target/test-classes/templates/")); //$NON-NLS-1$
      }
@@ -1405,6 +2069,191 @@ public final class TemplateEngineTests
    }
 
 
+  /**
+   * Sort variable names, because getVars() returns them in internal order.
+   *
+   * @param vars Variable names
+   * @return Sorted variable names
+   */
+  private static List<String> sorted(final List<String> vars)
+   {
+    final List<String> result = new ArrayList<>(vars);
+    Collections.sort(result);
+    return result;
+   }
+
+
+  /**
+   * Create a template directory with template1 and template2 within a sub directory.
+   *
+   * @param directory Directory
+   * @return Directory
+   * @throws IOException IO exception
+   */
+  private static Path createTemplateDirectory(final Path directory) throws IOException
+   {
+    final Path sub = Files.createDirectories(directory.resolve("sub")); //$NON-NLS-1$
+    Files.copy(Paths.get(TEMPLATE1_TMPL), directory.resolve("template1.tmpl")); //$NON-NLS-1$
+    Files.copy(Paths.get(TEMPLATE2_TMPL), sub.resolve("template2.tmpl")); //$NON-NLS-1$
+    Files.writeString(directory.resolve("readme.txt"), "no template"); //$NON-NLS-1$ //$NON-NLS-2$
+    return directory;
+   }
+
+
+  /**
+   * Test newInstance from directory.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   */
+  @Test
+  public void newInstanceDirectory(@TempDir final Path tempDir) throws IOException
+   {
+    final TemplateEngine engine = TemplateEngine.newInstance(createTemplateDirectory(tempDir).toFile());
+    engine.setVar(VARIABLE1, VALUE1);
+    final Duration duration = engine.warmUp();
+    assertAll(
+      () -> assertEquals(List.of("sub_template2", "template1", VARIABLE1), sorted(engine.getVars()), VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$ //$NON-NLS-2$
+      () -> assertEquals("123\nTEST1\n456\n", engine.subst("template1"), VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$ //$NON-NLS-2$
+      () -> assertFalse(duration.isNegative(), VARIABLE_VALUE_NOT_AS_EXPECTED)
+    );
+   }
+
+
+  /**
+   * Test newInstance from a directory with a template that has the same file name as a classpath resource.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   */
+  @Test
+  public void newInstanceDirectoryNotShadowed(@TempDir final Path tempDir) throws IOException
+   {
+    /* final Path file = */ Files.writeString(Files.createDirectories(tempDir.resolve("sub")).resolve("template5.tmpl"), "dir\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    final TemplateEngine engine = TemplateEngine.newInstance(tempDir.toFile());
+    assertEquals("dir\n", engine.subst("sub_template5"), VARIABLE_VALUE_NOT_AS_EXPECTED); //$NON-NLS-1$ //$NON-NLS-2$
+   }
+
+
+  /**
+   * Test newInstance from a directory with two templates that are mapped to the same variable name.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   */
+  @Test
+  public void newInstanceDirectoryDuplicateName(@TempDir final Path tempDir) throws IOException
+   {
+    /* final Path file1 = */ Files.writeString(Files.createDirectories(tempDir.resolve("a")).resolve("b.tmpl"), "1\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    /* final Path file2 = */ Files.writeString(tempDir.resolve("a_b.tmpl"), "2\n"); //$NON-NLS-1$ //$NON-NLS-2$
+    assertThrows(IllegalStateException.class, () ->
+     {
+      /* final TemplateEngine engine = */ TemplateEngine.newInstance(tempDir.toFile());
+     }
+    );
+   }
+
+
+  /**
+   * Test warmUp loads all files.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void warmUp() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    /* final boolean successFile1 = */ engine.setFile(FILE1, new File(TEMPLATE1_TMPL));
+    /* final boolean successFile2 = */ engine.setFile(FILE2, new File(TEMPLATE2_TMPL));
+    /* final Duration duration = */ engine.warmUp();
+    assertEquals(List.of(FILE1, FILE2), sorted(engine.getVars()), VARIABLE_VALUE_NOT_AS_EXPECTED);
+   }
+
+
+  /**
+   * Test warmUp with a file that has been deleted.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   */
+  @Test
+  public void warmUpDeleted(@TempDir final Path tempDir) throws IOException
+   {
+    final Path file = Files.writeString(tempDir.resolve("deleted.tmpl"), "{x}"); //$NON-NLS-1$ //$NON-NLS-2$
+    final TemplateEngine engine = new TemplateEngine();
+    /* final boolean successFile = */ engine.setFile(FILE1, file.toFile());
+    Files.delete(file);
+    assertThrows(IOException.class, () ->
+     {
+      /* final Duration duration = */ engine.warmUp();
+     }
+    );
+   }
+
+
+  /**
+   * Test newInstance from a classpath directory within the filesystem.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   */
+  @Test
+  public void newInstanceClassLoaderDirectory(@TempDir final Path tempDir) throws IOException
+   {
+    createTemplateDirectory(Files.createDirectories(tempDir.resolve("tpl"))); //$NON-NLS-1$
+    try (URLClassLoader loader = new URLClassLoader(new URL[]{tempDir.toUri().toURL()}, null))
+     {
+      final TemplateEngine engine = TemplateEngine.newInstance(loader, "tpl"); //$NON-NLS-1$
+      assertEquals(List.of("sub_template2", "template1"), sorted(engine.getVars()), VARIABLE_VALUE_NOT_AS_EXPECTED); //$NON-NLS-1$ //$NON-NLS-2$
+     }
+   }
+
+
+  /**
+   * Test newInstance from a classpath directory within a jar.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   */
+  @Test
+  public void newInstanceClassLoaderJar(@TempDir final Path tempDir) throws IOException
+   {
+    final Path jar = tempDir.resolve("templates.jar"); //$NON-NLS-1$
+    try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar)))
+     {
+      out.putNextEntry(new JarEntry("tpl/")); //$NON-NLS-1$
+      out.putNextEntry(new JarEntry("tpl/template1.tmpl")); //$NON-NLS-1$
+      out.write(Files.readAllBytes(Paths.get(TEMPLATE1_TMPL)));
+      out.putNextEntry(new JarEntry("tpl/sub/")); //$NON-NLS-1$
+      out.putNextEntry(new JarEntry("tpl/sub/template2.tmpl")); //$NON-NLS-1$
+      out.write(Files.readAllBytes(Paths.get(TEMPLATE2_TMPL)));
+     }
+    try (URLClassLoader loader = new URLClassLoader(new URL[]{jar.toUri().toURL()}, null))
+     {
+      final TemplateEngine engine = TemplateEngine.newInstance(loader, "tpl"); //$NON-NLS-1$
+      engine.setVar(VARIABLE1, VALUE1);
+      assertAll(
+        () -> assertEquals(List.of("sub_template2", "template1", VARIABLE1), sorted(engine.getVars()), VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$ //$NON-NLS-2$
+        () -> assertEquals("123\nTEST1\n456\n", engine.subst("template1"), VARIABLE_VALUE_NOT_AS_EXPECTED) //$NON-NLS-1$ //$NON-NLS-2$
+      );
+     }
+   }
+
+
+  /**
+   * Test newInstance from a classpath directory that does not exist.
+   */
+  @Test
+  public void newInstanceClassLoaderNotFound()
+   {
+    assertThrows(FileNotFoundException.class, () ->
+     {
+      /* final TemplateEngine engine = */ TemplateEngine.newInstance(TemplateEngineTests.class.getClassLoader(), "doesnotexist"); //$NON-NLS-1$
+     }
+    );
+   }
+
+
   /**
    * Test newInstance from File with null.
    */
@@ -1480,6 +2329,19 @@ public final class TemplateEngineTests
    }
 
 
+  /**
+   * Test newInstance from InputStream with mixed line endings.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void newInstanceInputStreamNewlines() throws IOException
+   {
+    final TemplateEngine engine = TemplateEngine.newInstance(new ByteArrayInputStream("a\r\nb\rc\n\nd".getBytes(StandardCharsets.UTF_8))); //$NON-NLS-1$
+    assertEquals("a\nb\nc\n\nd\n", engine.getVar(TEMPLATE), VARIABLE_VALUE_NOT_AS_EXPECTED); //$NON-NLS-1$
+   }
+
+
   /**
    * Test newInstance from empty InputStream.
    */
@@ -1600,6 +2462,293 @@ public final class TemplateEngineTests
    }
 
 
+  /**
+   * Test asynchronous subst and parse.
+   *
+   * @throws InterruptedException Interrupted
+   * @throws ExecutionException Execution failed
+   */
+  @Test
+  public void substParseAsync() throws InterruptedException, ExecutionException
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    /* final boolean success = */ engine.setFile(FILE1, new File(TEMPLATE1_TMPL));
+    engine.setVar(VARIABLE1, TEST);
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try
+     {
+      final String substResult = engine.substAsync(FILE1, executor).get();
+      final String defaultResult = engine.substAsync(FILE1).get();
+      final String parseResult = engine.parseAsync(VARIABLE2, FILE1, false).get();
+      assertAll(
+        () -> assertEquals("123\nTEST\n456\n", substResult, VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+        () -> assertEquals(substResult, defaultResult, VARIABLE_VALUE_NOT_AS_EXPECTED),
+        () -> assertEquals(substResult, parseResult, VARIABLE_VALUE_NOT_AS_EXPECTED),
+        () -> assertEquals(substResult, engine.getVar(VARIABLE2), VARIABLE_VALUE_NOT_AS_EXPECTED)
+      );
+     }
+    finally
+     {
+      executor.shutdown();
+     }
+   }
+
+
+  /**
+   * Test asynchronous subst with a template file that could not be read.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   */
+  @Test
+  public void substAsyncIOException(@TempDir final Path tempDir) throws IOException
+   {
+    final Path file = Files.writeString(tempDir.resolve("async.tmpl"), "{variable1}"); //$NON-NLS-1$ //$NON-NLS-2$
+    final TemplateEngine engine = new TemplateEngine();
+    /* final boolean success = */ engine.setFile(FILE1, file.toFile());
+    Files.delete(file);
+    final CompletableFuture<String> result = engine.substAsync(FILE1);
+    final ExecutionException exception = assertThrows(ExecutionException.class, result::get);
+    assertTrue(exception.getCause() instanceof IOException, "Cause is not an IOException"); //$NON-NLS-1$
+   }
+
+
+  /**
+   * Test asynchronous subst with wrong variable name fails on the calling thread.
+   */
+  @Test
+  public void substAsyncWrong()
+   {
+    assertThrows(IllegalArgumentException.class, () ->
+     {
+      final TemplateEngine engine = new TemplateEngine();
+      /* final CompletableFuture<String> result = */ engine.substAsync(VARIABLE4);
+     }
+    );
+   }
+
+
+  /**
+   * Test parse rows gives the same result as setVar and parse with append for every row.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void parseRows() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    /* final boolean success = */ engine.setFile(FILE1, new File(TEMPLATE1_TMPL));
+    final List<Map<String, ?>> rows = List.of(Map.of(VARIABLE1, TEST), Map.of(VARIABLE1, 42), Map.of(VARIABLE2, TEST));
+    final TemplateEngine sequential = engine.fork();
+    for (final Map<String, ?> row : rows)
+     {
+      sequential.unsetVar(VARIABLE1);
+      for (final Map.Entry<String, ?> entry : row.entrySet())
+       {
+        sequential.setVar(entry.getKey(), entry.getValue().toString());
+       }
+      /* final String result = */ sequential.parse(VARIABLE3, FILE1, true);
+     }
+    engine.parseRows(VARIABLE3, FILE1, rows);
+    assertAll(
+      () -> assertEquals(sequential.getVar(VARIABLE3), engine.getVar(VARIABLE3), VARIABLE_VALUE_NOT_AS_EXPECTED),
+      () -> assertEquals("123\nTEST\n456\n123\n42\n456\n123\n{variable1}\n456\n", engine.getVar(VARIABLE3), VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertTrue(engine.getVar(VARIABLE1).isEmpty(), "Row value has been set") //$NON-NLS-1$
+    );
+   }
+
+
+  /**
+   * Test parse rows from a parallel stream keeps the row order.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void parseRowsParallel() throws IOException
+   {
+    final TemplateEngine engine = TemplateEngine.newInstance("{n}-{sep}"); //$NON-NLS-1$
+    engine.setVar("sep", ","); //$NON-NLS-1$ //$NON-NLS-2$
+    final StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 1000; ++i)
+     {
+      expected.append(i).append("-,"); //$NON-NLS-1$
+     }
+    engine.parseRows(VARIABLE3, TEMPLATE, IntStream.range(0, 1000).parallel().mapToObj(i -> Map.of("n", i))); //$NON-NLS-1$
+    assertEquals(expected.toString(), engine.getVar(VARIABLE3), VARIABLE_VALUE_NOT_AS_EXPECTED);
+   }
+
+
+  /**
+   * Test parse rows with a block value that references a variable only defined by the rows.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void parseRowsValueVariable() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    engine.setVar(VARIABLE1, "{rowValueVariable};"); //$NON-NLS-1$
+    /* final String result = */ engine.subst(VARIABLE1);
+    engine.parseRows(VARIABLE3, VARIABLE1, List.of(Map.of("rowValueVariable", 1), Map.of("rowValueVariable", 2))); //$NON-NLS-1$ //$NON-NLS-2$
+    assertEquals("1;2;", engine.getVar(VARIABLE3), VARIABLE_VALUE_NOT_AS_EXPECTED); //$NON-NLS-1$
+   }
+
+
+  /**
+   * Test parse rows with a block that references its target.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void parseRowsSelfReference() throws IOException
+   {
+    final TemplateEngine engine = TemplateEngine.newInstance("({out}{n})"); //$NON-NLS-1$
+    engine.parseRows("out", TEMPLATE, Stream.of(Map.of("n", 1), Map.of("n", 2)).parallel()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    assertEquals("({out}1)(({out}1)2)", engine.getVar("out"), VARIABLE_VALUE_NOT_AS_EXPECTED); //$NON-NLS-1$ //$NON-NLS-2$
+   }
+
+
+  /**
+   * Test parse jobs rendered concurrently give the same result as sequential parse calls.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void parseJobs() throws IOException
+   {
+    final TemplateEngine prototype = TemplateEngine.newInstance("<{a}|{b}|{c}|{d}>"); //$NON-NLS-1$
+    prototype.setVar("row", "[{x}]"); //$NON-NLS-1$ //$NON-NLS-2$
+    prototype.setVar("wrap", "({a})"); //$NON-NLS-1$ //$NON-NLS-2$
+    prototype.setVar("x", "1"); //$NON-NLS-1$ //$NON-NLS-2$
+    final TemplateEngine sequential = prototype.fork();
+    final TemplateEngine parallel = prototype.fork();
+    final List<ParseJob> jobs = List.of(ParseJob.of("a", "row"), ParseJob.of("b", "row"), ParseJob.of("c", "wrap"), ParseJob.of("b", "row", true), ParseJob.of("x", "wrap"), ParseJob.of("d", "a"), ParseJob.of("out", TEMPLATE)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$ //$NON-NLS-11$ //$NON-NLS-12$ //$NON-NLS-13$
+    final List<String> expected = new ArrayList<>();
+    for (final ParseJob job : jobs)
+     {
+      expected.add(sequential.parse(job.getTarget(), job.getVarname(), job.isAppend()));
+     }
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try
+     {
+      final List<String> results = parallel.parse(jobs, executor);
+      assertAll(
+        () -> assertEquals(expected, results, VARIABLE_VALUE_NOT_AS_EXPECTED),
+        () -> assertEquals("<[1]|[1][1]|([1])|[1]>", parallel.getVar("out"), VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$ //$NON-NLS-2$
+        () -> assertEquals(sequential, parallel, "Engines not equal") //$NON-NLS-1$
+      );
+     }
+    finally
+     {
+      executor.shutdown();
+     }
+   }
+
+
+  /**
+   * Test parse jobs with null executor.
+   */
+  @Test
+  public void parseJobsExecutorNull()
+   {
+    assertThrows(NullPointerException.class, () ->
+     {
+      final TemplateEngine engine = new TemplateEngine();
+      /* final List<String> results = */ engine.parse(List.of(ParseJob.of(VARIABLE1, VARIABLE2)), null);
+     }
+    );
+   }
+
+
+  /**
+   * Test fork is independent of its origin.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void fork() throws IOException
+   {
+    final TemplateEngine prototype = TemplateEngine.newInstance(new File(TEMPLATE1_TMPL));
+    prototype.setVar(VARIABLE1, VALUE1);
+    prototype.setVar(VARIABLE2, VALUE2);
+    final TemplateEngine engine1 = prototype.fork();
+    final TemplateEngine engine2 = prototype.fork();
+    engine1.setVar(VARIABLE1, VALUE3);
+    engine2.unsetVar(VARIABLE2);
+    prototype.setVar(VARIABLE3, VALUE3);
+    final TemplateEngine engine3 = prototype.fork();
+    final boolean equal = prototype.equals(engine3);
+    assertAll(
+      () -> assertEquals("123\nTEST3\n456\n", engine1.subst(TEMPLATE), VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("123\nTEST1\n456\n", engine2.subst(TEMPLATE), VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("123\nTEST1\n456\n", prototype.subst(TEMPLATE), VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals(VALUE2, prototype.getVar(VARIABLE2), VARIABLE_VALUE_NOT_AS_EXPECTED),
+      () -> assertEquals("", engine2.getVar(VARIABLE2), VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("", engine1.getVar(VARIABLE3), VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals(VALUE3, engine3.getVar(VARIABLE3), VARIABLE_VALUE_NOT_AS_EXPECTED),
+      () -> assertEquals(3, engine1.getVars().size(), "Number of variables not as expected"), //$NON-NLS-1$
+      () -> assertEquals(2, engine2.getVars().size(), "Number of variables not as expected"), //$NON-NLS-1$
+      () -> assertTrue(equal, "Fork not equal to prototype") //$NON-NLS-1$
+    );
+   }
+
+
+  /**
+   * Test forks of a rendering prototype do not share its rendered output.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void forkRenderedPrototype() throws IOException
+   {
+    final TemplateEngine prototype = TemplateEngine.newInstance(new File(TEMPLATE1_TMPL));
+    prototype.setVar(VARIABLE1, VALUE1);
+    final String result1 = prototype.subst(TEMPLATE);
+    final TemplateEngine engine1 = prototype.fork();
+    engine1.setVar(VARIABLE1, VALUE3);
+    final String result2 = engine1.subst(TEMPLATE);
+    final String result3 = prototype.subst(TEMPLATE);
+    final TemplateEngine engine2 = prototype.fork();
+    final String result4 = engine2.subst(TEMPLATE);
+    assertAll(
+      () -> assertEquals("123\nTEST1\n456\n", result1, VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("123\nTEST3\n456\n", result2, VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("123\nTEST1\n456\n", result3, VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("123\nTEST1\n456\n", result4, VARIABLE_VALUE_NOT_AS_EXPECTED) //$NON-NLS-1$
+    );
+   }
+
+
+  /**
+   * Test fork with variables in many slots is independent of its origin.
+   */
+  @Test
+  public void forkManyVariables()
+   {
+    final TemplateEngine prototype = new TemplateEngine();
+    for (int i = 0; i < 100; ++i)
+     {
+      prototype.setVar("fork" + i, String.valueOf(i)); //$NON-NLS-1$
+     }
+    final TemplateEngine engine1 = prototype.fork();
+    final TemplateEngine engine2 = engine1.fork();
+    engine1.setVar("fork1", VALUE1); //$NON-NLS-1$
+    engine2.unsetVar("fork98"); //$NON-NLS-1$
+    prototype.setVar("fork50", VALUE2); //$NON-NLS-1$
+    assertAll(
+      () -> assertEquals(VALUE1, engine1.getVar("fork1"), VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("1", engine2.getVar("fork1"), VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$ //$NON-NLS-2$
+      () -> assertEquals("1", prototype.getVar("fork1"), VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$ //$NON-NLS-2$
+      () -> assertEquals("98", engine1.getVar("fork98"), VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$ //$NON-NLS-2$
+      () -> assertEquals("", engine2.getVar("fork98"), VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$ //$NON-NLS-2$
+      () -> assertEquals("50", engine1.getVar("fork50"), VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$ //$NON-NLS-2$
+      () -> assertEquals(VALUE2, prototype.getVar("fork50"), VARIABLE_VALUE_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals(100, engine1.getVars().size(), "Number of variables not as expected"), //$NON-NLS-1$
+      () -> assertEquals(99, engine2.getVars().size(), "Number of variables not as expected") //$NON-NLS-1$
+    );
+   }
+
+
   /**
    * Test copy constructor.
    */
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine.test;
+
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.powerstat.phplib.templateengine.TemplateCache;
+import de.powerstat.phplib.templateengine.TemplateEngine;
+import de.powerstat.phplib.templateengine.TemplateEngine.HandleUndefined;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+
+/**
+ * Java Flight Recorder event tests.
+ */
+public final class TemplateEventsTests
+ {
+  /**
+   * Event name prefix.
+   */
+  private static final String PREFIX = "de.powerstat.phplib.templateengine."; //$NON-NLS-1$
+
+  /**
+   * Template file 2 path constant.
+   */
+  private static final String TEMPLATE2_TMPL = "target/test-classes/templates/template2.tmpl"; //$NON-NLS-1$
+
+  /**
+   * Template file 2 name constant.
+   */
+  private static final String FILE2 = "file2"; //$NON-NLS-1$
+
+  /**
+   * Block name constant.
+   */
+  private static final String BLK1 = "BLK1"; //$NON-NLS-1$
+
+  /**
+   * Output name constant.
+   */
+  private static final String OUTPUT = "output"; //$NON-NLS-1$
+
+  /**
+   * Event not as expected message.
+   */
+  private static final String EVENT_NOT_AS_EXPECTED = "Event not as expected"; //$NON-NLS-1$
+
+
+  /**
+   * Default constructor.
+   */
+  public TemplateEventsTests()
+   {
+    super();
+   }
+
+
+  /**
+   * Get recorded events of one type.
+   *
+   * @param events All recorded events
+   * @param name Event name without prefix
+   * @return Events of the given type
+   */
+  private static List<RecordedEvent> filter(final List<RecordedEvent> events, final String name)
+   {
+    return events.stream().filter(event -> (PREFIX + name).equals(event.getEventType().getName())).collect(Collectors.toList());
+   }
+
+
+  /**
+   * Test load, block extract, subst and finish events.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   */
+  @Test
+  public void events(@TempDir final Path tempDir) throws IOException
+   {
+    TemplateCache.getInstance().clear();
+    final Path dump = tempDir.resolve("events.jfr"); //$NON-NLS-1$
+    try (Recording recording = new Recording())
+     {
+      recording.enable(PREFIX + "TemplateLoad").withoutThreshold(); //$NON-NLS-1$
+      recording.enable(PREFIX + "BlockExtract").withoutThreshold(); //$NON-NLS-1$
+      recording.enable(PREFIX + "Subst").withoutThreshold(); //$NON-NLS-1$
+      recording.enable(PREFIX + "Finish").withoutThreshold(); //$NON-NLS-1$
+      recording.start();
+      final TemplateEngine engine = new TemplateEngine(HandleUndefined.COMMENT);
+      /* final boolean successFile = */ engine.setFile(FILE2, new File(TEMPLATE2_TMPL));
+      /* final boolean successBlock = */ engine.setBlock(FILE2, BLK1);
+      /* final String result = */ engine.parse(OUTPUT, FILE2);
+      /* final String finished = */ engine.get(OUTPUT);
+      recording.stop();
+      recording.dump(dump);
+     }
+    final List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+    final List<RecordedEvent> loads = filter(events, "TemplateLoad"); //$NON-NLS-1$
+    final List<RecordedEvent> blocks = filter(events, "BlockExtract"); //$NON-NLS-1$
+    final List<RecordedEvent> substs = filter(events, "Subst"); //$NON-NLS-1$
+    final List<RecordedEvent> finishes = filter(events, "Finish"); //$NON-NLS-1$
+    assertAll(
+      () -> assertEquals(1, loads.size(), EVENT_NOT_AS_EXPECTED),
+      () -> assertEquals(FILE2, loads.get(0).getString("template"), EVENT_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals(new File(TEMPLATE2_TMPL).length(), loads.get(0).getLong("size"), EVENT_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals(1, blocks.size(), EVENT_NOT_AS_EXPECTED),
+      () -> assertEquals(BLK1, blocks.get(0).getString("block"), EVENT_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals(21L, blocks.get(0).getLong("blockSize"), EVENT_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals(1, substs.size(), EVENT_NOT_AS_EXPECTED),
+      () -> assertEquals(FILE2, substs.get(0).getString("template"), EVENT_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals(3, substs.get(0).getInt("variableCount"), EVENT_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals(1, finishes.size(), EVENT_NOT_AS_EXPECTED),
+      () -> assertEquals("COMMENT", finishes.get(0).getString("unknowns"), EVENT_NOT_AS_EXPECTED), //$NON-NLS-1$ //$NON-NLS-2$
+      () -> assertEquals(3L, finishes.get(0).getLong("undefinedCount"), EVENT_NOT_AS_EXPECTED) //$NON-NLS-1$
+    );
+   }
+
+
+  /**
+   * Test finish events with KEEP.
+   *
+   * @param tempDir Temporary directory
+   * @throws IOException IO exception
+   */
+  @Test
+  public void finishKeep(@TempDir final Path tempDir) throws IOException
+   {
+    final Path dump = tempDir.resolve("keep.jfr"); //$NON-NLS-1$
+    final String template = "a{variable1}b"; //$NON-NLS-1$
+    try (Recording recording = new Recording())
+     {
+      recording.enable(PREFIX + "Finish").withoutThreshold(); //$NON-NLS-1$
+      recording.start();
+      final TemplateEngine engine = new TemplateEngine(HandleUndefined.KEEP);
+      /* final String finished = */ engine.finish(template);
+      engine.finish(template, new StringBuilder());
+      recording.stop();
+      recording.dump(dump);
+     }
+    final List<RecordedEvent> finishes = filter(RecordingFile.readAllEvents(dump), "Finish"); //$NON-NLS-1$
+    assertAll(
+      () -> assertEquals(2, finishes.size(), EVENT_NOT_AS_EXPECTED),
+      () -> assertEquals("KEEP", finishes.get(0).getString("unknowns"), EVENT_NOT_AS_EXPECTED), //$NON-NLS-1$ //$NON-NLS-2$
+      () -> assertEquals(template.length(), finishes.get(0).getLong("outputSize"), EVENT_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals(template.length(), finishes.get(1).getLong("outputSize"), EVENT_NOT_AS_EXPECTED) //$NON-NLS-1$
+    );
+   }
+
+ }
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine.test;
+
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import de.powerstat.phplib.templateengine.TemplateCache;
+import de.powerstat.phplib.templateengine.TemplateEngine;
+import de.powerstat.phplib.templateengine.TemplateEngine.HandleUndefined;
+import de.powerstat.phplib.templateengine.TemplateMetrics;
+
+
+/**
+ * TemplateMetrics tests.
+ */
+public final class TemplateMetricsTests
+ {
+  /**
+   * Template file 1 path constant.
+   */
+  private static final String TEMPLATE1_TMPL = "target/test-classes/templates/template1.tmpl"; //$NON-NLS-1$
+
+  /**
+   * Template file 1 name constant.
+   */
+  private static final String FILE1 = "file1"; //$NON-NLS-1$
+
+  /**
+   * Output name constant.
+   */
+  private static final String OUTPUT = "output"; //$NON-NLS-1$
+
+  /**
+   * Counter not as expected message.
+   */
+  private static final String COUNTER_NOT_AS_EXPECTED = "Counter not as expected"; //$NON-NLS-1$
+
+  /**
+   * Template metrics.
+   */
+  private final TemplateMetrics metrics = TemplateMetrics.getInstance();
+
+
+  /**
+   * Default constructor.
+   */
+  public TemplateMetricsTests()
+   {
+    super();
+   }
+
+
+  /**
+   * Start every test with reset metrics and an empty cache.
+   */
+  @BeforeEach
+  public void reset()
+   {
+    TemplateCache.getInstance().clear();
+    this.metrics.reset();
+   }
+
+
+  /**
+   * Disable metrics after every test.
+   */
+  @AfterEach
+  public void disable()
+   {
+    this.metrics.setEnabled(false);
+    this.metrics.reset();
+   }
+
+
+  /**
+   * Render a page.
+   *
+   * @throws IOException IO exception
+   */
+  private static void render() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine(HandleUndefined.COMMENT);
+    /* final boolean success = */ engine.setFile(FILE1, new File(TEMPLATE1_TMPL));
+    /* final String result = */ engine.parse(OUTPUT, FILE1);
+    /* final String page = */ engine.get(OUTPUT);
+   }
+
+
+  /**
+   * Test counters when enabled.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void enabled() throws IOException
+   {
+    this.metrics.setEnabled(true);
+    render();
+    assertAll(
+      () -> assertTrue(this.metrics.isEnabled(), "Metrics not enabled"), //$NON-NLS-1$
+      () -> assertEquals(1, this.metrics.getTemplatesLoaded(), COUNTER_NOT_AS_EXPECTED),
+      () -> assertEquals(1, this.metrics.getParseCalls(), COUNTER_NOT_AS_EXPECTED),
+      () -> assertEquals(1, this.metrics.getSubstCalls(), COUNTER_NOT_AS_EXPECTED),
+      () -> assertEquals(20, this.metrics.getCharsRendered(), COUNTER_NOT_AS_EXPECTED),
+      () -> assertEquals(1, this.metrics.getUndefinedVariables(), COUNTER_NOT_AS_EXPECTED),
+      () -> assertEquals(1, this.metrics.getSubstCallsByTemplate().get(FILE1), COUNTER_NOT_AS_EXPECTED),
+      () -> assertTrue(this.metrics.getSubstTimeNanosByTemplate().containsKey(FILE1), COUNTER_NOT_AS_EXPECTED)
+    );
+   }
+
+
+  /**
+   * Test templates taken from the cache are counted as cache hits and not as loaded.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void cacheHits() throws IOException
+   {
+    this.metrics.setEnabled(true);
+    render();
+    render();
+    assertAll(
+      () -> assertEquals(1, this.metrics.getTemplatesLoaded(), COUNTER_NOT_AS_EXPECTED),
+      () -> assertEquals(1, this.metrics.getTemplateCacheHits(), COUNTER_NOT_AS_EXPECTED)
+    );
+   }
+
+
+  /**
+   * Test no counting when disabled.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void disabled() throws IOException
+   {
+    render();
+    assertAll(
+      () -> assertEquals(0, this.metrics.getTemplatesLoaded(), COUNTER_NOT_AS_EXPECTED),
+      () -> assertEquals(0, this.metrics.getSubstCalls(), COUNTER_NOT_AS_EXPECTED),
+      () -> assertTrue(this.metrics.getSubstCallsByTemplate().isEmpty(), COUNTER_NOT_AS_EXPECTED)
+    );
+   }
+
+
+  /**
+   * Test reading metrics via JMX.
+   *
+   * @throws IOException IO exception
+   * @throws JMException JMX exception
+   */
+  @Test
+  public void jmx() throws IOException, JMException
+   {
+    this.metrics.register();
+    try
+     {
+      this.metrics.setEnabled(true);
+      render();
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName name = new ObjectName(TemplateMetrics.OBJECT_NAME);
+      assertAll(
+        () -> assertEquals(1L, server.getAttribute(name, "SubstCalls"), COUNTER_NOT_AS_EXPECTED), //$NON-NLS-1$
+        () -> assertTrue((Long)server.getAttribute(name, "CacheMisses") >= 1L, COUNTER_NOT_AS_EXPECTED) //$NON-NLS-1$
+      );
+     }
+    finally
+     {
+      this.metrics.unregister();
+     }
+   }
+
+ }
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine.test;
+
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.jupiter.api.Test;
+
+import de.powerstat.phplib.templateengine.RenderContext;
+import de.powerstat.phplib.templateengine.TemplateEngine;
+import de.powerstat.phplib.templateengine.TemplateEngine.HandleUndefined;
+import de.powerstat.phplib.templateengine.TemplateSet;
+import de.powerstat.phplib.templateengine.VarName;
+
+
+/**
+ * TemplateSet and RenderContext tests.
+ */
+public final class TemplateSetTests
+ {
+  /**
+   * Template file 2 path constant.
+   */
+  private static final String TEMPLATE2_TMPL = "target/test-classes/templates/template2.tmpl"; //$NON-NLS-1$
+
+  /**
+   * Template file 2 name constant.
+   */
+  private static final String FILE2 = "file2"; //$NON-NLS-1$
+
+  /**
+   * Block name constant.
+   */
+  private static final String BLK1 = "BLK1"; //$NON-NLS-1$
+
+  /**
+   * Block target name constant.
+   */
+  private static final String BLK1_BLK = "BLK1_BLK"; //$NON-NLS-1$
+
+  /**
+   * Template variable 2 name constant.
+   */
+  private static final String VARIABLE2 = "variable2"; //$NON-NLS-1$
+
+  /**
+   * Output name constant.
+   */
+  private static final String OUTPUT = "output"; //$NON-NLS-1$
+
+  /**
+   * Result not as expected message.
+   */
+  private static final String RESULT_NOT_AS_EXPECTED = "Result not as expected"; //$NON-NLS-1$
+
+
+  /**
+   * Default constructor.
+   */
+  public TemplateSetTests()
+   {
+    super();
+   }
+
+
+  /**
+   * Create template set with a block.
+   *
+   * @return Template set
+   * @throws IOException IO exception
+   */
+  private static TemplateSet createTemplateSet() throws IOException
+   {
+    final TemplateEngine engine = new TemplateEngine();
+    /* final boolean successFile = */ engine.setFile(FILE2, new File(TEMPLATE2_TMPL));
+    /* final boolean successBlock = */ engine.setBlock(FILE2, BLK1, BLK1_BLK);
+    return TemplateSet.of(engine);
+   }
+
+
+  /**
+   * Render a page with rows within a context.
+   *
+   * @param templates Template set
+   * @param prefix Row value prefix
+   * @return Rendered page
+   */
+  private static String render(final TemplateSet templates, final String prefix)
+   {
+    final RenderContext context = templates.newContext();
+    for (int i = 0; i < 3; ++i)
+     {
+      context.setVar(VARIABLE2, prefix + i);
+      /* final String row = */ context.parse(BLK1_BLK, BLK1, true);
+     }
+    /* final String page = */ context.parse(OUTPUT, FILE2, false);
+    return context.get(OUTPUT);
+   }
+
+
+  /**
+   * Test render within a context.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void render() throws IOException
+   {
+    final TemplateSet templates = createTemplateSet();
+    assertAll(
+      () -> assertEquals(List.of(BLK1, FILE2), templates.getNames(), RESULT_NOT_AS_EXPECTED),
+      () -> assertEquals("123\n\n456\n\n789\na0\nabc\n\n789\na1\nabc\n\n789\na2\nabc\n\ndef\n\nghi\n", render(templates, "a"), RESULT_NOT_AS_EXPECTED) //$NON-NLS-1$ //$NON-NLS-2$
+    );
+   }
+
+
+  /**
+   * Test contexts are independent of each other and of the template set.
+   *
+   * @throws IOException IO exception
+   * @throws ExecutionException Execution failed
+   * @throws InterruptedException Interrupted
+   */
+  @Test
+  public void concurrentContexts() throws IOException, InterruptedException, ExecutionException
+   {
+    final TemplateSet templates = createTemplateSet();
+    final List<CompletableFuture<String>> futures = new ArrayList<>();
+    for (int i = 0; i < 8; ++i)
+     {
+      final String prefix = "p" + i; //$NON-NLS-1$
+      futures.add(CompletableFuture.supplyAsync(() -> render(templates, prefix)));
+     }
+    final String expected = render(templates, "p3"); //$NON-NLS-1$
+    assertAll(
+      () -> assertEquals(expected, futures.get(3).get(), RESULT_NOT_AS_EXPECTED),
+      () -> assertEquals("\n789\n{variable2}\nabc\n", templates.newContext().getVar(BLK1), RESULT_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("", templates.newContext().getVar(BLK1_BLK), RESULT_NOT_AS_EXPECTED) //$NON-NLS-1$
+    );
+   }
+
+
+  /**
+   * Test repeated subst of a context value follows changes of the value.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void substContextValue() throws IOException
+   {
+    final RenderContext context = createTemplateSet().newContext();
+    context.setVar(VARIABLE2, "x"); //$NON-NLS-1$
+    context.setVar("page", "[{variable2}]"); //$NON-NLS-1$ //$NON-NLS-2$
+    final String first = context.subst("page"); //$NON-NLS-1$
+    final String second = context.subst("page"); //$NON-NLS-1$
+    context.setVar("page", "({variable2})"); //$NON-NLS-1$ //$NON-NLS-2$
+    final String changed = context.subst("page"); //$NON-NLS-1$
+    /* final String appended = */ context.parse("page", VARIABLE2, true); //$NON-NLS-1$
+    final String append = context.subst("page"); //$NON-NLS-1$
+    assertAll(
+      () -> assertEquals("[x]", first, RESULT_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals(first, second, RESULT_NOT_AS_EXPECTED),
+      () -> assertEquals("(x)", changed, RESULT_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("(x)x", append, RESULT_NOT_AS_EXPECTED) //$NON-NLS-1$
+    );
+   }
+
+
+  /**
+   * Test set, unset and streaming within a context.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void setUnsetVar() throws IOException
+   {
+    final RenderContext context = createTemplateSet().newContext(HandleUndefined.COMMENT);
+    final VarName block = VarName.of(BLK1);
+    context.setVar(block, "{variable2}"); //$NON-NLS-1$
+    final String overridden = context.subst(block);
+    context.unsetVar(BLK1);
+    final StringWriter writer = new StringWriter();
+    context.subst(BLK1, writer);
+    final StringWriter finished = new StringWriter();
+    context.get(BLK1, finished);
+    assertAll(
+      () -> assertEquals("{variable2}", overridden, RESULT_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("\n789\n{variable2}\nabc\n", writer.toString(), RESULT_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("\n789\n<!-- Template variable 'variable2' undefined -->\nabc\n", finished.toString(), RESULT_NOT_AS_EXPECTED) //$NON-NLS-1$
+    );
+   }
+
+
+  /**
+   * Test subst with finish in one pass within a context.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void substFinish() throws IOException
+   {
+    final RenderContext context = createTemplateSet().newContext(HandleUndefined.COMMENT);
+    final String expected = context.get(BLK1);
+    final String undefined = context.substFinish(BLK1);
+    context.setVar(VARIABLE2, "{x}"); //$NON-NLS-1$
+    final String value = context.substFinish(BLK1);
+    assertAll(
+      () -> assertEquals(expected, undefined, RESULT_NOT_AS_EXPECTED),
+      () -> assertEquals("\n789\n<!-- Template variable 'x' undefined -->\nabc\n", value, RESULT_NOT_AS_EXPECTED) //$NON-NLS-1$
+    );
+   }
+
+
+  /**
+   * Test byte output within a context.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void substBytes() throws IOException
+   {
+    final RenderContext context = createTemplateSet().newContext();
+    context.setVar(VARIABLE2, "äöü"); //$NON-NLS-1$
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    context.substBytes(BLK1, stream);
+    final ByteBuffer buffer = ByteBuffer.allocate(32);
+    context.substBytes(BLK1, buffer);
+    buffer.flip();
+    assertAll(
+      () -> assertEquals("\n789\näöü\nabc\n", stream.toString(StandardCharsets.UTF_8), RESULT_NOT_AS_EXPECTED), //$NON-NLS-1$
+      () -> assertEquals("\n789\näöü\nabc\n", StandardCharsets.UTF_8.decode(buffer).toString(), RESULT_NOT_AS_EXPECTED) //$NON-NLS-1$
+    );
+   }
+
+
+  /**
+   * Test set variable with wrong name.
+   *
+   * @throws IOException IO exception
+   */
+  @Test
+  public void setVarWrong() throws IOException
+   {
+    final RenderContext context = createTemplateSet().newContext();
+    assertThrows(IllegalArgumentException.class, () ->
+     {
+      context.setVar("file~", "x"); //$NON-NLS-1$ //$NON-NLS-2$
+     }
+    );
+   }
+
+
+  /**
+   * Test of with null engine.
+   */
+  @Test
+  public void ofNull()
+   {
+    assertThrows(NullPointerException.class, () ->
+     {
+      /* final TemplateSet templates = */ TemplateSet.of((TemplateEngine)null);
+     }
+    );
+   }
+
+ }
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2020 Dipl.-Inform. Kai Hofmann. All rights reserved!
+ */
+package de.powerstat.phplib.templateengine.test;
+
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import de.powerstat.phplib.templateengine.VarName;
+
+
+/**
+ * VarName tests.
+ */
+public final class VarNameTests
+ {
+  /**
+   * Variable name constant.
+   */
+  private static final String VARIABLE1 = "variable1"; //$NON-NLS-1$
+
+  /**
+   * Variable name with maximum length constant.
+   */
+  private static final String MAX_LENGTH = "abcdefghijklmnopqrstuvwxyz_ABCDEFGHIJKLMNOPQRSTUVWXYZ_0123456789"; //$NON-NLS-1$
+
+  /**
+   * Result not as expected message.
+   */
+  private static final String RESULT_NOT_AS_EXPECTED = "Result not as expected"; //$NON-NLS-1$
+
+
+  /**
+   * Default constructor.
+   */
+  public VarNameTests()
+   {
+    super();
+   }
+
+
+  /**
+   * Test valid names.
+   */
+  @Test
+  public void ofValid()
+   {
+    assertAll(
+      () -> assertEquals(VARIABLE1, VarName.of(VARIABLE1).getName(), RESULT_NOT_AS_EXPECTED),
+      () -> assertEquals("_", VarName.of("_").getName(), RESULT_NOT_AS_EXPECTED), //$NON-NLS-1$ //$NON-NLS-2$
+      () -> assertEquals(MAX_LENGTH, VarName.of(MAX_LENGTH).getName(), RESULT_NOT_AS_EXPECTED)
+    );
+   }
+
+
+  /**
+   * Test empty name.
+   */
+  @Test
+  public void ofEmpty()
+   {
+    assertThrows(IllegalArgumentException.class, () ->
+     {
+      /* final VarName varname = */ VarName.of(""); //$NON-NLS-1$
+     }
+    );
+   }
+
+
+  /**
+   * Test to long name.
+   */
+  @Test
+  public void ofToLong()
+   {
+    assertThrows(IllegalArgumentException.class, () ->
+     {
+      /* final VarName varname = */ VarName.of(MAX_LENGTH + "1"); //$NON-NLS-1$
+     }
+    );
+   }
+
+
+  /**
+   * Test name with characters outside of the name pattern.
+   */
+  @Test
+  public void ofWrong()
+   {
+    assertAll(
+      () -> assertThrows(IllegalArgumentException.class, () -> VarName.of("a-b")), //$NON-NLS-1$
+      () -> assertThrows(IllegalArgumentException.class, () -> VarName.of("{a}")), //$NON-NLS-1$
+      () -> assertThrows(IllegalArgumentException.class, () -> VarName.of("\u00e4")) //$NON-NLS-1$
+    );
+   }
+
+
+  /**
+   * Test null name.
+   */
+  @Test
+  public void ofNull()
+   {
+    assertThrows(NullPointerException.class, () ->
+     {
+      /* final VarName varname = */ VarName.of(null);
+     }
+    );
+   }
+
+
+  /**
+   * Test equals, hashCode and compareTo.
+   */
+  @Test
+  public void testEquals()
+   {
+    final VarName name1 = VarName.of(VARIABLE1);
+    final VarName name2 = VarName.of(VARIABLE1);
+    final VarName name3 = VarName.of("variable2"); //$NON-NLS-1$
+    assertAll(
+      () -> assertEquals(name1, name2, RESULT_NOT_AS_EXPECTED),
+      () -> assertEquals(name1.hashCode(), name2.hashCode(), RESULT_NOT_AS_EXPECTED),
+      () -> assertNotEquals(name1, name3, RESULT_NOT_AS_EXPECTED),
+      () -> assertEquals(0, name1.compareTo(name2), RESULT_NOT_AS_EXPECTED),
+      () -> assertTrue(name1.compareTo(name3) < 0, RESULT_NOT_AS_EXPECTED)
+    );
+   }
+
+
+  /**
+   * Test toString.
+   */
+  @Test
+  public void testToString()
+   {
+    assertEquals("VarName[name=variable1]", VarName.of(VARIABLE1).toString(), RESULT_NOT_AS_EXPECTED); //$NON-NLS-1$
+   }
+
+ }